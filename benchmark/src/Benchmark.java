@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A small multi-threaded throughput harness. Each benchmark runs a fixed number
+ * of worker threads for a warmup period, then for several measurement
+ * iterations, and reports the operations per second and average time per
+ * operation across all threads.
+ *
+ * <p>
+ * This follows the same approach as JMH (warmup, repeated iterations, and
+ * consuming results to prevent dead code elimination), but does not depend on
+ * it. JMH cannot generate benchmarks for classes in the default package, which
+ * is where the classes under test live.
+ */
+public class Benchmark {
+
+	/**
+	 * A benchmark operation run repeatedly by each worker thread.
+	 */
+	public interface Operation {
+
+		/**
+		 * Runs a single operation.
+		 *
+		 * @param thread the index of the worker thread
+		 * @param count the number of operations this thread has run so far
+		 * @return a value consumed by the harness to prevent dead code elimination
+		 */
+		public long run(int thread, long count);
+	}
+
+	/** Prevents the JIT from eliminating unused results. */
+	private static volatile long sink;
+
+	/** How long to warm up before measuring. */
+	private final long warmup;
+
+	/** How long each measurement iteration lasts. */
+	private final long duration;
+
+	/** Number of measurement iterations. */
+	private final int iterations;
+
+	/**
+	 * Initializes a benchmark harness.
+	 *
+	 * @param warmup how long to warm up in milliseconds
+	 * @param duration how long each measurement iteration lasts in milliseconds
+	 * @param iterations number of measurement iterations
+	 */
+	public Benchmark(long warmup, long duration, int iterations) {
+		this.warmup = warmup;
+		this.duration = duration;
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Runs the operation on the provided number of threads and prints the
+	 * results.
+	 *
+	 * @param name the benchmark name to print
+	 * @param threads the number of worker threads
+	 * @param operation the operation to run
+	 * @return the best throughput in operations per second
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	public double run(String name, int threads, Operation operation) throws InterruptedException {
+		measure(threads, operation, warmup);
+
+		double best = 0;
+		double total = 0;
+
+		for (int i = 0; i < iterations; i++) {
+			double throughput = measure(threads, operation, duration);
+			best = Math.max(best, throughput);
+			total += throughput;
+		}
+
+		double average = total / iterations;
+		System.out.printf("%-48s %3d threads %,16.0f ops/s %10.1f ns/op%n",
+				name, threads, average, threads * 1e9 / average);
+		return best;
+	}
+
+	/**
+	 * Runs a single timed iteration.
+	 *
+	 * @param threads the number of worker threads
+	 * @param operation the operation to run
+	 * @param millis how long to run
+	 * @return the throughput in operations per second
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	private static double measure(int threads, Operation operation, long millis)
+			throws InterruptedException {
+		AtomicBoolean running = new AtomicBoolean(true);
+		CountDownLatch ready = new CountDownLatch(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		long[] counts = new long[threads];
+		List<Thread> workers = new ArrayList<>();
+
+		for (int t = 0; t < threads; t++) {
+			int index = t;
+
+			Thread worker = new Thread(() -> {
+				long count = 0;
+				long result = 0;
+
+				ready.countDown();
+
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+
+				while (running.get()) {
+					result += operation.run(index, count);
+					count++;
+				}
+
+				counts[index] = count;
+				sink += result;
+			});
+
+			worker.start();
+			workers.add(worker);
+		}
+
+		ready.await();
+		long begin = System.nanoTime();
+		start.countDown();
+		TimeUnit.MILLISECONDS.sleep(millis);
+		running.set(false);
+
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		long elapsed = System.nanoTime() - begin;
+		long total = 0;
+
+		for (long count : counts) {
+			total += count;
+		}
+
+		return total * 1e9 / elapsed;
+	}
+
+	/**
+	 * Returns the thread counts to benchmark: powers of two from one up to twice
+	 * the number of available processors.
+	 *
+	 * @return thread counts to benchmark
+	 */
+	public static List<Integer> threadCounts() {
+		int max = Runtime.getRuntime().availableProcessors() * 2;
+		List<Integer> counts = new ArrayList<>();
+
+		for (int threads = 1; threads < max; threads *= 2) {
+			counts.add(threads);
+		}
+
+		counts.add(max);
+		return counts;
+	}
+
+	/**
+	 * Creates a harness from command-line arguments, or uses defaults if they are
+	 * missing.
+	 *
+	 * @param args optional warmup, duration (both in milliseconds), and iterations
+	 * @return benchmark harness
+	 */
+	public static Benchmark fromArgs(String[] args) {
+		long warmup = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		long duration = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		return new Benchmark(warmup, duration, iterations);
+	}
+}
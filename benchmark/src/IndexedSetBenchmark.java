@@ -0,0 +1,112 @@
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Benchmarks the {@link ThreadSafeIndexedSet}, {@link LockFreeIndexedSet},
+ * {@link ShardedIndexedSet}, and {@link ThreadSafeIntIndexedSet} add, contains,
+ * and get operations at different thread counts, using a synchronized
+ * {@link HashSet} as a baseline for contains. The sharded set is only
+ * benchmarked unsorted.
+ *
+ * <p>
+ * Run with optional warmup, duration (both in milliseconds), and iteration
+ * arguments. See {@link Benchmark#fromArgs(String[])}.
+ */
+public class IndexedSetBenchmark {
+
+	/** Number of elements added to each set before reading. */
+	private static final int ELEMENTS = 100000;
+
+	/**
+	 * Creates a set containing the integers from zero up to {@link #ELEMENTS}.
+	 *
+	 * @param factory creates an empty set
+	 * @param sorted whether the set should be sorted
+	 * @return filled set
+	 */
+	private static ConcurrentIndexedSet<Integer> filled(
+			Function<Boolean, ConcurrentIndexedSet<Integer>> factory, boolean sorted) {
+		ConcurrentIndexedSet<Integer> set = factory.apply(sorted);
+
+		for (int i = 0; i < ELEMENTS; i++) {
+			set.add(i);
+		}
+
+		return set;
+	}
+
+	/**
+	 * Runs the indexed set benchmarks.
+	 *
+	 * @param args optional warmup, duration, and iteration arguments
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Benchmark benchmark = Benchmark.fromArgs(args);
+
+		String[] names = { "ThreadSafeIndexedSet", "LockFreeIndexedSet", "ShardedIndexedSet" };
+		Function<Boolean, ConcurrentIndexedSet<Integer>> safe = ThreadSafeIndexedSet::new;
+		Function<Boolean, ConcurrentIndexedSet<Integer>> free = LockFreeIndexedSet::new;
+		Function<Boolean, ConcurrentIndexedSet<Integer>> sharded = sorted -> new ShardedIndexedSet<>();
+		List<Function<Boolean, ConcurrentIndexedSet<Integer>>> factories = List.of(safe, free, sharded);
+
+		for (int threads : Benchmark.threadCounts()) {
+			for (boolean sorted : new boolean[] { false, true }) {
+				String mode = sorted ? " sorted" : " unsorted";
+
+				for (int i = 0; i < names.length; i++) {
+					if (sorted && i == 2) {
+						continue;
+					}
+
+					String name = names[i] + mode;
+					ConcurrentIndexedSet<Integer> set = filled(factories.get(i), sorted);
+
+					benchmark.run(name + " contains", threads,
+							(thread, count) -> set.contains((int) (count % (ELEMENTS * 2))) ? 1 : 0);
+
+					if (!sorted || i == 0) {
+						// sorted lock-free get walks the skip list, so is much slower
+						benchmark.run(name + " get", threads,
+								(thread, count) -> set.get((int) (count % ELEMENTS)));
+					}
+
+					ConcurrentIndexedSet<Integer> empty = factories.get(i).apply(sorted);
+
+					benchmark.run(name + " add", threads,
+							(thread, count) -> empty.add((int) (count * threads + thread)) ? 1 : 0);
+				}
+
+				ThreadSafeIntIndexedSet ints = new ThreadSafeIntIndexedSet(sorted);
+
+				for (int i = 0; i < ELEMENTS; i++) {
+					ints.add(i);
+				}
+
+				benchmark.run("ThreadSafeIntIndexedSet" + mode + " contains", threads,
+						(thread, count) -> ints.contains((int) (count % (ELEMENTS * 2))) ? 1 : 0);
+				benchmark.run("ThreadSafeIntIndexedSet" + mode + " get", threads,
+						(thread, count) -> ints.get((int) (count % ELEMENTS)));
+
+				ThreadSafeIntIndexedSet emptyInts = new ThreadSafeIntIndexedSet(sorted);
+
+				benchmark.run("ThreadSafeIntIndexedSet" + mode + " add", threads,
+						(thread, count) -> emptyInts.add((int) (count * threads + thread)) ? 1 : 0);
+			}
+
+			Set<Integer> baseline = Collections.synchronizedSet(new HashSet<>());
+
+			for (int i = 0; i < ELEMENTS; i++) {
+				baseline.add(i);
+			}
+
+			benchmark.run("synchronized HashSet contains", threads,
+					(thread, count) -> baseline.contains((int) (count % (ELEMENTS * 2))) ? 1 : 0);
+
+			System.out.println();
+		}
+	}
+}
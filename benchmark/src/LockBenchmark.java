@@ -0,0 +1,166 @@
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Benchmarks the cost of acquiring and releasing {@link SimpleReadWriteLock}
+ * under different read:write mixes and thread counts, using
+ * {@link ReentrantReadWriteLock} and {@link StampedLock} as baselines.
+ *
+ * <p>
+ * Run with optional warmup, duration (both in milliseconds), and iteration
+ * arguments. See {@link Benchmark#fromArgs(String[])}.
+ */
+public class LockBenchmark {
+
+	/**
+	 * A lock under test, adapted to a common interface.
+	 */
+	private interface TestedLock {
+
+		/** Acquires the read lock. */
+		public void readLock();
+
+		/** Releases the read lock. */
+		public void readUnlock();
+
+		/** Acquires the write lock. */
+		public void writeLock();
+
+		/** Releases the write lock. */
+		public void writeUnlock();
+	}
+
+	/**
+	 * Adapts a {@link SimpleReadWriteLock}.
+	 *
+	 * @param lock the lock to adapt
+	 * @return the adapted lock
+	 */
+	private static TestedLock adapt(SimpleReadWriteLock lock) {
+		SimpleLock read = lock.readLock();
+		SimpleLock write = lock.writeLock();
+
+		return new TestedLock() {
+			@Override
+			public void readLock() {
+				read.lock();
+			}
+
+			@Override
+			public void readUnlock() {
+				read.unlock();
+			}
+
+			@Override
+			public void writeLock() {
+				write.lock();
+			}
+
+			@Override
+			public void writeUnlock() {
+				write.unlock();
+			}
+		};
+	}
+
+	/**
+	 * Adapts a {@link ReadWriteLock} from the standard library.
+	 *
+	 * @param lock the lock to adapt
+	 * @return the adapted lock
+	 */
+	private static TestedLock adapt(ReadWriteLock lock) {
+		Lock read = lock.readLock();
+		Lock write = lock.writeLock();
+
+		return new TestedLock() {
+			@Override
+			public void readLock() {
+				read.lock();
+			}
+
+			@Override
+			public void readUnlock() {
+				read.unlock();
+			}
+
+			@Override
+			public void writeLock() {
+				write.lock();
+			}
+
+			@Override
+			public void writeUnlock() {
+				write.unlock();
+			}
+		};
+	}
+
+	/**
+	 * Runs a read:write mix against a lock.
+	 *
+	 * @param benchmark the harness to use
+	 * @param name the name of the lock
+	 * @param lock the lock to benchmark
+	 * @param readPercent percentage of operations that read
+	 * @param threads number of worker threads
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	private static void mix(Benchmark benchmark, String name, TestedLock lock,
+			int readPercent, int threads) throws InterruptedException {
+		long[] shared = new long[1];
+		String label = String.format("%s %d:%d", name, readPercent, 100 - readPercent);
+
+		benchmark.run(label, threads, (thread, count) -> {
+			if (count % 100 < readPercent) {
+				lock.readLock();
+
+				try {
+					return shared[0];
+				}
+				finally {
+					lock.readUnlock();
+				}
+			}
+
+			lock.writeLock();
+
+			try {
+				return ++shared[0];
+			}
+			finally {
+				lock.writeUnlock();
+			}
+		});
+	}
+
+	/**
+	 * Runs the lock benchmarks.
+	 *
+	 * @param args optional warmup, duration, and iteration arguments
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Benchmark benchmark = Benchmark.fromArgs(args);
+		String[] names = { "SimpleReadWriteLock", "SimpleReadWriteLock (striped)",
+				"ReentrantReadWriteLock", "StampedLock" };
+
+		for (int readPercent : new int[] { 100, 95, 50 }) {
+			for (int threads : Benchmark.threadCounts()) {
+				TestedLock[] locks = {
+						adapt(new SimpleReadWriteLock()),
+						adapt(new SimpleReadWriteLock(SimpleReadWriteLock.Fairness.READER_PREFERRING, true)),
+						adapt(new ReentrantReadWriteLock()),
+						adapt(new StampedLock().asReadWriteLock()) };
+
+				for (int i = 0; i < locks.length; i++) {
+					mix(benchmark, names[i], locks[i], readPercent, threads);
+				}
+			}
+
+			System.out.println();
+		}
+	}
+}
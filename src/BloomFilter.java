@@ -0,0 +1,198 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter that answers whether an element may have been added. A
+ * negative answer is always correct, while a positive answer is wrong with
+ * about the configured false positive rate, as long as no more than the
+ * configured capacity of elements were added. Elements can never be removed.
+ *
+ * <p>
+ * The bits are kept in an {@link AtomicLongArray} and set with
+ * compare-and-set, so both {@link #add(Object)} and
+ * {@link #mightContain(Object)} are lock-free and may be called by any number
+ * of threads at the same time. Once {@link #add(Object)} returns, every later
+ * call to {@link #mightContain(Object)} sees the element.
+ *
+ * <p>
+ * Each element is hashed once with {@link Object#hashCode()}, and the bit
+ * positions are derived from that with double hashing. Elements with equal
+ * hash codes are therefore indistinguishable.
+ *
+ * @param <E> element type
+ *
+ * @see ThreadSafeIndexedSet#useFilter(double)
+ */
+public class BloomFilter<E> {
+
+	/** Smallest number of bits in a filter. */
+	private static final int MIN_BITS = Long.SIZE;
+
+	/** Largest number of bits in a filter (128 MB). */
+	private static final int MAX_BITS = 1 << 30;
+
+	/** The bits, 64 per long. */
+	private final AtomicLongArray bits;
+
+	/** Mask used to pick a bit from a hash. */
+	private final int mask;
+
+	/** Number of bits set per element. */
+	private final int hashes;
+
+	/** Number of elements the filter was sized for. */
+	private final int capacity;
+
+	/** The false positive rate the filter was sized for. */
+	private final double falsePositiveRate;
+
+	/** Number of added elements that changed at least one bit. */
+	private final AtomicInteger count;
+
+	/**
+	 * Initializes an empty filter sized for the given number of elements and
+	 * false positive rate. The number of bits is rounded up to a power of two, so
+	 * the actual false positive rate is usually a bit lower.
+	 *
+	 * @param capacity the number of elements to size the filter for
+	 * @param falsePositiveRate the false positive rate once the filter holds that
+	 *   many elements, between 0 and 1 (exclusive)
+	 */
+	public BloomFilter(int capacity, double falsePositiveRate) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive.");
+		}
+
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1.");
+		}
+
+		// optimal number of bits is -n ln(p) / ln(2)^2
+		double optimal = -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		int length = (int) Math.max(MIN_BITS, Math.min(MAX_BITS, Math.ceil(optimal)));
+		length = Integer.highestOneBit(length * 2 - 1);
+
+		this.bits = new AtomicLongArray(length / Long.SIZE);
+		this.mask = length - 1;
+		this.hashes = (int) Math.max(1, Math.round(-Math.log(falsePositiveRate) / Math.log(2)));
+		this.capacity = capacity;
+		this.falsePositiveRate = falsePositiveRate;
+		this.count = new AtomicInteger();
+	}
+
+	/**
+	 * Returns the 64-bit hash of an element, from which the bit positions are
+	 * derived. Mixes the hash code so that similar hash codes do not produce
+	 * similar bit positions.
+	 *
+	 * @param element the element (may be null)
+	 * @return mixed hash
+	 */
+	private static long hash(Object element) {
+		long hash = (element == null ? 0 : element.hashCode()) * 0x9E3779B97F4A7C15L;
+		hash = (hash ^ (hash >>> 32)) * 0xD6E8FEB86659FD93L;
+		return hash ^ (hash >>> 32);
+	}
+
+	/**
+	 * Adds an element to the filter.
+	 *
+	 * @param element the element to add
+	 * @return true if any bit changed, which means the element was definitely
+	 *   not added before
+	 */
+	public boolean add(E element) {
+		long hash = hash(element);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32) | 1;
+		boolean changed = false;
+
+		for (int i = 0; i < hashes; i++) {
+			int position = (first + i * second) & mask;
+			int index = position >>> 6;
+			long bit = 1L << position;
+			long word = bits.get(index);
+
+			while ((word & bit) == 0) {
+				if (bits.compareAndSet(index, word, word | bit)) {
+					changed = true;
+					break;
+				}
+
+				word = bits.get(index);
+			}
+		}
+
+		if (changed) {
+			count.incrementAndGet();
+		}
+
+		return changed;
+	}
+
+	/**
+	 * Returns whether an element may have been added to the filter.
+	 *
+	 * @param element the element to check
+	 * @return false if the element was definitely never added
+	 */
+	public boolean mightContain(Object element) {
+		long hash = hash(element);
+		int first = (int) hash;
+		int second = (int) (hash >>> 32) | 1;
+
+		for (int i = 0; i < hashes; i++) {
+			int position = (first + i * second) & mask;
+
+			if ((bits.get(position >>> 6) & (1L << position)) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of elements the filter was sized for.
+	 *
+	 * @return capacity of the filter
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the false positive rate the filter was sized for.
+	 *
+	 * @return configured false positive rate
+	 */
+	public double falsePositiveRate() {
+		return falsePositiveRate;
+	}
+
+	/**
+	 * Returns the approximate number of distinct elements added, not counting
+	 * elements that did not change any bit.
+	 *
+	 * @return number of elements added
+	 */
+	public int count() {
+		return count.get();
+	}
+
+	/**
+	 * Returns whether the filter holds as many elements as it was sized for.
+	 * Adding more elements raises the false positive rate above the configured
+	 * rate, so the filter should be replaced with a larger one.
+	 *
+	 * @return true if the filter has reached its capacity
+	 */
+	public boolean isFull() {
+		return count.get() >= capacity;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BloomFilter[%d of %d, %d bits, %d hashes]", count(), capacity, mask + 1L, hashes);
+	}
+}
@@ -0,0 +1,884 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * A thread-safe indexed set with a maximum size, meant to be used as a
+ * deduplication cache. Once the set is full, adding a new element first evicts
+ * an old one, chosen by the {@link Eviction} policy. Elements may also expire a
+ * fixed time after they were added. The iteration order is the insertion order
+ * of the elements that remain, so {@link #get(int)} and {@link #size()} never
+ * see evicted or expired elements.
+ *
+ * <p>
+ * Reads hold the read lock of a {@link SimpleReadWriteLock}. A hit in
+ * {@link #contains(Object)} still has to update the recency order (and access
+ * frequency), which needs the write lock. Instead of taking it, the hit is
+ * recorded in a small lock-free buffer, which is drained in a batch during the
+ * next write. If the buffer fills up first, the reader that found it full drains
+ * it, but only if the write lock is free. Otherwise, accesses are dropped, which
+ * only makes the recency order slightly less accurate.
+ *
+ * <p>
+ * Elements are kept in an array in insertion order, and a Fenwick tree counts
+ * the remaining elements, so finding the element at an index takes logarithmic
+ * time. Evicted elements leave holes in the array, which are compacted once
+ * the array is full.
+ *
+ * @param <E> element type
+ *
+ * @see ThreadSafeIndexedSet
+ * @see ConcurrentIndexedSet
+ */
+public class BoundedIndexedSet<E> implements ConcurrentIndexedSet<E> {
+
+	/**
+	 * Decides which element to evict when adding to a full set.
+	 */
+	public enum Eviction {
+		/** Evicts the least recently added or accessed element. */
+		LRU,
+
+		/**
+		 * Evicts the least recently used element, but only admits the new element
+		 * if it has been used more often than that element, as in TinyLFU. Usage
+		 * is estimated with a compact frequency sketch, which also remembers
+		 * elements that are no longer in the set. Keeps frequently used elements
+		 * from being pushed out by a scan of elements that are only used once.
+		 */
+		LFU
+	}
+
+	/** Initial length of the element array. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Number of accesses the read buffer can hold. Must be a power of two. */
+	private static final int BUFFER_SIZE = 128;
+
+	/** The lock used to protect concurrent access to the set. */
+	private final SimpleReadWriteLock lock;
+
+	/** Maximum number of elements. */
+	private final int maximum;
+
+	/** Time to live in nanoseconds, or zero if elements never expire. */
+	private final long ttl;
+
+	/** Returns the current time in nanoseconds. */
+	private final LongSupplier ticker;
+
+	/** Maps each element to its node. */
+	private final HashMap<E, Node<E>> nodes;
+
+	/** Nodes in insertion order, with null for removed nodes. */
+	private Node<E>[] slots;
+
+	/**
+	 * Times the nodes in {@link #slots} were added. Kept for removed nodes too, so
+	 * the times are always in ascending order.
+	 */
+	private long[] times;
+
+	/** Fenwick tree counting the nodes in {@link #slots}, indexed from one. */
+	private int[] counts;
+
+	/** Index of the first node in {@link #slots}, or {@link #end} if empty. */
+	private int head;
+
+	/** Index of the next free position in {@link #slots}. */
+	private int end;
+
+	/**
+	 * Sentinel of the circular list of nodes in recency order, from least to
+	 * most recently used.
+	 */
+	private final Node<E> recency;
+
+	/** Estimates how often elements were used, or null unless using LFU. */
+	private final FrequencySketch sketch;
+
+	/** Hits recorded by readers, but not applied yet. */
+	private final ReadBuffer<E> buffer;
+
+	/** Number of times {@link #contains(Object)} found the element. */
+	private final LongAdder hits;
+
+	/** Number of times {@link #contains(Object)} did not find the element. */
+	private final LongAdder misses;
+
+	/** Number of elements evicted or expired. */
+	private final LongAdder evictions;
+
+	/** Number of new elements that were not admitted. */
+	private final LongAdder rejections;
+
+	/**
+	 * Initializes a set that evicts the least recently used element once it
+	 * holds the maximum number of elements.
+	 *
+	 * @param maximum the maximum number of elements
+	 */
+	public BoundedIndexedSet(int maximum) {
+		this(maximum, Eviction.LRU);
+	}
+
+	/**
+	 * Initializes a set that evicts elements according to the policy once it
+	 * holds the maximum number of elements.
+	 *
+	 * @param maximum the maximum number of elements
+	 * @param eviction decides which element to evict
+	 */
+	public BoundedIndexedSet(int maximum, Eviction eviction) {
+		this(maximum, eviction, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Initializes a set that evicts elements according to the policy once it
+	 * holds the maximum number of elements, and expires elements once the time to
+	 * live has passed since they were added.
+	 *
+	 * @param maximum the maximum number of elements
+	 * @param eviction decides which element to evict
+	 * @param ttl time to live, or zero if elements never expire
+	 * @param unit the time unit of the time to live
+	 */
+	public BoundedIndexedSet(int maximum, Eviction eviction, long ttl, TimeUnit unit) {
+		this(maximum, eviction, ttl, unit, System::nanoTime);
+	}
+
+	/**
+	 * Initializes a set with the given time source, such as a fake clock used
+	 * for testing.
+	 *
+	 * @param maximum the maximum number of elements
+	 * @param eviction decides which element to evict
+	 * @param ttl time to live, or zero if elements never expire
+	 * @param unit the time unit of the time to live
+	 * @param ticker returns the current time in nanoseconds
+	 *
+	 * @see #BoundedIndexedSet(int, Eviction, long, TimeUnit)
+	 */
+	@SuppressWarnings("unchecked")
+	public BoundedIndexedSet(int maximum, Eviction eviction, long ttl, TimeUnit unit, LongSupplier ticker) {
+		if (maximum < 1) {
+			throw new IllegalArgumentException("Maximum size must be positive.");
+		}
+
+		if (ttl < 0) {
+			throw new IllegalArgumentException("Time to live must not be negative.");
+		}
+
+		this.lock = new SimpleReadWriteLock();
+		this.maximum = maximum;
+		this.ttl = unit.toNanos(ttl);
+		this.ticker = Objects.requireNonNull(ticker);
+		this.nodes = new HashMap<>();
+		this.slots = (Node<E>[]) new Node<?>[INITIAL_CAPACITY];
+		this.times = new long[INITIAL_CAPACITY];
+		this.counts = new int[INITIAL_CAPACITY + 1];
+		this.head = 0;
+		this.end = 0;
+		this.recency = new Node<E>(null);
+		this.sketch = Objects.requireNonNull(eviction) == Eviction.LFU ? new FrequencySketch(maximum) : null;
+		this.buffer = new ReadBuffer<>();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+		this.rejections = new LongAdder();
+
+		recency.previous = recency;
+		recency.next = recency;
+	}
+
+	/**
+	 * Adds an element to the set, evicting another one if the set is full. With
+	 * {@link Eviction#LFU}, a new element may not be admitted at all if the
+	 * element it would replace is used more often. It is then not added, but its
+	 * use is still remembered, so it may be admitted the next time.
+	 *
+	 * @param element element to add
+	 * @return true if the element was added (false if it was a duplicate or was
+	 *   not admitted)
+	 *
+	 * @see #getRejections()
+	 */
+	@Override
+	public boolean add(E element) {
+		Objects.requireNonNull(element);
+		lock.writeLock().lock();
+
+		try {
+			long now = maintain();
+			return insert(element, now);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the collection of elements to the set, only acquiring the write lock
+	 * once.
+	 *
+	 * @see #add(Object)
+	 */
+	@Override
+	public boolean addAll(Collection<E> elements) {
+		lock.writeLock().lock();
+
+		try {
+			long now = maintain();
+			boolean added = false;
+
+			for (E element : elements) {
+				added |= insert(Objects.requireNonNull(element), now);
+			}
+
+			return added;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.readLock().lock();
+
+		try {
+			return nodes.size() - expired(now());
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns whether the element is in the set and has not expired. A hit is
+	 * recorded as an access without taking the write lock.
+	 */
+	@Override
+	public boolean contains(E element) {
+		boolean found = false;
+		boolean full = false;
+		lock.readLock().lock();
+
+		try {
+			Node<E> node = nodes.get(element);
+			found = node != null && !isExpired(node.slot, now());
+
+			if (found) {
+				full = !buffer.offer(node);
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+
+		(found ? hits : misses).increment();
+
+		// only drains if no other thread holds the lock, so readers never wait
+		if (full && lock.writeLock().tryLock()) {
+			try {
+				drain();
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Gets the element at the specified index, based on the insertion order of
+	 * the elements that have not been evicted or expired. Takes logarithmic time.
+	 */
+	@Override
+	public E get(int index) {
+		lock.readLock().lock();
+
+		try {
+			int skipped = expired(now());
+
+			if (index < 0 || index >= nodes.size() - skipped) {
+				return null;
+			}
+
+			return slots[select(skipped + index)].element;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public Set<E> unsortedCopy() {
+		return new HashSet<E>(elements());
+	}
+
+	@Override
+	public SortedSet<E> sortedCopy() {
+		return new TreeSet<E>(elements());
+	}
+
+	@Override
+	public String toString() {
+		return elements().toString();
+	}
+
+	/**
+	 * Returns the number of times {@link #contains(Object)} found the element.
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of times {@link #contains(Object)} did not find the
+	 * element, including when it had expired.
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of elements removed to make room for new ones or
+	 * because they expired. Elements that were never admitted are not counted.
+	 *
+	 * @return number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of new elements that were not added, because the
+	 * element they would have replaced was used more often. Always zero with
+	 * {@link Eviction#LRU}.
+	 *
+	 * @return number of rejections
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * Returns a consistent list of the elements in iteration order.
+	 *
+	 * @return list of all elements
+	 */
+	private List<E> elements() {
+		lock.readLock().lock();
+
+		try {
+			long now = now();
+			List<E> elements = new ArrayList<>(nodes.size());
+
+			for (int i = head; i < end; i++) {
+				if (slots[i] != null && !isExpired(i, now)) {
+					elements.add(slots[i].element);
+				}
+			}
+
+			return elements;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the current time, or zero if elements never expire.
+	 *
+	 * @return current time in nanoseconds
+	 */
+	private long now() {
+		return ttl > 0 ? ticker.getAsLong() : 0;
+	}
+
+	/**
+	 * Returns whether the node at a position in {@link #slots} has expired.
+	 *
+	 * @param position the position of the node
+	 * @param now the current time
+	 * @return true if the node has expired
+	 */
+	private boolean isExpired(int position, long now) {
+		return ttl > 0 && now - times[position] >= ttl;
+	}
+
+	/**
+	 * Counts the nodes that have expired but were not removed yet. Nodes are added
+	 * in time order, so these are always the first nodes, and can be found with a
+	 * binary search. Must be called while holding a lock.
+	 *
+	 * @param now the current time
+	 * @return number of expired nodes
+	 */
+	private int expired(long now) {
+		if (head == end || !isExpired(head, now)) {
+			return 0;
+		}
+
+		// find the first position after the head that has not expired
+		int low = head + 1;
+		int high = end;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (isExpired(middle, now)) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+
+		return count(low);
+	}
+
+	/**
+	 * Applies the buffered hits and removes expired nodes. Must be called while
+	 * holding the write lock.
+	 *
+	 * @return the current time
+	 */
+	private long maintain() {
+		long now = now();
+		drain();
+
+		while (head < end && isExpired(head, now)) {
+			remove(slots[head]);
+			evictions.increment();
+		}
+
+		return now;
+	}
+
+	/**
+	 * Applies the hits recorded by readers, skipping nodes that were removed
+	 * since. Must be called while holding the write lock.
+	 */
+	private void drain() {
+		buffer.drain(node -> {
+			if (node.slot >= 0) {
+				access(node);
+			}
+		});
+	}
+
+	/**
+	 * Records an access of a node: moves it to the most recently used end, and
+	 * counts it in the frequency sketch.
+	 *
+	 * @param node the node that was used
+	 */
+	private void access(Node<E> node) {
+		unlink(node);
+		link(node);
+
+		if (sketch != null) {
+			sketch.increment(node.element);
+		}
+	}
+
+	/**
+	 * Adds an element, evicting another one first if the set is full. Must be
+	 * called while holding the write lock.
+	 *
+	 * @param element element to add
+	 * @param now the current time
+	 * @return true if the element was added (false if it was a duplicate or was
+	 *   not admitted)
+	 */
+	private boolean insert(E element, long now) {
+		Node<E> existing = nodes.get(element);
+
+		if (existing != null) {
+			access(existing);
+			return false;
+		}
+
+		if (sketch != null) {
+			sketch.increment(element);
+		}
+
+		if (nodes.size() >= maximum) {
+			Node<E> victim = recency.next;
+
+			if (sketch != null && sketch.frequency(element) <= sketch.frequency(victim.element)) {
+				rejections.increment();
+				return false;
+			}
+
+			remove(victim);
+			evictions.increment();
+		}
+
+		if (end == slots.length) {
+			compact();
+		}
+
+		Node<E> node = new Node<>(element);
+		node.slot = end;
+		times[end] = now;
+		slots[end++] = node;
+		update(node.slot, 1);
+		nodes.put(element, node);
+		link(node);
+		return true;
+	}
+
+	/**
+	 * Removes a node from the set. Must be called while holding the write lock.
+	 *
+	 * @param node the node to remove
+	 */
+	private void remove(Node<E> node) {
+		nodes.remove(node.element);
+		unlink(node);
+		slots[node.slot] = null;
+		update(node.slot, -1);
+		node.slot = -1;
+
+		while (head < end && slots[head] == null) {
+			head++;
+		}
+	}
+
+	/**
+	 * Moves the nodes to the start of {@link #slots}, filling the holes left by
+	 * removed nodes. Doubles the length of the array if it is more than half full,
+	 * so compacting takes amortized constant time per added element.
+	 */
+	@SuppressWarnings("unchecked")
+	private void compact() {
+		int size = nodes.size();
+		int length = size * 2 > slots.length ? slots.length * 2 : slots.length;
+		Node<E>[] compacted = (Node<E>[]) new Node<?>[length];
+		long[] added = new long[length];
+		int[] tree = new int[length + 1];
+		int next = 0;
+
+		for (int i = head; i < end; i++) {
+			if (slots[i] != null) {
+				slots[i].slot = next;
+				added[next] = times[i];
+				compacted[next++] = slots[i];
+			}
+		}
+
+		// builds the Fenwick tree bottom-up in linear time
+		for (int i = 1; i <= length; i++) {
+			if (i <= next) {
+				tree[i]++;
+			}
+
+			int parent = i + (i & -i);
+
+			if (parent <= length) {
+				tree[parent] += tree[i];
+			}
+		}
+
+		slots = compacted;
+		times = added;
+		counts = tree;
+		head = 0;
+		end = next;
+	}
+
+	/**
+	 * Adds to the count of nodes at a position in the Fenwick tree.
+	 *
+	 * @param position the position in {@link #slots}
+	 * @param delta the amount to add
+	 */
+	private void update(int position, int delta) {
+		for (int i = position + 1; i < counts.length; i += i & -i) {
+			counts[i] += delta;
+		}
+	}
+
+	/**
+	 * Counts the nodes before a position in {@link #slots}.
+	 *
+	 * @param position the position in {@link #slots}
+	 * @return number of nodes before the position
+	 */
+	private int count(int position) {
+		int count = 0;
+
+		for (int i = position; i > 0; i -= i & -i) {
+			count += counts[i];
+		}
+
+		return count;
+	}
+
+	/**
+	 * Finds the position of a node in {@link #slots} by its rank, by descending
+	 * the Fenwick tree.
+	 *
+	 * @param rank number of nodes before the node to find
+	 * @return position of the node
+	 */
+	private int select(int rank) {
+		int position = 0;
+
+		for (int step = Integer.highestOneBit(counts.length - 1); step > 0; step >>>= 1) {
+			int next = position + step;
+
+			if (next < counts.length && counts[next] <= rank) {
+				position = next;
+				rank -= counts[next];
+			}
+		}
+
+		return position;
+	}
+
+	/**
+	 * Adds a node at the most recently used end of the recency list.
+	 *
+	 * @param node the node to add
+	 */
+	private void link(Node<E> node) {
+		node.previous = recency.previous;
+		node.next = recency;
+		recency.previous.next = node;
+		recency.previous = node;
+	}
+
+	/**
+	 * Removes a node from the recency list.
+	 *
+	 * @param <E> element type
+	 * @param node the node to remove
+	 */
+	private static <E> void unlink(Node<E> node) {
+		node.previous.next = node.next;
+		node.next.previous = node.previous;
+	}
+
+	/**
+	 * An element in the set, which is also part of the recency list.
+	 *
+	 * @param <E> element type
+	 */
+	private static class Node<E> {
+
+		/** The element. */
+		private final E element;
+
+		/** Position in {@link BoundedIndexedSet#slots}, or -1 once removed. */
+		private int slot;
+
+		/** Previous node in recency order. */
+		private Node<E> previous;
+
+		/** Next node in recency order. */
+		private Node<E> next;
+
+		/**
+		 * Initializes a node that is not in the set yet.
+		 *
+		 * @param element the element
+		 */
+		private Node(E element) {
+			this.element = element;
+			this.slot = -1;
+		}
+	}
+
+	/**
+	 * A lossy buffer of accesses, written by any number of readers and drained
+	 * while holding the write lock. Readers claim a position with a single
+	 * compare-and-set, and simply drop the access if they lose the race or the
+	 * buffer is full.
+	 *
+	 * @param <E> element type
+	 */
+	private static class ReadBuffer<E> {
+
+		/** The buffered nodes, with null for positions not written yet. */
+		private final AtomicReferenceArray<Node<E>> nodes;
+
+		/** Number of positions ever claimed by readers. */
+		private final AtomicLong writes;
+
+		/** Number of positions ever drained. */
+		private volatile long reads;
+
+		/**
+		 * Initializes an empty buffer.
+		 */
+		private ReadBuffer() {
+			nodes = new AtomicReferenceArray<>(BUFFER_SIZE);
+			writes = new AtomicLong();
+			reads = 0;
+		}
+
+		/**
+		 * Records an access of a node, unless the buffer is full.
+		 *
+		 * @param node the node that was used
+		 * @return false if the buffer is full and should be drained
+		 */
+		private boolean offer(Node<E> node) {
+			long position = writes.get();
+
+			if (position - reads >= BUFFER_SIZE) {
+				return false;
+			}
+
+			if (writes.compareAndSet(position, position + 1)) {
+				nodes.lazySet((int) position & (BUFFER_SIZE - 1), node);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Passes the buffered nodes to an action in the order they were recorded.
+		 * Stops early at a position that was claimed but not written yet. Must
+		 * only be called by one thread at a time.
+		 *
+		 * @param action the action to apply to each node
+		 */
+		private void drain(Consumer<Node<E>> action) {
+			long position = reads;
+			long limit = writes.get();
+
+			while (position < limit) {
+				int index = (int) position & (BUFFER_SIZE - 1);
+				Node<E> node = nodes.get(index);
+
+				if (node == null) {
+					break;
+				}
+
+				nodes.lazySet(index, null);
+				action.accept(node);
+				position++;
+			}
+
+			reads = position;
+		}
+	}
+
+	/**
+	 * A count-min sketch of how often elements were used, with four 4-bit
+	 * counters per element. All counters are halved periodically, so the
+	 * estimates favor recent use.
+	 */
+	private static class FrequencySketch {
+
+		/** Seeds of the four hash functions. */
+		private static final long[] SEEDS = {
+				0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+
+		/** Clears the bit shifted into each counter when halving. */
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		/** Sixteen 4-bit counters per long. */
+		private final long[] table;
+
+		/** Number of increments after which all counters are halved. */
+		private final int period;
+
+		/** Number of increments since the counters were last halved. */
+		private int additions;
+
+		/**
+		 * Initializes a sketch for a set of the given maximum size.
+		 *
+		 * @param maximum the maximum number of elements
+		 */
+		private FrequencySketch(int maximum) {
+			int length = Integer.highestOneBit(Math.max(8, Math.min(maximum, 1 << 24)) * 2 - 1);
+			table = new long[length];
+			period = length * 10;
+			additions = 0;
+		}
+
+		/**
+		 * Returns the hash used for one of the counters of an element.
+		 *
+		 * @param element the element
+		 * @param i which of the four counters
+		 * @return hash selecting the counter
+		 */
+		private static long hash(Object element, int i) {
+			long hash = (element.hashCode() + SEEDS[i]) * SEEDS[i];
+			return hash ^ (hash >>> 32);
+		}
+
+		/**
+		 * Returns the estimated number of times an element was used, up to 15.
+		 *
+		 * @param element the element
+		 * @return estimated frequency
+		 */
+		private int frequency(Object element) {
+			int frequency = 15;
+
+			for (int i = 0; i < SEEDS.length; i++) {
+				long hash = hash(element, i);
+				int index = (int) ((hash >>> 6) & (table.length - 1));
+				int shift = (int) (hash & 15) << 2;
+				frequency = Math.min(frequency, (int) (table[index] >>> shift) & 15);
+			}
+
+			return frequency;
+		}
+
+		/**
+		 * Counts a use of an element, halving all counters once enough uses were
+		 * counted.
+		 *
+		 * @param element the element
+		 */
+		private void increment(Object element) {
+			boolean added = false;
+
+			for (int i = 0; i < SEEDS.length; i++) {
+				long hash = hash(element, i);
+				int index = (int) ((hash >>> 6) & (table.length - 1));
+				int shift = (int) (hash & 15) << 2;
+
+				if (((table[index] >>> shift) & 15) < 15) {
+					table[index] += 1L << shift;
+					added = true;
+				}
+			}
+
+			if (added && ++additions >= period) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] = (table[i] >>> 1) & RESET_MASK;
+				}
+
+				additions /= 2;
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+import java.util.Collection;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * The operations shared by the thread-safe indexed set implementations, so
+ * that they can be used interchangeably. All methods may be called by multiple
+ * threads at the same time.
+ *
+ * @param <E> element type
+ *
+ * @see ThreadSafeIndexedSet
+ * @see LockFreeIndexedSet
+ * @see ShardedIndexedSet
+ * @see BoundedIndexedSet
+ */
+public interface ConcurrentIndexedSet<E> {
+
+	/**
+	 * Adds an element to the set.
+	 *
+	 * @param element element to add
+	 * @return true if the element was added (false if it was a duplicate)
+	 */
+	public boolean add(E element);
+
+	/**
+	 * Adds the collection of elements to the set.
+	 *
+	 * @param elements elements to add
+	 * @return true if any elements were added (false if were all duplicates)
+	 */
+	public boolean addAll(Collection<E> elements);
+
+	/**
+	 * Returns the number of elements in the set.
+	 *
+	 * @return number of elements
+	 */
+	public int size();
+
+	/**
+	 * Returns whether the element is contained in the set.
+	 *
+	 * @param element element to search for
+	 * @return true if the element is contained in the set
+	 */
+	public boolean contains(E element);
+
+	/**
+	 * Gets the element at the specified index based on iteration order. The
+	 * element at this index may change over time as new elements are added.
+	 *
+	 * @param index index of element to get
+	 * @return element at the specified index or null of the index was invalid
+	 */
+	public E get(int index);
+
+	/**
+	 * Returns an unsorted copy of the set.
+	 *
+	 * @return unsorted copy
+	 */
+	public Set<E> unsortedCopy();
+
+	/**
+	 * Returns a sorted copy of the set.
+	 *
+	 * @return sorted copy
+	 */
+	public SortedSet<E> sortedCopy();
+}
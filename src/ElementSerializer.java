@@ -0,0 +1,77 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Converts elements of a fixed-width type to and from bytes, so they can be
+ * stored outside the Java heap by {@link OffHeapStorage}. Every element must be
+ * written using exactly {@link #width()} bytes, and reading those bytes back
+ * must produce an element equal to the original one.
+ *
+ * @param <E> element type to convert
+ *
+ * @see OffHeapStorage
+ */
+public interface ElementSerializer<E> {
+
+	/** Stores {@link Integer} elements in four bytes. */
+	public static final ElementSerializer<Integer> INTEGER = new ElementSerializer<>() {
+		@Override
+		public int width() {
+			return Integer.BYTES;
+		}
+
+		@Override
+		public void write(Integer element, ByteBuffer buffer, int offset) {
+			buffer.putInt(offset, element);
+		}
+
+		@Override
+		public Integer read(ByteBuffer buffer, int offset) {
+			return buffer.getInt(offset);
+		}
+	};
+
+	/** Stores {@link Long} elements in eight bytes. */
+	public static final ElementSerializer<Long> LONG = new ElementSerializer<>() {
+		@Override
+		public int width() {
+			return Long.BYTES;
+		}
+
+		@Override
+		public void write(Long element, ByteBuffer buffer, int offset) {
+			buffer.putLong(offset, element);
+		}
+
+		@Override
+		public Long read(ByteBuffer buffer, int offset) {
+			return buffer.getLong(offset);
+		}
+	};
+
+	/**
+	 * Returns the number of bytes used by every element.
+	 *
+	 * @return the width of an element in bytes
+	 */
+	public int width();
+
+	/**
+	 * Writes an element at the specified offset using absolute puts, without
+	 * changing the position of the buffer.
+	 *
+	 * @param element element to write (never null)
+	 * @param buffer buffer to write to
+	 * @param offset offset of the first byte to write
+	 */
+	public void write(E element, ByteBuffer buffer, int offset);
+
+	/**
+	 * Reads an element at the specified offset using absolute gets, without
+	 * changing the position of the buffer.
+	 *
+	 * @param buffer buffer to read from
+	 * @param offset offset of the first byte to read
+	 * @return the element read
+	 */
+	public E read(ByteBuffer buffer, int offset);
+}
@@ -1,20 +1,30 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A customized set class that allows access by index, and supports sorted or
- * unsorted ordering.
+ * unsorted ordering. Sorted sets are kept in natural order, and unsorted sets
+ * are kept in insertion order.
  *
  * @param <E> element type sorted in set
  */
 public class IndexedSet<E> {
 
 	/** Set of elements */
-	private final Set<E> set;
+	private final IndexedStorage<E> set;
+
+	/** The view returned by the last call to {@link #sortedCopy()}, or null. */
+	private SortedView<E> sortedView;
 
 	/**
 	 * Initializes an unsorted set.
@@ -31,12 +41,21 @@ public class IndexedSet<E> {
 	 * @param sorted if true, will initialize a sorted set
 	 */
 	public IndexedSet(boolean sorted) {
-		if (sorted) {
-			set = new TreeSet<E>();
-		}
-		else {
-			set = new HashSet<E>();
-		}
+		this(sorted ? new OrderStatisticTree<E>() : new InsertionOrderedSet<E>());
+	}
+
+	/**
+	 * Initializes a set backed by the specified storage, such as an
+	 * {@link OffHeapStorage} for very large sets. The storage determines the
+	 * iteration order. It may already hold elements, such as storage opened with
+	 * {@link PersistentStorage#open(Path, boolean, ElementSerializer, java.util.concurrent.Executor)}
+	 * or recovered with {@link WriteAheadLog#recover}, but must not be changed
+	 * except through this set.
+	 *
+	 * @param storage the storage to keep elements in
+	 */
+	public IndexedSet(IndexedStorage<E> storage) {
+		set = storage;
 	}
 
 	/**
@@ -63,6 +82,95 @@ public class IndexedSet<E> {
 		return set.addAll(elements);
 	}
 
+	/**
+	 * Adds a batch of elements to our set. If the number of elements is known in
+	 * advance, makes room for all of them before adding any.
+	 *
+	 * @param elements elements to add
+	 * @return the number of elements that were added (not counting duplicates)
+	 *
+	 * @see #ensureCapacity(int)
+	 */
+	public int addBatch(Iterable<? extends E> elements) {
+		if (elements instanceof Collection) {
+			set.ensureCapacity(set.size() + ((Collection<?>) elements).size());
+		}
+
+		int added = 0;
+
+		for (E element : elements) {
+			if (set.add(element)) {
+				added++;
+			}
+		}
+
+		return added;
+	}
+
+	/**
+	 * Adds an array of elements to our set, making room for all of them before
+	 * adding any.
+	 *
+	 * @param elements elements to add
+	 * @return the number of elements that were added (not counting duplicates)
+	 *
+	 * @see #ensureCapacity(int)
+	 */
+	public int addBatch(E[] elements) {
+		set.ensureCapacity(set.size() + elements.length);
+
+		int added = 0;
+
+		for (E element : elements) {
+			if (set.add(element)) {
+				added++;
+			}
+		}
+
+		return added;
+	}
+
+	/**
+	 * Adds a stream of elements to our set. If the stream knows its exact size,
+	 * makes room for all of the elements before adding any.
+	 *
+	 * @param elements elements to add
+	 * @return the number of elements that were added (not counting duplicates)
+	 *
+	 * @see #ensureCapacity(int)
+	 */
+	public int addBatch(Stream<? extends E> elements) {
+		Spliterator<? extends E> spliterator = elements.spliterator();
+		long count = spliterator.getExactSizeIfKnown();
+
+		if (count > 0) {
+			set.ensureCapacity((int) Math.min(Integer.MAX_VALUE, set.size() + count));
+		}
+
+		Iterator<? extends E> iterator = Spliterators.iterator(spliterator);
+		int added = 0;
+
+		while (iterator.hasNext()) {
+			if (set.add(iterator.next())) {
+				added++;
+			}
+		}
+
+		return added;
+	}
+
+	/**
+	 * Makes sure our set can hold at least the specified number of elements
+	 * without resizing. Useful before adding many elements one at a time.
+	 *
+	 * @param capacity the number of elements to make room for
+	 *
+	 * @see IndexedStorage#ensureCapacity(int)
+	 */
+	public void ensureCapacity(int capacity) {
+		set.ensureCapacity(capacity);
+	}
+
 	/**
 	 * Returns the number of elements in our set.
 	 *
@@ -88,26 +196,220 @@ public class IndexedSet<E> {
 
 	/**
 	 * Gets the element at the specified index based on iteration order. The element
-	 * at this index may change over time as new elements are added.
+	 * at this index may change over time as new elements are added. Runs in
+	 * logarithmic time for sorted sets and constant time for unsorted sets.
 	 *
 	 * @param index index of element to get
 	 * @return element at the specified index or null of the index was invalid
+	 *
+	 * @see IndexedStorage#get(int)
 	 */
 	public E get(int index) {
-		if (index < 0 && index >= set.size()) {
+		if (index < 0 || index >= set.size()) {
 			return null;
 		}
 
-		int count = 0;
-		Iterator<E> iterator = set.iterator();
-		E element = null;
+		return set.get(index);
+	}
 
-		while (iterator.hasNext() && count <= index) {
-			element = iterator.next();
-			count++;
+	/**
+	 * Returns which of the elements are contained in our set.
+	 *
+	 * @param elements elements to search for
+	 * @return bitmap with the bit at each position of the list set if the element
+	 *   at that position is contained in our set
+	 *
+	 * @see #contains(Object)
+	 */
+	public BitSet containsAll(List<? extends E> elements) {
+		BitSet found = new BitSet(elements.size());
+		int index = 0;
+
+		for (E element : elements) {
+			if (set.contains(element)) {
+				found.set(index);
+			}
+
+			index++;
 		}
 
-		return element;
+		return found;
+	}
+
+	/**
+	 * Gets the elements in a range of indices based on iteration order. Parts of
+	 * the range outside of our set are ignored, like {@link #get(int)} returns
+	 * null for an invalid index. Takes a single pass over the range instead of
+	 * looking up every index separately.
+	 *
+	 * @param from index of the first element to get
+	 * @param to index after the last element to get
+	 * @return list of the elements in the range (empty if none are)
+	 *
+	 * @see IndexedStorage#getRange(int, int)
+	 */
+	public List<E> getRange(int from, int to) {
+		int start = Math.max(from, 0);
+		int end = Math.min(to, set.size());
+		return start < end ? set.getRange(start, end) : List.of();
+	}
+
+	/**
+	 * Returns the index of an element based on iteration order. Runs in
+	 * logarithmic time for sorted sets and constant time for unsorted sets.
+	 *
+	 * @param element element to search for
+	 * @return index of the element, or -1 if not found
+	 *
+	 * @see IndexedStorage#indexOf(Object)
+	 */
+	public int indexOf(E element) {
+		return set.indexOf(element);
+	}
+
+	/**
+	 * Returns a view of the elements less than the specified element. The view
+	 * is backed by our set, so it sees elements added later, but cannot be used
+	 * to add elements.
+	 *
+	 * @param toElement high endpoint (exclusive) of the view
+	 * @return view of the elements less than the specified element
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see SortedSet#headSet(Object)
+	 */
+	public SortedSet<E> headSet(E toElement) {
+		if (set instanceof SortedSet) {
+			return ((SortedSet<E>) set).headSet(toElement);
+		}
+
+		return new RangeView<>(set).headSet(toElement);
+	}
+
+	/**
+	 * Returns a view of the elements greater than or equal to the specified
+	 * element. The view is backed by our set, so it sees elements added later,
+	 * but cannot be used to add elements.
+	 *
+	 * @param fromElement low endpoint (inclusive) of the view
+	 * @return view of the elements greater than or equal to the specified element
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see SortedSet#tailSet(Object)
+	 */
+	public SortedSet<E> tailSet(E fromElement) {
+		if (set instanceof SortedSet) {
+			return ((SortedSet<E>) set).tailSet(fromElement);
+		}
+
+		return new RangeView<>(set).tailSet(fromElement);
+	}
+
+	/**
+	 * Returns a view of the elements from the low endpoint (inclusive) to the
+	 * high endpoint (exclusive). The view is backed by our set, so it sees
+	 * elements added later, but cannot be used to add elements.
+	 *
+	 * @param fromElement low endpoint (inclusive) of the view
+	 * @param toElement high endpoint (exclusive) of the view
+	 * @return view of the elements in the range
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see SortedSet#subSet(Object, Object)
+	 */
+	public SortedSet<E> subSet(E fromElement, E toElement) {
+		if (set instanceof SortedSet) {
+			return ((SortedSet<E>) set).subSet(fromElement, toElement);
+		}
+
+		return new RangeView<>(set).subSet(fromElement, toElement);
+	}
+
+	/**
+	 * Returns the number of elements strictly less than the specified element,
+	 * which is also its index if it is in our set. Takes logarithmic time.
+	 *
+	 * @param element the element to rank
+	 * @return number of elements less than the element
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see IndexedStorage#rank(Object)
+	 */
+	public int rank(E element) {
+		return set.rank(element);
+	}
+
+	/**
+	 * Returns the greatest element strictly less than the specified element.
+	 * Takes logarithmic time.
+	 *
+	 * @param element the element to compare to
+	 * @return the greatest smaller element, or null if there is none
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see IndexedStorage#lower(Object)
+	 */
+	public E lower(E element) {
+		return set.lower(element);
+	}
+
+	/**
+	 * Returns the greatest element less than or equal to the specified element.
+	 * Takes logarithmic time.
+	 *
+	 * @param element the element to compare to
+	 * @return the greatest element that is not greater, or null if there is none
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see IndexedStorage#floor(Object)
+	 */
+	public E floor(E element) {
+		return set.floor(element);
+	}
+
+	/**
+	 * Returns the least element greater than or equal to the specified element.
+	 * Takes logarithmic time.
+	 *
+	 * @param element the element to compare to
+	 * @return the least element that is not smaller, or null if there is none
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see IndexedStorage#ceiling(Object)
+	 */
+	public E ceiling(E element) {
+		return set.ceiling(element);
+	}
+
+	/**
+	 * Returns the least element strictly greater than the specified element.
+	 * Takes logarithmic time.
+	 *
+	 * @param element the element to compare to
+	 * @return the least greater element, or null if there is none
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see IndexedStorage#higher(Object)
+	 */
+	public E higher(E element) {
+		return set.higher(element);
+	}
+
+	/**
+	 * Returns the number of elements between two endpoints. Takes logarithmic
+	 * time, since it only ranks the endpoints instead of visiting the elements.
+	 *
+	 * @param fromElement low endpoint of the range
+	 * @param fromInclusive whether the low endpoint is included
+	 * @param toElement high endpoint of the range
+	 * @param toInclusive whether the high endpoint is included
+	 * @return number of elements in the range, or zero if the range is empty
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 *
+	 * @see IndexedStorage#count(Object, boolean, Object, boolean)
+	 */
+	public int count(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+		return set.count(fromElement, fromInclusive, toElement, toInclusive);
 	}
 
 	@Override
@@ -116,24 +418,105 @@ public class IndexedSet<E> {
 	}
 
 	/**
-	 * Returns an unsorted copy of this set.
+	 * Returns an immutable snapshot of this set. The snapshot shares structure
+	 * with this set instead of copying it, so it takes constant time to create,
+	 * and it is not affected by elements added later.
+	 *
+	 * @return immutable snapshot
+	 *
+	 * @see IndexedStorage#snapshot()
+	 */
+	public IndexedStorage<E> snapshot() {
+		return set.snapshot();
+	}
+
+	/**
+	 * Returns a spliterator over the elements of this set in iteration order. The
+	 * spliterator splits evenly by index and knows the exact size of every split,
+	 * so it works well for parallel traversal. It reports
+	 * {@link Spliterator#SIZED}, {@link Spliterator#SUBSIZED},
+	 * {@link Spliterator#ORDERED}, and {@link Spliterator#DISTINCT}, and for sorted
+	 * sets also {@link Spliterator#SORTED}. It sees the elements present when it
+	 * was created, and this set should not be modified while traversing it.
+	 *
+	 * @return spliterator over the elements of this set
+	 *
+	 * @see IndexedStorage#spliterator()
+	 */
+	public Spliterator<E> spliterator() {
+		return set.spliterator();
+	}
+
+	/**
+	 * Returns a sequential stream of the elements of this set in iteration order,
+	 * without copying the set first.
+	 *
+	 * @return sequential stream of the elements
+	 *
+	 * @see #spliterator()
+	 */
+	public Stream<E> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * Returns a parallel stream of the elements of this set, which splits the
+	 * work across the common fork/join pool without copying the set first.
+	 *
+	 * @return parallel stream of the elements
+	 *
+	 * @see #spliterator()
+	 */
+	public Stream<E> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * Saves this set to a file in iteration order, so it can be reopened quickly
+	 * with {@link PersistentStorage#open(Path, boolean, ElementSerializer, java.util.concurrent.Executor)}.
+	 * Replaces the file atomically if it already exists.
+	 *
+	 * @param file the file to write
+	 * @param serializer converts elements to and from bytes
+	 * @throws IOException if the file could not be written
+	 *
+	 * @see PersistentStorage#save(Path, Collection, boolean, ElementSerializer)
+	 */
+	public void save(Path file, ElementSerializer<E> serializer) throws IOException {
+		PersistentStorage.save(file, set, set.isSorted(), serializer);
+	}
+
+	/**
+	 * Returns an unsorted copy of this set. The copy is an immutable snapshot, so
+	 * it takes constant time to create and is not affected by elements added
+	 * later.
 	 *
 	 * @return unsorted copy
 	 *
-	 * @see HashSet#HashSet(Collection)
+	 * @see #snapshot()
 	 */
 	public Set<E> unsortedCopy() {
-		return new HashSet<E>(set);
+		return set.snapshot();
 	}
 
 	/**
-	 * Returns a sorted copy of this set.
+	 * Returns a sorted copy of this set. The copy is immutable and is not affected
+	 * by elements added later. For sorted sets, it is a snapshot. Otherwise, it is
+	 * a {@link SortedView} that only sorts the elements when first iterated. Until
+	 * elements are added, every call returns the same view, so the elements are
+	 * sorted at most once. After elements are added, the next view only sorts the
+	 * added elements and merges them into the order of the previous view.
 	 *
 	 * @return sorted copy
 	 *
-	 * @see TreeSet#TreeSet(Collection)
+	 * @see SortedView#of(IndexedStorage, SortedView)
 	 */
 	public SortedSet<E> sortedCopy() {
-		return new TreeSet<E>(set);
+		if (set instanceof SortedSet) {
+			return (SortedSet<E>) set.snapshot();
+		}
+
+		sortedView = SortedView.of(set, sortedView);
+		return sortedView;
 	}
 }
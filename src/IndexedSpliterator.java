@@ -0,0 +1,123 @@
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over a range of indices of an {@link IndexedStorage}, which
+ * reads elements with {@link IndexedStorage#get(int)}. Since any index can be
+ * reached directly, the range is always split exactly in half, and both halves
+ * know their exact size. This makes it a good source for parallel streams.
+ *
+ * <p>
+ * The range is fixed when the spliterator is created, so it only sees the
+ * elements present at that time. Unsorted storage only ever appends elements,
+ * so those stay at the same indices. In sorted storage, an insert shifts the
+ * indices of larger elements, so sorted storage should not be modified while
+ * traversed (unless through a {@link IndexedStorage#snapshot()}).
+ *
+ * @param <E> element type stored in the set
+ *
+ * @see IndexedStorage#spliterator()
+ */
+public class IndexedSpliterator<E> implements Spliterator<E> {
+
+	/** The storage to read elements from. */
+	private final IndexedStorage<E> storage;
+
+	/** Index of the next element to return. */
+	private int from;
+
+	/** Index after the last element to return. */
+	private final int to;
+
+	/** Characteristics reported in addition to SIZED and SUBSIZED. */
+	private final int characteristics;
+
+	/**
+	 * Initializes a spliterator over a range of indices.
+	 *
+	 * @param storage the storage to read elements from
+	 * @param from index of the first element to return
+	 * @param to index after the last element to return
+	 * @param characteristics characteristics reported in addition to
+	 *   {@link #SIZED} and {@link #SUBSIZED}
+	 */
+	public IndexedSpliterator(IndexedStorage<E> storage, int from, int to, int characteristics) {
+		this.storage = storage;
+		this.from = from;
+		this.to = to;
+		this.characteristics = characteristics | SIZED | SUBSIZED;
+	}
+
+	/**
+	 * Returns the characteristics of a spliterator over the specified storage:
+	 * always {@link #ORDERED} and {@link #DISTINCT}, and also {@link #SORTED} if
+	 * the storage is sorted.
+	 *
+	 * @param storage the storage to traverse
+	 * @return characteristics of a spliterator over the storage
+	 *
+	 * @see IndexedStorage#isSorted()
+	 */
+	public static int characteristics(IndexedStorage<?> storage) {
+		return ORDERED | DISTINCT | (storage.isSorted() ? SORTED : 0);
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super E> action) {
+		if (from >= to) {
+			return false;
+		}
+
+		action.accept(storage.get(from++));
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super E> action) {
+		int end = to;
+
+		for (int index = from; index < end; index++) {
+			action.accept(storage.get(index));
+		}
+
+		from = end;
+	}
+
+	@Override
+	public Spliterator<E> trySplit() {
+		int middle = (from + to) >>> 1;
+
+		if (middle <= from) {
+			return null;
+		}
+
+		Spliterator<E> prefix = new IndexedSpliterator<>(storage, from, middle, characteristics);
+		from = middle;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return to - from;
+	}
+
+	@Override
+	public int characteristics() {
+		return characteristics;
+	}
+
+	/**
+	 * Returns null, since sorted storage keeps elements in natural order.
+	 *
+	 * @throws IllegalStateException if this spliterator is not {@link #SORTED}
+	 */
+	@Override
+	public Comparator<? super E> getComparator() {
+		if (!hasCharacteristics(SORTED)) {
+			throw new IllegalStateException();
+		}
+
+		return null;
+	}
+}
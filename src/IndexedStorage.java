@@ -0,0 +1,245 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.Spliterator;
+
+/**
+ * A set that also supports access by index. Used as the backing storage of an
+ * {@link IndexedSet}, so that indexed access does not require iterating over
+ * the set from the start.
+ *
+ * @param <E> element type stored in the set
+ *
+ * @see IndexedSet
+ */
+public interface IndexedStorage<E> extends Set<E> {
+
+	/**
+	 * Returns the element at the specified index based on iteration order.
+	 *
+	 * @param index index of element to get
+	 * @return element at the specified index
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public E get(int index);
+
+	/**
+	 * Returns the index of an element based on iteration order. By default,
+	 * iterates until the element is found, which takes linear time.
+	 *
+	 * @param element element to search for
+	 * @return index of the element, or -1 if not found
+	 */
+	public default int indexOf(Object element) {
+		int index = 0;
+
+		for (E other : this) {
+			if (Objects.equals(other, element)) {
+				return index;
+			}
+
+			index++;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the elements in a range of indices based on iteration order. By
+	 * default, calls {@link #get(int)} for every index.
+	 *
+	 * @param from index of the first element to return
+	 * @param to index after the last element to return
+	 * @return list of the elements in the range
+	 * @throws IndexOutOfBoundsException if the range is out of bounds
+	 */
+	public default List<E> getRange(int from, int to) {
+		Objects.checkFromToIndex(from, to, size());
+		List<E> elements = new ArrayList<>(to - from);
+
+		for (int index = from; index < to; index++) {
+			elements.add(get(index));
+		}
+
+		return elements;
+	}
+
+	/**
+	 * Returns the number of elements strictly less than the provided element. If
+	 * the element is in this storage, this is also its index. Only supported by
+	 * sorted storage. By default, runs a binary search with {@link #get(int)}.
+	 *
+	 * @param element the element to rank
+	 * @return number of elements less than the element
+	 * @throws UnsupportedOperationException if this storage is not sorted
+	 */
+	public default int rank(Object element) {
+		if (!isSorted()) {
+			throw new UnsupportedOperationException("Ranks require sorted storage.");
+		}
+
+		int low = 0;
+		int high = size();
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (compare(get(middle), element) < 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the greatest element strictly less than the provided element.
+	 *
+	 * @param element the element to compare to
+	 * @return the greatest smaller element, or null if there is none
+	 * @throws UnsupportedOperationException if this storage is not sorted
+	 *
+	 * @see java.util.NavigableSet#lower(Object)
+	 */
+	public default E lower(E element) {
+		int rank = rank(element);
+		return rank > 0 ? get(rank - 1) : null;
+	}
+
+	/**
+	 * Returns the greatest element less than or equal to the provided element.
+	 *
+	 * @param element the element to compare to
+	 * @return the greatest element that is not greater, or null if there is none
+	 * @throws UnsupportedOperationException if this storage is not sorted
+	 *
+	 * @see java.util.NavigableSet#floor(Object)
+	 */
+	public default E floor(E element) {
+		int rank = rankAfter(element);
+		return rank > 0 ? get(rank - 1) : null;
+	}
+
+	/**
+	 * Returns the least element greater than or equal to the provided element.
+	 *
+	 * @param element the element to compare to
+	 * @return the least element that is not smaller, or null if there is none
+	 * @throws UnsupportedOperationException if this storage is not sorted
+	 *
+	 * @see java.util.NavigableSet#ceiling(Object)
+	 */
+	public default E ceiling(E element) {
+		int rank = rank(element);
+		return rank < size() ? get(rank) : null;
+	}
+
+	/**
+	 * Returns the least element strictly greater than the provided element.
+	 *
+	 * @param element the element to compare to
+	 * @return the least greater element, or null if there is none
+	 * @throws UnsupportedOperationException if this storage is not sorted
+	 *
+	 * @see java.util.NavigableSet#higher(Object)
+	 */
+	public default E higher(E element) {
+		int rank = rankAfter(element);
+		return rank < size() ? get(rank) : null;
+	}
+
+	/**
+	 * Returns the number of elements between two endpoints, from two ranks
+	 * instead of iterating over the elements.
+	 *
+	 * @param fromElement low endpoint of the range
+	 * @param fromInclusive whether the low endpoint is included
+	 * @param toElement high endpoint of the range
+	 * @param toInclusive whether the high endpoint is included
+	 * @return number of elements in the range, or zero if the range is empty
+	 * @throws UnsupportedOperationException if this storage is not sorted
+	 */
+	public default int count(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+		int from = fromInclusive ? rank(fromElement) : rankAfter(fromElement);
+		int to = toInclusive ? rankAfter(toElement) : rank(toElement);
+		return Math.max(0, to - from);
+	}
+
+	/**
+	 * Returns the number of elements less than or equal to the provided element.
+	 *
+	 * @param element the element to rank
+	 * @return number of elements that are not greater than the element
+	 */
+	private int rankAfter(Object element) {
+		int rank = rank(element);
+		return rank < size() && compare(get(rank), element) == 0 ? rank + 1 : rank;
+	}
+
+	/**
+	 * Compares two elements by their natural ordering.
+	 *
+	 * @param first first element
+	 * @param second second element
+	 * @return negative, zero, or positive if the first element is less than,
+	 *         equal to, or greater than the second element
+	 */
+	@SuppressWarnings("unchecked")
+	private static int compare(Object first, Object second) {
+		return ((Comparable<Object>) first).compareTo(second);
+	}
+
+	/**
+	 * Makes sure this storage can hold at least the specified number of elements
+	 * without resizing. Storage that never needs resizing may ignore this.
+	 *
+	 * @param capacity the number of elements to make room for
+	 */
+	public void ensureCapacity(int capacity);
+
+	/**
+	 * Returns whether this storage keeps elements in natural order instead of
+	 * insertion order. By default, only a {@link SortedSet} is sorted.
+	 *
+	 * @return true if elements are kept in natural order
+	 */
+	public default boolean isSorted() {
+		return this instanceof SortedSet;
+	}
+
+	/**
+	 * Returns a spliterator over the elements currently in this storage. By
+	 * default, reads elements by index with an {@link IndexedSpliterator}, which
+	 * splits evenly and reports {@link Spliterator#SIZED},
+	 * {@link Spliterator#SUBSIZED}, {@link Spliterator#ORDERED}, and
+	 * {@link Spliterator#DISTINCT}, and also {@link Spliterator#SORTED} if this
+	 * storage is sorted.
+	 *
+	 * @return spliterator over the elements in iteration order
+	 */
+	@Override
+	public default Spliterator<E> spliterator() {
+		return new IndexedSpliterator<>(this, 0, size(), IndexedSpliterator.characteristics(this));
+	}
+
+	/**
+	 * Returns an immutable snapshot of the elements currently in this storage. The
+	 * snapshot shares structure with this storage instead of copying it, so it is
+	 * cheap to create, and it is not affected by later changes to this storage.
+	 * Attempts to modify the snapshot throw an
+	 * {@link UnsupportedOperationException}.
+	 *
+	 * <p>
+	 * A snapshot may be read by any number of threads without synchronization, as
+	 * long as it was safely published to them.
+	 *
+	 * @return an immutable snapshot of this storage
+	 */
+	public IndexedStorage<E> snapshot();
+
+}
@@ -0,0 +1,273 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * Unsorted indexed storage that keeps elements in insertion order. Elements are
+ * stored in an array, and an open-addressing hash table maps each element to
+ * its position in that array. As a result, {@link #add(Object)},
+ * {@link #contains(Object)}, and {@link #get(int)} all run in constant time.
+ *
+ * <p>
+ * Elements are only ever appended, so an iterator sees the elements that were
+ * present when it was created and never throws a
+ * {@link java.util.ConcurrentModificationException}. For the same reason, a
+ * {@link #snapshot()} simply shares the arrays and remembers the current size.
+ * Positions added to the shared hash table after the snapshot was taken are
+ * ignored by the snapshot.
+ *
+ * @param <E> element type stored in the set
+ */
+public class InsertionOrderedSet<E> extends AbstractSet<E> implements IndexedStorage<E> {
+
+	/** Initial capacity of the element array. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** Elements in insertion order. */
+	private Object[] elements;
+
+	/** Cached hash codes of the elements, parallel to {@link #elements}. */
+	private int[] hashes;
+
+	/**
+	 * Hash table of element positions. A slot holds the array index plus one, or
+	 * zero if the slot is empty. Always at least twice the element capacity.
+	 */
+	private int[] table;
+
+	/** Number of elements in the set. */
+	private int size;
+
+	/** Whether this set is an immutable snapshot. */
+	private final boolean immutable;
+
+	/**
+	 * Initializes an empty set.
+	 */
+	public InsertionOrderedSet() {
+		elements = new Object[DEFAULT_CAPACITY];
+		hashes = new int[DEFAULT_CAPACITY];
+		table = new int[DEFAULT_CAPACITY * 2];
+		size = 0;
+		immutable = false;
+	}
+
+	/**
+	 * Initializes an immutable snapshot that shares the arrays of another set.
+	 *
+	 * @param source the set to take a snapshot of
+	 */
+	private InsertionOrderedSet(InsertionOrderedSet<E> source) {
+		elements = source.elements;
+		hashes = source.hashes;
+		table = source.table;
+		size = source.size;
+		immutable = true;
+	}
+
+	/**
+	 * Returns the spread hash code of an element. The multiplication spreads
+	 * sequential hash codes (such as small integers) across the table.
+	 *
+	 * @param element element to hash (may be null)
+	 * @return spread hash code
+	 */
+	private static int hash(Object element) {
+		int h = Objects.hashCode(element) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public boolean add(E element) {
+		if (immutable) {
+			throw new UnsupportedOperationException("Snapshots are immutable.");
+		}
+
+		int hash = hash(element);
+
+		if (find(element, hash) >= 0) {
+			return false;
+		}
+
+		if (size == elements.length) {
+			resize(elements.length * 2);
+		}
+
+		elements[size] = element;
+		hashes[size] = hash;
+		insert(table, hash, size);
+		size++;
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		return find(element, hash(element)) >= 0;
+	}
+
+	@Override
+	public E get(int index) {
+		Objects.checkIndex(index, size);
+
+		@SuppressWarnings("unchecked")
+		E element = (E) elements[index];
+		return element;
+	}
+
+	/**
+	 * Finds the index of an element with the hash table, in constant time.
+	 */
+	@Override
+	public int indexOf(Object element) {
+		return find(element, hash(element));
+	}
+
+	/**
+	 * Copies the range of elements from the element array.
+	 */
+	@Override
+	public List<E> getRange(int from, int to) {
+		Objects.checkFromToIndex(from, to, size);
+
+		@SuppressWarnings("unchecked")
+		List<E> range = (List<E>) Arrays.asList(Arrays.copyOfRange(elements, from, to));
+		return range;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public InsertionOrderedSet<E> snapshot() {
+		return immutable ? this : new InsertionOrderedSet<E>(this);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private final Object[] snapshot = elements;
+			private final int end = size;
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < end;
+			}
+
+			@Override
+			public E next() {
+				if (next >= end) {
+					throw new NoSuchElementException();
+				}
+
+				@SuppressWarnings("unchecked")
+				E element = (E) snapshot[next++];
+				return element;
+			}
+		};
+	}
+
+	/**
+	 * Returns a spliterator over the element array, which sees the elements that
+	 * were present when it was created.
+	 */
+	@Override
+	public Spliterator<E> spliterator() {
+		@SuppressWarnings("unchecked")
+		Spliterator<E> spliterator = (Spliterator<E>) Spliterators.spliterator(elements, 0, size,
+				Spliterator.ORDERED | Spliterator.DISTINCT);
+		return spliterator;
+	}
+
+	/**
+	 * Finds the array index of an element. Probing is bounded by the table
+	 * length, so this always terminates. Positions at or past the current size
+	 * are skipped, since they belong to elements added after a snapshot was taken
+	 * (or to an element that is still being added).
+	 *
+	 * @param element element to search for
+	 * @param hash spread hash code of the element
+	 * @return array index of the element, or -1 if not found
+	 */
+	private int find(Object element, int hash) {
+		int[] slots = table;
+		Object[] values = elements;
+		int[] codes = hashes;
+		int count = size;
+		int mask = slots.length - 1;
+		int i = hash & mask;
+
+		for (int probes = 0; probes < slots.length; probes++) {
+			int slot = slots[i];
+
+			if (slot == 0) {
+				return -1;
+			}
+
+			int index = slot - 1;
+
+			if (index < count && codes[index] == hash && Objects.equals(values[index], element)) {
+				return index;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Inserts an array index into a hash table using linear probing.
+	 *
+	 * @param slots hash table to insert into
+	 * @param hash spread hash code of the element
+	 * @param index array index of the element
+	 */
+	private static void insert(int[] slots, int hash, int index) {
+		int mask = slots.length - 1;
+		int i = hash & mask;
+
+		while (slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+
+		slots[i] = index + 1;
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		if (immutable) {
+			throw new UnsupportedOperationException("Snapshots are immutable.");
+		}
+
+		if (capacity > elements.length) {
+			resize(Math.max(elements.length * 2, Integer.highestOneBit(capacity - 1) << 1));
+		}
+	}
+
+	/**
+	 * Changes the capacity of the element array and rebuilds the hash table. New
+	 * arrays are filled before they are assigned, so the old arrays are left
+	 * untouched for any iterators or snapshots still using them.
+	 *
+	 * @param capacity the new capacity, which must be a power of two
+	 */
+	private void resize(int capacity) {
+		int[] slots = new int[capacity * 2];
+
+		for (int i = 0; i < size; i++) {
+			insert(slots, hashes[i], i);
+		}
+
+		elements = Arrays.copyOf(elements, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		table = slots;
+	}
+}
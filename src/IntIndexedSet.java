@@ -0,0 +1,308 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A version of {@link IndexedSet} specialized for {@code int} values, which
+ * stores the raw values instead of boxed {@link Integer} objects. Sorted sets
+ * are kept in ascending order, and unsorted sets are kept in insertion order.
+ *
+ * <p>
+ * Unsorted sets store their values in an array, and an open-addressing hash
+ * table maps each value to its position in that array, so {@link #add(int)},
+ * {@link #contains(int)}, and {@link #get(int)} all run in constant time.
+ * Sorted sets keep their values in a sorted array, so {@link #contains(int)}
+ * runs in logarithmic time, {@link #get(int)} in constant time, and
+ * {@link #add(int)} in linear time because later values have to move.
+ *
+ * <p>
+ * None of the operations allocate, except when the arrays have to grow. Use
+ * {@link #ensureCapacity(int)} to make room in advance.
+ *
+ * @see LongIndexedSet
+ * @see ThreadSafeIntIndexedSet
+ */
+public class IntIndexedSet {
+
+	/** Initial capacity of the value array. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** Whether values are kept in ascending order instead of insertion order. */
+	private final boolean sorted;
+
+	/** Values in insertion or ascending order. */
+	private int[] values;
+
+	/**
+	 * Hash table of value positions, or null if sorted. A slot holds the array
+	 * index plus one, or zero if the slot is empty. Always twice the value
+	 * capacity.
+	 */
+	private int[] table;
+
+	/** Number of values in the set. */
+	private int size;
+
+	/**
+	 * Initializes an unsorted set.
+	 *
+	 * @see #IntIndexedSet(boolean)
+	 */
+	public IntIndexedSet() {
+		this(false);
+	}
+
+	/**
+	 * Initializes a sorted or unsorted set depending on the parameter.
+	 *
+	 * @param sorted if true, will initialize a sorted set
+	 */
+	public IntIndexedSet(boolean sorted) {
+		this.sorted = sorted;
+		this.values = new int[DEFAULT_CAPACITY];
+		this.table = sorted ? null : new int[DEFAULT_CAPACITY * 2];
+		this.size = 0;
+	}
+
+	/**
+	 * Adds a value to our set.
+	 *
+	 * @param value value to add
+	 * @return true if the value was added (false if it was a duplicate)
+	 */
+	public boolean add(int value) {
+		return sorted ? insertSorted(value) : append(value);
+	}
+
+	/**
+	 * Adds an array of values to our set, making room for all of them before
+	 * adding any.
+	 *
+	 * @param values values to add
+	 * @return the number of values that were added (not counting duplicates)
+	 *
+	 * @see #ensureCapacity(int)
+	 */
+	public int addBatch(int[] values) {
+		grow(size + values.length);
+
+		int added = 0;
+
+		for (int value : values) {
+			if (sorted ? insertSorted(value) : append(value)) {
+				added++;
+			}
+		}
+
+		return added;
+	}
+
+	/**
+	 * Makes sure our set can hold at least the specified number of values
+	 * without resizing.
+	 *
+	 * @param capacity the number of values to make room for
+	 */
+	public void ensureCapacity(int capacity) {
+		grow(capacity);
+	}
+
+	/**
+	 * Inserts a value into a sorted set at its position in ascending order.
+	 *
+	 * @param value value to add
+	 * @return true if the value was added (false if it was a duplicate)
+	 */
+	private boolean insertSorted(int value) {
+		int position = Arrays.binarySearch(values, 0, size, value);
+
+		if (position >= 0) {
+			return false;
+		}
+
+		if (size == values.length) {
+			resize(values.length * 2);
+		}
+
+		position = -position - 1;
+		System.arraycopy(values, position, values, position + 1, size - position);
+		values[position] = value;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Appends a value to an unsorted set, and records its position in the hash
+	 * table.
+	 *
+	 * @param value value to add
+	 * @return true if the value was added (false if it was a duplicate)
+	 */
+	private boolean append(int value) {
+		int hash = hash(value);
+
+		if (find(value, hash) >= 0) {
+			return false;
+		}
+
+		if (size == values.length) {
+			resize(values.length * 2);
+		}
+
+		values[size] = value;
+		insert(table, hash, size);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Grows the arrays if needed to hold at least the specified number of values.
+	 *
+	 * @param capacity the number of values to make room for
+	 */
+	private void grow(int capacity) {
+		if (capacity > values.length) {
+			resize(Math.max(values.length * 2, Integer.highestOneBit(capacity - 1) << 1));
+		}
+	}
+
+	/**
+	 * Returns the number of values in our set.
+	 *
+	 * @return number of values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns whether the value is contained in our set.
+	 *
+	 * @param value value to search for
+	 * @return true if the value is contained in our set
+	 */
+	public boolean contains(int value) {
+		if (sorted) {
+			return Arrays.binarySearch(values, 0, size, value) >= 0;
+		}
+
+		return find(value, hash(value)) >= 0;
+	}
+
+	/**
+	 * Gets the value at the specified index based on iteration order. The value
+	 * at this index may change over time as new values are added to a sorted set.
+	 * Since there is no value to signal an invalid index, unlike
+	 * {@link IndexedSet#get(int)}, throws an exception instead.
+	 *
+	 * @param index index of value to get
+	 * @return value at the specified index
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int get(int index) {
+		Objects.checkIndex(index, size);
+		return values[index];
+	}
+
+	/**
+	 * Returns a copy of the values in iteration order.
+	 *
+	 * @return array of values
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	/**
+	 * Returns the spread hash code of a value. The multiplication spreads
+	 * sequential values across the table.
+	 *
+	 * @param value value to hash
+	 * @return spread hash code
+	 */
+	private static int hash(int value) {
+		int h = value * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Finds the array index of a value in an unsorted set. Probing is bounded by
+	 * the table length, so this always terminates. Positions at or past the
+	 * current size are skipped, since they belong to a value that is still being
+	 * added.
+	 *
+	 * @param value value to search for
+	 * @param hash spread hash code of the value
+	 * @return array index of the value, or -1 if not found
+	 */
+	private int find(int value, int hash) {
+		int[] slots = table;
+		int[] array = values;
+		int count = size;
+		int mask = slots.length - 1;
+		int i = hash & mask;
+
+		for (int probes = 0; probes < slots.length; probes++) {
+			int slot = slots[i];
+
+			if (slot == 0) {
+				return -1;
+			}
+
+			int index = slot - 1;
+
+			if (index < count && array[index] == value) {
+				return index;
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Inserts an array index into a hash table using linear probing.
+	 *
+	 * @param slots hash table to insert into
+	 * @param hash spread hash code of the value
+	 * @param index array index of the value
+	 */
+	private static void insert(int[] slots, int hash, int index) {
+		int mask = slots.length - 1;
+		int i = hash & mask;
+
+		while (slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+
+		slots[i] = index + 1;
+	}
+
+	/**
+	 * Changes the capacity of the value array and rebuilds the hash table. New
+	 * arrays are filled before they are assigned, so the old arrays are left
+	 * untouched for any optimistic readers still using them.
+	 *
+	 * @param capacity the new capacity, which must be a power of two
+	 */
+	private void resize(int capacity) {
+		int[] array = Arrays.copyOf(values, capacity);
+
+		if (!sorted) {
+			int[] slots = new int[capacity * 2];
+
+			for (int i = 0; i < size; i++) {
+				insert(slots, hash(array[i]), i);
+			}
+
+			table = slots;
+		}
+
+		values = array;
+	}
+}
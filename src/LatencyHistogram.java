@@ -0,0 +1,186 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of non-negative durations in nanoseconds, with
+ * buckets similar to HdrHistogram. Values below 16 get their own bucket, and
+ * every larger power of two is split into 8 equal buckets, so any reported
+ * value is within 12.5% of the recorded value. Recording never allocates.
+ */
+public class LatencyHistogram {
+
+	/** Number of values small enough to get their own bucket. */
+	private static final int LINEAR = 16;
+
+	/** Number of buckets per power of two, as a number of bits. */
+	private static final int SUB_BITS = 3;
+
+	/** Number of buckets per power of two. */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** Total number of buckets, enough for any positive long value. */
+	private static final int BUCKETS = LINEAR + (Long.SIZE - 1 - 4) * SUB_BUCKETS;
+
+	/** Number of recorded values in each bucket. */
+	private final AtomicLongArray counts;
+
+	/** Total number of recorded values. */
+	private final LongAdder count;
+
+	/** Sum of all recorded values. */
+	private final LongAdder sum;
+
+	/** Largest recorded value. */
+	private final AtomicLong max;
+
+	/**
+	 * Initializes an empty histogram.
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 *
+	 * @param nanos the value to record
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+
+		long current = max.get();
+
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the largest recorded value, or zero if there are none.
+	 *
+	 * @return largest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values, or zero if there are none.
+	 *
+	 * @return mean recorded value
+	 */
+	public double getMean() {
+		long total = count.sum();
+		return total == 0 ? 0 : (double) sum.sum() / total;
+	}
+
+	/**
+	 * Returns the value at a percentile, or zero if there are no recorded values.
+	 * The result is the highest value that falls in the same bucket as the exact
+	 * percentile, but never more than the largest recorded value.
+	 *
+	 * @param percentile the percentile between 0 and 100
+	 * @return value at the percentile
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+
+		if (total == 0) {
+			return 0;
+		}
+
+		double fraction = Math.min(100, Math.max(0, percentile)) / 100;
+		long target = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+
+			if (seen >= target) {
+				return Math.min(highest(i), max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * Returns a copy of this histogram. The copy is not affected by values
+	 * recorded later.
+	 *
+	 * @return a copy of this histogram
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+
+		for (int i = 0; i < BUCKETS; i++) {
+			copy.counts.set(i, counts.get(i));
+		}
+
+		copy.count.add(count.sum());
+		copy.sum.add(sum.sum());
+		copy.max.set(max.get());
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d", getCount(), getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+	}
+
+	/**
+	 * Returns the bucket of a non-negative value.
+	 *
+	 * @param value the value
+	 * @return bucket index
+	 */
+	private static int bucket(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the highest value that falls in a bucket.
+	 *
+	 * @param bucket bucket index
+	 * @return highest value in the bucket
+	 */
+	private static long highest(int bucket) {
+		if (bucket < LINEAR) {
+			return bucket;
+		}
+
+		int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+		long sub = (bucket - LINEAR) % SUB_BUCKETS;
+		long next = (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+		return next - 1 < 0 ? Long.MAX_VALUE : next - 1;
+	}
+}
@@ -0,0 +1,205 @@
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe indexed set that does not use any locks, as an alternative to
+ * {@link ThreadSafeIndexedSet}. Writers never block readers, and no operation
+ * ever waits for another thread.
+ *
+ * <p>
+ * Unsorted sets keep their elements in a concurrent hash set, and also append
+ * each new element to a log that is used for indexed access. The log is made
+ * of chunks that double in size, so it never needs to be copied. The size is
+ * the length of the longest fully written prefix of the log, which adding
+ * threads advance cooperatively. As a result, {@link #get(int)} is exact and
+ * constant time for any index below {@link #size()}, but an element may be
+ * visible to {@link #contains(Object)} slightly before it is counted by
+ * {@link #size()}.
+ *
+ * <p>
+ * Sorted sets keep their elements in a concurrent skip list, with a separate
+ * counter for the size. Indexed access has to walk the skip list, so
+ * {@link #get(int)} takes time proportional to the index, and only reflects a
+ * consistent view of the set if there are no concurrent writes.
+ *
+ * @param <E> element type
+ *
+ * @see ConcurrentHashMap#newKeySet()
+ * @see ConcurrentSkipListSet
+ */
+public class LockFreeIndexedSet<E> implements ConcurrentIndexedSet<E> {
+
+	/** The number of bits in the size of the first log chunk. */
+	private static final int FIRST_CHUNK_BITS = 5;
+
+	/** Set of elements. */
+	private final Set<E> set;
+
+	/** Chunks of the log of unsorted elements, or null if sorted. */
+	private final AtomicReferenceArray<AtomicReferenceArray<E>> chunks;
+
+	/** Number of log positions handed out to adding threads. */
+	private final AtomicInteger claimed;
+
+	/** Number of log positions (or sorted elements) that are fully written. */
+	private final AtomicInteger published;
+
+	/**
+	 * Initializes an unsorted lock-free set.
+	 *
+	 * @see #LockFreeIndexedSet(boolean)
+	 */
+	public LockFreeIndexedSet() {
+		this(false);
+	}
+
+	/**
+	 * Initializes a sorted or unsorted lock-free set depending on the parameter.
+	 *
+	 * @param sorted if true, will initialize a sorted set
+	 */
+	public LockFreeIndexedSet(boolean sorted) {
+		if (sorted) {
+			set = new ConcurrentSkipListSet<E>();
+			chunks = null;
+		}
+		else {
+			set = ConcurrentHashMap.newKeySet();
+			chunks = new AtomicReferenceArray<>(Integer.SIZE - FIRST_CHUNK_BITS);
+		}
+
+		claimed = new AtomicInteger();
+		published = new AtomicInteger();
+	}
+
+	@Override
+	public boolean add(E element) {
+		if (!set.add(element)) {
+			return false;
+		}
+
+		if (chunks == null) {
+			published.incrementAndGet();
+			return true;
+		}
+
+		int index = claimed.getAndIncrement();
+		chunk(index, true).set(offset(index), element);
+
+		// advance past every position that is written, including those of slower threads
+		int next = published.get();
+
+		while (next < claimed.get() && chunk(next, true).get(offset(next)) != null) {
+			published.compareAndSet(next, next + 1);
+			next = published.get();
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean addAll(Collection<E> elements) {
+		boolean modified = false;
+
+		for (E element : elements) {
+			modified |= add(element);
+		}
+
+		return modified;
+	}
+
+	@Override
+	public int size() {
+		return published.get();
+	}
+
+	@Override
+	public boolean contains(E element) {
+		return set.contains(element);
+	}
+
+	@Override
+	public E get(int index) {
+		if (index < 0 || index >= published.get()) {
+			return null;
+		}
+
+		if (chunks != null) {
+			return chunk(index, false).get(offset(index));
+		}
+
+		Iterator<E> iterator = set.iterator();
+		E element = null;
+
+		for (int i = 0; i <= index && iterator.hasNext(); i++) {
+			element = iterator.next();
+		}
+
+		return element;
+	}
+
+	@Override
+	public Set<E> unsortedCopy() {
+		return new HashSet<E>(set);
+	}
+
+	@Override
+	public SortedSet<E> sortedCopy() {
+		return new TreeSet<E>(set);
+	}
+
+	@Override
+	public String toString() {
+		return set.toString();
+	}
+
+	/**
+	 * Returns which chunk of the log holds a position. Chunk {@code i} holds
+	 * {@code 2^(i + FIRST_CHUNK_BITS)} positions.
+	 *
+	 * @param index log position
+	 * @return chunk number
+	 */
+	private static int chunkNumber(int index) {
+		long shifted = (long) index + (1 << FIRST_CHUNK_BITS);
+		return 63 - Long.numberOfLeadingZeros(shifted) - FIRST_CHUNK_BITS;
+	}
+
+	/**
+	 * Returns the offset of a position within its chunk.
+	 *
+	 * @param index log position
+	 * @return offset within the chunk
+	 */
+	private static int offset(int index) {
+		long shifted = (long) index + (1 << FIRST_CHUNK_BITS);
+		return (int) (shifted - (1L << (chunkNumber(index) + FIRST_CHUNK_BITS)));
+	}
+
+	/**
+	 * Returns the chunk of the log that holds a position, optionally creating it.
+	 *
+	 * @param index log position
+	 * @param create whether to create the chunk if it does not exist
+	 * @return the chunk, or null if it does not exist and was not created
+	 */
+	private AtomicReferenceArray<E> chunk(int index, boolean create) {
+		int number = chunkNumber(index);
+		AtomicReferenceArray<E> chunk = chunks.get(number);
+
+		if (chunk == null && create) {
+			chunks.compareAndSet(number, null, new AtomicReferenceArray<>(1 << (number + FIRST_CHUNK_BITS)));
+			chunk = chunks.get(number);
+		}
+
+		return chunk;
+	}
+}
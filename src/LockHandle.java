@@ -0,0 +1,32 @@
+/**
+ * A lock acquired asynchronously from a {@link SimpleReadWriteLock}. Unlike a
+ * lock acquired through {@link SimpleLock#lock()}, the lock is held by the
+ * handle rather than by a thread, so it may be released by any thread, such as
+ * whichever thread runs the continuation that finishes the work.
+ *
+ * <p>
+ * Since it is not tied to a thread, a handle is never reentrant. A thread that
+ * holds a lock through a handle must not try to acquire a conflicting lock
+ * through {@link SimpleLock#lock()}, or it will wait for itself.
+ *
+ * @see SimpleReadWriteLock#readLockAsync(java.util.concurrent.Executor)
+ * @see SimpleReadWriteLock#writeLockAsync(java.util.concurrent.Executor)
+ */
+public interface LockHandle extends AutoCloseable {
+
+	/**
+	 * Returns whether this handle holds the write lock rather than the read lock.
+	 *
+	 * @return true if this handle holds the write lock
+	 */
+	public boolean isWrite();
+
+	/**
+	 * Releases the lock held by this handle, and grants the lock to any waiting
+	 * threads if necessary.
+	 *
+	 * @throws IllegalMonitorStateException if the handle was already released
+	 */
+	@Override
+	public void close();
+}
@@ -0,0 +1,163 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the statistics of an instrumented {@link SimpleReadWriteLock}. Only
+ * called by the lock while instrumentation is turned on.
+ *
+ * @see LockStatistics
+ */
+class LockMetrics {
+
+	/** Number of read lock acquisitions. */
+	private final LongAdder readAcquisitions;
+
+	/** Number of read lock acquisitions that had to wait. */
+	private final LongAdder contendedReads;
+
+	/** Number of write lock acquisitions. */
+	private final LongAdder writeAcquisitions;
+
+	/** Number of write lock acquisitions that had to wait. */
+	private final LongAdder contendedWrites;
+
+	/** Time spent waiting for the read lock. */
+	private final LatencyHistogram readWait;
+
+	/** Time spent holding the read lock. */
+	private final LatencyHistogram readHold;
+
+	/** Time spent waiting for the write lock. */
+	private final LatencyHistogram writeWait;
+
+	/** Time spent holding the write lock. */
+	private final LatencyHistogram writeHold;
+
+	/** Largest number of readers that held the lock at once. */
+	private final AtomicInteger peakReaders;
+
+	/**
+	 * When each thread acquired the read locks it holds, as a stack whose first
+	 * element is the depth, since a thread may hold the read lock several times.
+	 */
+	private final ThreadLocal<long[]> readStarts;
+
+	/** When the current writer acquired the lock, or zero if unknown. */
+	private long writeStart;
+
+	/**
+	 * Initializes empty metrics.
+	 */
+	LockMetrics() {
+		readAcquisitions = new LongAdder();
+		contendedReads = new LongAdder();
+		writeAcquisitions = new LongAdder();
+		contendedWrites = new LongAdder();
+		readWait = new LatencyHistogram();
+		readHold = new LatencyHistogram();
+		writeWait = new LatencyHistogram();
+		writeHold = new LatencyHistogram();
+		peakReaders = new AtomicInteger();
+		readStarts = ThreadLocal.withInitial(() -> new long[4]);
+		writeStart = 0;
+	}
+
+	/**
+	 * Records a read lock acquisition by the current thread.
+	 *
+	 * @param start when the thread called lock
+	 * @param contended whether the thread had to wait
+	 */
+	void acquiredRead(long start, boolean contended) {
+		long now = System.nanoTime();
+		readAcquisitions.increment();
+
+		if (contended) {
+			contendedReads.increment();
+		}
+
+		readWait.record(now - start);
+
+		long[] starts = readStarts.get();
+		int depth = (int) starts[0] + 1;
+
+		if (depth == starts.length) {
+			starts = Arrays.copyOf(starts, starts.length * 2);
+			readStarts.set(starts);
+		}
+
+		starts[0] = depth;
+		starts[depth] = now;
+	}
+
+	/**
+	 * Records a read lock release by the current thread. Ignored if the read lock
+	 * was acquired while instrumentation was off.
+	 */
+	void releasedRead() {
+		long[] starts = readStarts.get();
+		int depth = (int) starts[0];
+
+		if (depth > 0) {
+			readHold.record(System.nanoTime() - starts[depth]);
+			starts[0] = depth - 1;
+		}
+	}
+
+	/**
+	 * Records a write lock acquisition. Must be called while holding the write
+	 * lock.
+	 *
+	 * @param start when the thread called lock
+	 * @param contended whether the thread had to wait
+	 */
+	void acquiredWrite(long start, boolean contended) {
+		long now = System.nanoTime();
+		writeAcquisitions.increment();
+
+		if (contended) {
+			contendedWrites.increment();
+		}
+
+		writeWait.record(now - start);
+		writeStart = now;
+	}
+
+	/**
+	 * Records a write lock release. Must be called while still holding the write
+	 * lock.
+	 */
+	void releasedWrite() {
+		if (writeStart != 0) {
+			writeHold.record(System.nanoTime() - writeStart);
+			writeStart = 0;
+		}
+	}
+
+	/**
+	 * Records the number of readers after a reader acquired the lock.
+	 *
+	 * @param readers the number of active readers
+	 */
+	void readersChanged(int readers) {
+		int peak = peakReaders.get();
+
+		while (readers > peak && !peakReaders.compareAndSet(peak, readers)) {
+			peak = peakReaders.get();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the recorded statistics.
+	 *
+	 * @param activeReaders the number of readers currently holding the lock
+	 * @param waitingWriters the number of writers currently waiting
+	 * @return statistics snapshot
+	 */
+	LockStatistics snapshot(int activeReaders, int waitingWriters) {
+		return new LockStatistics(readAcquisitions.sum(), contendedReads.sum(),
+				writeAcquisitions.sum(), contendedWrites.sum(), readWait.copy(), readHold.copy(),
+				writeWait.copy(), writeHold.copy(), peakReaders.get(), activeReaders, waitingWriters);
+	}
+}
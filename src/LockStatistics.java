@@ -0,0 +1,186 @@
+/**
+ * An immutable snapshot of the statistics collected by an instrumented
+ * {@link SimpleReadWriteLock}. Acquisitions are contended if the thread had to
+ * wait for the lock. Wait times are measured from calling lock until acquiring
+ * it, and hold times from acquiring the lock until releasing it.
+ *
+ * @see SimpleReadWriteLock#getStatistics()
+ */
+public class LockStatistics {
+
+	/** Number of read lock acquisitions. */
+	private final long readAcquisitions;
+
+	/** Number of read lock acquisitions that had to wait. */
+	private final long contendedReads;
+
+	/** Number of write lock acquisitions. */
+	private final long writeAcquisitions;
+
+	/** Number of write lock acquisitions that had to wait. */
+	private final long contendedWrites;
+
+	/** Time spent waiting for the read lock. */
+	private final LatencyHistogram readWait;
+
+	/** Time spent holding the read lock. */
+	private final LatencyHistogram readHold;
+
+	/** Time spent waiting for the write lock. */
+	private final LatencyHistogram writeWait;
+
+	/** Time spent holding the write lock. */
+	private final LatencyHistogram writeHold;
+
+	/** Largest number of readers that held the lock at once. */
+	private final int peakReaders;
+
+	/** Number of readers holding the lock when the snapshot was taken. */
+	private final int activeReaders;
+
+	/** Number of writers waiting when the snapshot was taken. */
+	private final int waitingWriters;
+
+	/**
+	 * Initializes a statistics snapshot. The histograms must not be modified
+	 * afterwards.
+	 *
+	 * @param readAcquisitions number of read lock acquisitions
+	 * @param contendedReads number of read lock acquisitions that had to wait
+	 * @param writeAcquisitions number of write lock acquisitions
+	 * @param contendedWrites number of write lock acquisitions that had to wait
+	 * @param readWait time spent waiting for the read lock
+	 * @param readHold time spent holding the read lock
+	 * @param writeWait time spent waiting for the write lock
+	 * @param writeHold time spent holding the write lock
+	 * @param peakReaders largest number of readers that held the lock at once
+	 * @param activeReaders number of readers currently holding the lock
+	 * @param waitingWriters number of writers currently waiting
+	 */
+	public LockStatistics(long readAcquisitions, long contendedReads, long writeAcquisitions,
+			long contendedWrites, LatencyHistogram readWait, LatencyHistogram readHold,
+			LatencyHistogram writeWait, LatencyHistogram writeHold, int peakReaders,
+			int activeReaders, int waitingWriters) {
+		this.readAcquisitions = readAcquisitions;
+		this.contendedReads = contendedReads;
+		this.writeAcquisitions = writeAcquisitions;
+		this.contendedWrites = contendedWrites;
+		this.readWait = readWait;
+		this.readHold = readHold;
+		this.writeWait = writeWait;
+		this.writeHold = writeHold;
+		this.peakReaders = peakReaders;
+		this.activeReaders = activeReaders;
+		this.waitingWriters = waitingWriters;
+	}
+
+	/**
+	 * Returns the number of read lock acquisitions.
+	 *
+	 * @return number of read lock acquisitions
+	 */
+	public long getReadAcquisitions() {
+		return readAcquisitions;
+	}
+
+	/**
+	 * Returns the number of read lock acquisitions that had to wait.
+	 *
+	 * @return number of contended read lock acquisitions
+	 */
+	public long getContendedReads() {
+		return contendedReads;
+	}
+
+	/**
+	 * Returns the number of write lock acquisitions.
+	 *
+	 * @return number of write lock acquisitions
+	 */
+	public long getWriteAcquisitions() {
+		return writeAcquisitions;
+	}
+
+	/**
+	 * Returns the number of write lock acquisitions that had to wait.
+	 *
+	 * @return number of contended write lock acquisitions
+	 */
+	public long getContendedWrites() {
+		return contendedWrites;
+	}
+
+	/**
+	 * Returns the time spent waiting for the read lock, in nanoseconds.
+	 *
+	 * @return read wait time histogram
+	 */
+	public LatencyHistogram getReadWait() {
+		return readWait;
+	}
+
+	/**
+	 * Returns the time spent holding the read lock, in nanoseconds.
+	 *
+	 * @return read hold time histogram
+	 */
+	public LatencyHistogram getReadHold() {
+		return readHold;
+	}
+
+	/**
+	 * Returns the time spent waiting for the write lock, in nanoseconds.
+	 *
+	 * @return write wait time histogram
+	 */
+	public LatencyHistogram getWriteWait() {
+		return writeWait;
+	}
+
+	/**
+	 * Returns the time spent holding the write lock, in nanoseconds.
+	 *
+	 * @return write hold time histogram
+	 */
+	public LatencyHistogram getWriteHold() {
+		return writeHold;
+	}
+
+	/**
+	 * Returns the largest number of readers that held the lock at once, including
+	 * readers using striped counters.
+	 *
+	 * @return peak number of concurrent readers
+	 */
+	public int getPeakReaders() {
+		return peakReaders;
+	}
+
+	/**
+	 * Returns the number of readers holding the lock when the snapshot was taken,
+	 * including readers using striped counters.
+	 *
+	 * @return number of active readers
+	 */
+	public int getActiveReaders() {
+		return activeReaders;
+	}
+
+	/**
+	 * Returns the number of writers waiting when the snapshot was taken.
+	 *
+	 * @return number of waiting writers
+	 */
+	public int getWaitingWriters() {
+		return waitingWriters;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("reads=%d (%d contended) writes=%d (%d contended) "
+				+ "peakReaders=%d activeReaders=%d waitingWriters=%d%n"
+				+ "read wait:  %s%nread hold:  %s%nwrite wait: %s%nwrite hold: %s",
+				readAcquisitions, contendedReads, writeAcquisitions, contendedWrites,
+				peakReaders, activeReaders, waitingWriters, readWait, readHold, writeWait, writeHold);
+	}
+}
@@ -0,0 +1,508 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Unsorted indexed storage that keeps fixed-width elements in insertion order
+ * outside the Java heap. Like {@link InsertionOrderedSet}, elements are stored
+ * in an array and an open-addressing hash table maps each element to its
+ * position in that array, so {@link #add(Object)}, {@link #contains(Object)},
+ * and {@link #get(int)} all run in constant time. Here, however, both the
+ * array and the table live in direct {@link ByteBuffer} objects, and elements
+ * are converted to bytes by an {@link ElementSerializer}. The garbage collector
+ * only ever sees a handful of buffer objects, no matter how many elements are
+ * stored.
+ *
+ * <p>
+ * Since a single buffer cannot hold more than two gigabytes, elements are
+ * stored in chunks of {@value #CHUNK_SIZE} elements, and the table is split
+ * into chunks as well once it grows large enough. Full chunks are never moved,
+ * so growing only allocates new chunks and rebuilds the table. Each element
+ * is stored next to its cached hash code, so the table can be rebuilt without
+ * reading any elements back.
+ *
+ * <p>
+ * Elements are only ever appended, so iterators and {@link #snapshot()} work
+ * the same way as for {@link InsertionOrderedSet}. Null elements are not
+ * supported. The memory is released once the storage and all of its snapshots
+ * are garbage collected.
+ *
+ * <p>
+ * The same layout can also be mapped from a file with
+ * {@link #map(FileChannel, long, int, ElementSerializer, boolean)}, in which
+ * case the elements and table are read directly from the mapped file instead
+ * of being loaded first.
+ *
+ * @param <E> element type stored in the set
+ *
+ * @see ElementSerializer
+ */
+public class OffHeapStorage<E> extends AbstractSet<E> implements IndexedStorage<E> {
+
+	/** Initial capacity of the element array. */
+	private static final int DEFAULT_CAPACITY = 16;
+
+	/** Number of bits used for the position of an element within a chunk. */
+	private static final int CHUNK_SHIFT = 16;
+
+	/** Number of elements in a full chunk. */
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	/** Number of bits used for the position of a slot within a table chunk. */
+	private static final int TABLE_SHIFT = 28;
+
+	/** Maximum number of elements, which keeps the table within an int range. */
+	private static final int MAX_CAPACITY = 1 << 29;
+
+	/** Maximum number of bytes mapped at once from a file. */
+	private static final int MAX_REGION = 1 << 30;
+
+	/** Converts elements to and from bytes. */
+	private final ElementSerializer<E> serializer;
+
+	/** Number of bytes used per element, including its cached hash code. */
+	private final int stride;
+
+	/**
+	 * Chunks of elements in insertion order, each element preceded by its hash
+	 * code. While the capacity is less than a full chunk, there is a single
+	 * chunk that is replaced whenever it grows.
+	 */
+	private ByteBuffer[] chunks;
+
+	/**
+	 * Chunks of the hash table of element positions. A slot holds the array
+	 * index plus one, or zero if the slot is empty. Always twice the element
+	 * capacity.
+	 */
+	private ByteBuffer[] table;
+
+	/** Number of elements that fit in the current chunks. */
+	private int capacity;
+
+	/** Number of elements in the set. */
+	private int size;
+
+	/** Regions of the file the buffers were mapped from, or null if not mapped. */
+	private final MappedByteBuffer[] regions;
+
+	/** Whether this set is an immutable snapshot. */
+	private final boolean immutable;
+
+	/**
+	 * Initializes an empty set.
+	 *
+	 * @param serializer converts elements to and from bytes
+	 * @throws IllegalArgumentException if the element width is not positive or
+	 *   too large to fit a full chunk in a single buffer
+	 */
+	public OffHeapStorage(ElementSerializer<E> serializer) {
+		int width = serializer.width();
+
+		if (width <= 0 || width > Integer.MAX_VALUE / CHUNK_SIZE - Integer.BYTES) {
+			throw new IllegalArgumentException("Unsupported element width: " + width);
+		}
+
+		this.serializer = serializer;
+		this.stride = width + Integer.BYTES;
+		this.chunks = new ByteBuffer[] { allocate(DEFAULT_CAPACITY * stride) };
+		this.table = new ByteBuffer[] { allocate(DEFAULT_CAPACITY * 2 * Integer.BYTES) };
+		this.capacity = DEFAULT_CAPACITY;
+		this.size = 0;
+		this.regions = null;
+		this.immutable = false;
+	}
+
+	/**
+	 * Initializes an immutable snapshot that shares the buffers of another set.
+	 *
+	 * @param source the set to take a snapshot of
+	 */
+	private OffHeapStorage(OffHeapStorage<E> source) {
+		serializer = source.serializer;
+		stride = source.stride;
+		chunks = source.chunks;
+		table = source.table;
+		capacity = source.capacity;
+		size = source.size;
+		regions = source.regions;
+		immutable = true;
+	}
+
+	/**
+	 * Initializes a set that uses buffers mapped from a file.
+	 *
+	 * @param serializer converts elements to and from bytes
+	 * @param chunks chunks of elements, each preceded by its hash code
+	 * @param table chunks of the hash table
+	 * @param size number of elements already in the chunks
+	 * @param regions the mapped regions of the file
+	 * @param immutable whether the set is read-only
+	 */
+	private OffHeapStorage(ElementSerializer<E> serializer, ByteBuffer[] chunks, ByteBuffer[] table, int size,
+			MappedByteBuffer[] regions, boolean immutable) {
+		this.serializer = serializer;
+		this.stride = serializer.width() + Integer.BYTES;
+		this.chunks = chunks;
+		this.table = table;
+		this.capacity = length(table) / 2;
+		this.size = size;
+		this.regions = regions;
+		this.immutable = immutable;
+	}
+
+	/**
+	 * Returns the number of bytes used in a file by storage for the specified
+	 * number of elements.
+	 *
+	 * @param count number of elements
+	 * @param width the width of an element in bytes
+	 * @return number of bytes used in the file
+	 *
+	 * @see #map(FileChannel, long, int, ElementSerializer, boolean)
+	 */
+	public static long mappedLength(int count, int width) {
+		return (long) count * (width + Integer.BYTES) + (long) tableLength(count) * Integer.BYTES;
+	}
+
+	/**
+	 * Maps storage for the specified number of elements from a file, starting at
+	 * the specified position. The elements come first in iteration order, each
+	 * preceded by its hash code, followed by the hash table. All values are
+	 * stored in little-endian byte order.
+	 *
+	 * <p>
+	 * A read-only storage is immutable and contains all of the elements. A
+	 * writable storage starts out empty, and exactly the specified number of
+	 * elements should be added to it before calling {@link #force()}. The file is
+	 * extended as needed, and must not contain anything past the position yet.
+	 *
+	 * @param <E> element type stored in the set
+	 * @param channel the file to map, which may be closed once this returns
+	 * @param position the position of the storage in the file
+	 * @param count number of elements in the storage
+	 * @param serializer converts elements to and from bytes
+	 * @param writable whether to create the storage rather than read it
+	 * @return the mapped storage
+	 * @throws IOException if the file could not be mapped
+	 * @throws IllegalArgumentException if there are too many elements
+	 */
+	public static <E> OffHeapStorage<E> map(FileChannel channel, long position, int count,
+			ElementSerializer<E> serializer, boolean writable) throws IOException {
+		if (count < 0 || count > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Unsupported element count: " + count);
+		}
+
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		int stride = serializer.width() + Integer.BYTES;
+		int chunkBytes = CHUNK_SIZE * stride;
+		int perRegion = Math.max(1, MAX_REGION / chunkBytes);
+		int length = tableLength(count);
+
+		ByteBuffer[] chunks = new ByteBuffer[Math.max(1, (count + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+		ByteBuffer[] table = new ByteBuffer[Math.max(1, length >>> TABLE_SHIFT)];
+		MappedByteBuffer[] regions = new MappedByteBuffer[(chunks.length + perRegion - 1) / perRegion + table.length];
+
+		for (int first = 0; first < chunks.length; first += perRegion) {
+			int last = Math.min(chunks.length, first + perRegion);
+			long start = position + (long) first * chunkBytes;
+			long end = position + Math.min((long) last * CHUNK_SIZE, count) * stride;
+			MappedByteBuffer region = channel.map(mode, start, end - start);
+			regions[first / perRegion] = region;
+
+			for (int i = first; i < last; i++) {
+				int from = (i - first) * chunkBytes;
+				int to = (int) Math.min((long) from + chunkBytes, end - start);
+				chunks[i] = region.duplicate().position(from).limit(to).slice().order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+
+		long start = position + (long) count * stride;
+		int slots = Math.min(length, 1 << TABLE_SHIFT);
+
+		for (int i = 0; i < table.length; i++) {
+			MappedByteBuffer region = channel.map(mode, start + (long) i * slots * Integer.BYTES, (long) slots * Integer.BYTES);
+			regions[regions.length - table.length + i] = region;
+			table[i] = region.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		return new OffHeapStorage<E>(serializer, chunks, table, writable ? 0 : count, regions, !writable);
+	}
+
+	/**
+	 * Writes any changes made to a writable mapped storage to the file. Does
+	 * nothing if this storage was not mapped from a file.
+	 */
+	public void force() {
+		if (regions != null) {
+			for (MappedByteBuffer region : regions) {
+				region.force();
+			}
+		}
+	}
+
+	/**
+	 * Allocates a zeroed direct buffer in native byte order.
+	 *
+	 * @param bytes size of the buffer in bytes
+	 * @return the new buffer
+	 */
+	private static ByteBuffer allocate(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns the spread hash code of an element. The multiplication spreads
+	 * sequential hash codes (such as small integers) across the table.
+	 *
+	 * @param element element to hash
+	 * @return spread hash code
+	 */
+	private static int hash(Object element) {
+		int h = element.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the number of slots in the hash table of a mapped storage, which
+	 * is the smallest power of two that is at least twice the element count.
+	 *
+	 * @param count number of elements
+	 * @return number of slots
+	 */
+	private static int tableLength(int count) {
+		return Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+	}
+
+	/**
+	 * Returns the number of slots in a hash table.
+	 *
+	 * @param slots chunks of the hash table
+	 * @return number of slots
+	 */
+	private static int length(ByteBuffer[] slots) {
+		return slots.length == 1 ? slots[0].capacity() / Integer.BYTES : slots.length << TABLE_SHIFT;
+	}
+
+	/**
+	 * Returns the byte offset of a slot within its table chunk.
+	 *
+	 * @param slot index of the slot
+	 * @return byte offset within the chunk
+	 */
+	private static int slotOffset(int slot) {
+		return (slot & ((1 << TABLE_SHIFT) - 1)) * Integer.BYTES;
+	}
+
+	/**
+	 * Returns the byte offset of an element within its chunk.
+	 *
+	 * @param index array index of the element
+	 * @return byte offset of the cached hash code, followed by the element
+	 */
+	private int offset(int index) {
+		return (index & (CHUNK_SIZE - 1)) * stride;
+	}
+
+	@Override
+	public boolean add(E element) {
+		if (immutable) {
+			throw new UnsupportedOperationException("Snapshots are immutable.");
+		}
+
+		Objects.requireNonNull(element, "Off-heap storage does not support null elements.");
+		int hash = hash(element);
+
+		if (find(element, hash) >= 0) {
+			return false;
+		}
+
+		if (size == capacity) {
+			resize(capacity * 2);
+		}
+
+		ByteBuffer chunk = chunks[size >>> CHUNK_SHIFT];
+		int offset = offset(size);
+		chunk.putInt(offset, hash);
+		serializer.write(element, chunk, offset + Integer.BYTES);
+		insert(table, hash, size);
+		size++;
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		return element != null && find(element, hash(element)) >= 0;
+	}
+
+	@Override
+	public E get(int index) {
+		Objects.checkIndex(index, size);
+		return serializer.read(chunks[index >>> CHUNK_SHIFT], offset(index) + Integer.BYTES);
+	}
+
+	/**
+	 * Finds the index of an element with the hash table, in constant time.
+	 */
+	@Override
+	public int indexOf(Object element) {
+		return element == null ? -1 : find(element, hash(element));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public OffHeapStorage<E> snapshot() {
+		return immutable ? this : new OffHeapStorage<E>(this);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private final ByteBuffer[] snapshot = chunks;
+			private final int end = size;
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < end;
+			}
+
+			@Override
+			public E next() {
+				if (next >= end) {
+					throw new NoSuchElementException();
+				}
+
+				E element = serializer.read(snapshot[next >>> CHUNK_SHIFT], offset(next) + Integer.BYTES);
+				next++;
+				return element;
+			}
+		};
+	}
+
+	/**
+	 * Finds the array index of an element. Probing is bounded by the table
+	 * length, so this always terminates. Positions at or past the current size
+	 * are skipped, since they belong to elements added after a snapshot was taken
+	 * (or to an element that is still being added). Only elements with the same
+	 * hash code are read back from their bytes.
+	 *
+	 * @param element element to search for
+	 * @param hash spread hash code of the element
+	 * @return array index of the element, or -1 if not found
+	 */
+	private int find(Object element, int hash) {
+		ByteBuffer[] slots = table;
+		ByteBuffer[] values = chunks;
+		int count = size;
+		int length = length(slots);
+		int mask = length - 1;
+		int i = hash & mask;
+
+		for (int probes = 0; probes < length; probes++) {
+			int slot = slots[i >>> TABLE_SHIFT].getInt(slotOffset(i));
+
+			if (slot == 0) {
+				return -1;
+			}
+
+			int index = slot - 1;
+
+			if (index < count) {
+				ByteBuffer chunk = values[index >>> CHUNK_SHIFT];
+				int offset = offset(index);
+
+				if (chunk.getInt(offset) == hash && element.equals(serializer.read(chunk, offset + Integer.BYTES))) {
+					return index;
+				}
+			}
+
+			i = (i + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Inserts an array index into a hash table using linear probing.
+	 *
+	 * @param slots chunks of the hash table to insert into
+	 * @param hash spread hash code of the element
+	 * @param index array index of the element
+	 */
+	private static void insert(ByteBuffer[] slots, int hash, int index) {
+		int mask = length(slots) - 1;
+		int i = hash & mask;
+
+		while (slots[i >>> TABLE_SHIFT].getInt(slotOffset(i)) != 0) {
+			i = (i + 1) & mask;
+		}
+
+		slots[i >>> TABLE_SHIFT].putInt(slotOffset(i), index + 1);
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		if (immutable) {
+			throw new UnsupportedOperationException("Snapshots are immutable.");
+		}
+
+		if (capacity > this.capacity) {
+			resize(Math.max(this.capacity * 2, Integer.highestOneBit(capacity - 1) << 1));
+		}
+	}
+
+	/**
+	 * Changes the capacity of the element chunks and rebuilds the hash table. A
+	 * partial chunk is copied into a larger one, and full chunks are kept as they
+	 * are. New buffers are filled before they are assigned, so the old buffers
+	 * are left untouched for any iterators or snapshots still using them.
+	 *
+	 * @param capacity the new capacity, which must be a power of two
+	 * @throws IllegalStateException if the capacity exceeds the maximum
+	 */
+	private void resize(int capacity) {
+		if (capacity > MAX_CAPACITY || capacity <= 0) {
+			throw new IllegalStateException("Off-heap storage cannot hold more than " + MAX_CAPACITY + " elements.");
+		}
+
+		ByteBuffer[] values = Arrays.copyOf(chunks, Math.max(1, capacity >>> CHUNK_SHIFT));
+
+		if (this.capacity < CHUNK_SIZE) {
+			values[0] = allocate(Math.min(capacity, CHUNK_SIZE) * stride);
+			values[0].duplicate().put(chunks[0].duplicate());
+		}
+
+		for (int i = 1; i < values.length; i++) {
+			if (values[i] == null) {
+				values[i] = allocate(CHUNK_SIZE * stride);
+			}
+		}
+
+		int length = capacity * 2;
+		ByteBuffer[] slots = new ByteBuffer[Math.max(1, length >>> TABLE_SHIFT)];
+
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = allocate(Math.min(length, 1 << TABLE_SHIFT) * Integer.BYTES);
+		}
+
+		for (int i = 0; i < size; i++) {
+			insert(slots, values[i >>> CHUNK_SHIFT].getInt(offset(i)), i);
+		}
+
+		chunks = values;
+		table = slots;
+		this.capacity = capacity;
+	}
+}
@@ -0,0 +1,720 @@
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Sorted indexed storage backed by an AVL tree where every node also tracks
+ * the size of its subtree. This allows finding the element at an index
+ * (select) in logarithmic time, in addition to the usual logarithmic
+ * {@link #add(Object)} and {@link #contains(Object)}. Elements are sorted by
+ * their natural ordering, like a {@link java.util.TreeSet} created without a
+ * comparator.
+ *
+ * <p>
+ * Nodes are never modified once created. Instead, an insert copies the nodes
+ * along the search path and then replaces the root. An iterator therefore sees
+ * the elements that were present when it was created and never throws a
+ * {@link java.util.ConcurrentModificationException}, and a {@link #snapshot()}
+ * only needs to remember the current root.
+ *
+ * <p>
+ * The {@link #headSet(Object)}, {@link #tailSet(Object)}, and
+ * {@link #subSet(Object, Object)} views are backed by this tree, and compute
+ * their size and indices from element ranks in logarithmic time. The views do
+ * not support adding elements.
+ *
+ * @param <E> element type stored in the set
+ */
+public class OrderStatisticTree<E> extends AbstractSet<E> implements IndexedStorage<E>, SortedSet<E> {
+
+	/** Root of the tree, or null if the tree is empty. */
+	private Node<E> root;
+
+	/** Whether this tree is an immutable snapshot. */
+	private final boolean immutable;
+
+	/**
+	 * Initializes an empty tree.
+	 */
+	public OrderStatisticTree() {
+		root = null;
+		immutable = false;
+	}
+
+	/**
+	 * Initializes an immutable snapshot that shares the nodes of another tree.
+	 *
+	 * @param source the tree to take a snapshot of
+	 */
+	private OrderStatisticTree(OrderStatisticTree<E> source) {
+		root = source.root;
+		immutable = true;
+	}
+
+	/**
+	 * Compares two elements by their natural ordering.
+	 *
+	 * @param <E> element type
+	 * @param first first element
+	 * @param second second element
+	 * @return negative, zero, or positive if the first element is less than,
+	 *         equal to, or greater than the second element
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E> int compare(Object first, E second) {
+		return ((Comparable<? super E>) first).compareTo(second);
+	}
+
+	@Override
+	public boolean add(E element) {
+		if (immutable) {
+			throw new UnsupportedOperationException("Snapshots are immutable.");
+		}
+
+		Node<E> updated = insert(root, element);
+
+		if (updated == root) {
+			return false;
+		}
+
+		root = updated;
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		Node<E> node = root;
+
+		while (node != null) {
+			int result = compare(element, node.element);
+
+			if (result == 0) {
+				return true;
+			}
+
+			node = result < 0 ? node.left : node.right;
+		}
+
+		return false;
+	}
+
+	@Override
+	public E get(int index) {
+		Node<E> node = root;
+		Objects.checkIndex(index, size(node));
+		return select(node, index);
+	}
+
+	/**
+	 * Returns the number of elements strictly less than the provided element, with
+	 * a single search down the tree.
+	 */
+	@Override
+	public int rank(Object element) {
+		return rank(root, element);
+	}
+
+	/**
+	 * Finds the index of an element with a single search down the tree, in
+	 * logarithmic time.
+	 */
+	@Override
+	public int indexOf(Object element) {
+		Node<E> node = root;
+		int rank = 0;
+
+		while (node != null) {
+			int result = compare(element, node.element);
+
+			if (result == 0) {
+				return rank + size(node.left);
+			}
+
+			if (result < 0) {
+				node = node.left;
+			}
+			else {
+				rank += size(node.left) + 1;
+				node = node.right;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Walks the range of elements in order, only descending the tree once.
+	 */
+	@Override
+	public List<E> getRange(int from, int to) {
+		Node<E> node = root;
+		Objects.checkFromToIndex(from, to, size(node));
+		List<E> elements = new ArrayList<>(to - from);
+		iterator(node, from, to).forEachRemaining(elements::add);
+		return elements;
+	}
+
+	@Override
+	public int size() {
+		return size(root);
+	}
+
+	/**
+	 * Does nothing, since trees do not need to be resized.
+	 */
+	@Override
+	public void ensureCapacity(int capacity) {
+		if (immutable) {
+			throw new UnsupportedOperationException("Snapshots are immutable.");
+		}
+	}
+
+	@Override
+	public OrderStatisticTree<E> snapshot() {
+		return immutable ? this : new OrderStatisticTree<E>(this);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		Node<E> node = root;
+		return iterator(node, 0, size(node));
+	}
+
+	/**
+	 * Returns a spliterator that sees the elements that were present when it was
+	 * created. It splits by index in half, and only walks the tree once per
+	 * split instead of selecting every element separately.
+	 */
+	@Override
+	public Spliterator<E> spliterator() {
+		Node<E> node = root;
+		return new Slice<E>(node, 0, size(node));
+	}
+
+	@Override
+	public Comparator<? super E> comparator() {
+		return null;
+	}
+
+	@Override
+	public E first() {
+		Node<E> node = root;
+
+		if (node == null) {
+			throw new NoSuchElementException();
+		}
+
+		return select(node, 0);
+	}
+
+	@Override
+	public E last() {
+		Node<E> node = root;
+
+		if (node == null) {
+			throw new NoSuchElementException();
+		}
+
+		return select(node, node.size - 1);
+	}
+
+	@Override
+	public SortedSet<E> subSet(E fromElement, E toElement) {
+		return new Range(true, fromElement, true, toElement);
+	}
+
+	@Override
+	public SortedSet<E> headSet(E toElement) {
+		return new Range(false, null, true, toElement);
+	}
+
+	@Override
+	public SortedSet<E> tailSet(E fromElement) {
+		return new Range(true, fromElement, false, null);
+	}
+
+	/**
+	 * Returns the element at an index of a non-empty subtree.
+	 *
+	 * @param <E> element type
+	 * @param node root of the subtree
+	 * @param index index of the element, which must be in range
+	 * @return element at the index
+	 */
+	private static <E> E select(Node<E> node, int index) {
+		while (true) {
+			int left = size(node.left);
+
+			if (index < left) {
+				node = node.left;
+			}
+			else if (index > left) {
+				index -= left + 1;
+				node = node.right;
+			}
+			else {
+				return node.element;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of elements in a subtree strictly less than an element.
+	 *
+	 * @param <E> element type
+	 * @param node root of the subtree (may be null)
+	 * @param element the element to rank
+	 * @return number of elements less than the element
+	 */
+	private static <E> int rank(Node<E> node, Object element) {
+		int rank = 0;
+
+		while (node != null) {
+			if (compare(element, node.element) <= 0) {
+				node = node.left;
+			}
+			else {
+				rank += size(node.left) + 1;
+				node = node.right;
+			}
+		}
+
+		return rank;
+	}
+
+	/**
+	 * Returns an iterator over a range of indices of a subtree. The iterator uses
+	 * the provided subtree even if the tree is modified later.
+	 *
+	 * @param <E> element type
+	 * @param root root of the subtree (may be null)
+	 * @param from index of the first element to return
+	 * @param to index after the last element to return
+	 * @return iterator over the elements in the range
+	 */
+	private static <E> Iterator<E> iterator(Node<E> root, int from, int to) {
+		ArrayDeque<Node<E>> stack = new ArrayDeque<>();
+		Node<E> node = root;
+		int index = from;
+
+		// push the path to the first element, skipping nodes before it
+		while (node != null && from < to) {
+			int left = size(node.left);
+
+			if (index <= left) {
+				stack.push(node);
+				node = node.left;
+			}
+			else {
+				index -= left + 1;
+				node = node.right;
+			}
+		}
+
+		return new Iterator<E>() {
+			private int remaining = to - from;
+
+			@Override
+			public boolean hasNext() {
+				return remaining > 0;
+			}
+
+			@Override
+			public E next() {
+				if (remaining <= 0) {
+					throw new NoSuchElementException();
+				}
+
+				Node<E> next = stack.pop();
+				remaining--;
+
+				for (Node<E> child = next.right; child != null; child = child.left) {
+					stack.push(child);
+				}
+
+				return next.element;
+			}
+		};
+	}
+
+	/**
+	 * Returns the size of a subtree.
+	 *
+	 * @param node root of the subtree (may be null)
+	 * @return number of elements in the subtree
+	 */
+	private static int size(Node<?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	/**
+	 * Returns the height of a subtree.
+	 *
+	 * @param node root of the subtree (may be null)
+	 * @return height of the subtree
+	 */
+	private static int height(Node<?> node) {
+		return node == null ? 0 : node.height;
+	}
+
+	/**
+	 * Inserts an element into a subtree, copying the nodes along the search path.
+	 *
+	 * @param <E> element type
+	 * @param node root of the subtree (may be null)
+	 * @param element element to insert
+	 * @return root of the updated subtree, or the same node if the element was
+	 *         already present
+	 */
+	private static <E> Node<E> insert(Node<E> node, E element) {
+		if (node == null) {
+			if (element == null) {
+				throw new NullPointerException();
+			}
+
+			return new Node<E>(element, null, null);
+		}
+
+		int result = compare(element, node.element);
+
+		if (result < 0) {
+			Node<E> left = insert(node.left, element);
+			return left == node.left ? node : balance(node.element, left, node.right);
+		}
+		else if (result > 0) {
+			Node<E> right = insert(node.right, element);
+			return right == node.right ? node : balance(node.element, node.left, right);
+		}
+
+		return node;
+	}
+
+	/**
+	 * Creates a new node from the provided element and subtrees, rotating as
+	 * necessary to restore the AVL balance property.
+	 *
+	 * @param <E> element type
+	 * @param element element of the new node
+	 * @param left left subtree (may be null)
+	 * @param right right subtree (may be null)
+	 * @return root of the balanced subtree
+	 */
+	private static <E> Node<E> balance(E element, Node<E> left, Node<E> right) {
+		int difference = height(left) - height(right);
+
+		if (difference > 1) {
+			if (height(left.left) >= height(left.right)) {
+				return new Node<E>(left.element, left.left, new Node<E>(element, left.right, right));
+			}
+
+			Node<E> middle = left.right;
+			return new Node<E>(middle.element,
+					new Node<E>(left.element, left.left, middle.left),
+					new Node<E>(element, middle.right, right));
+		}
+
+		if (difference < -1) {
+			if (height(right.right) >= height(right.left)) {
+				return new Node<E>(right.element, new Node<E>(element, left, right.left), right.right);
+			}
+
+			Node<E> middle = right.left;
+			return new Node<E>(middle.element,
+					new Node<E>(element, left, middle.left),
+					new Node<E>(right.element, middle.right, right.right));
+		}
+
+		return new Node<E>(element, left, right);
+	}
+
+	/**
+	 * A view of the elements of this tree within a range. A missing bound means the
+	 * range is unbounded on that side. The lower bound is inclusive and the upper
+	 * bound is exclusive.
+	 */
+	private class Range extends AbstractSet<E> implements SortedSet<E> {
+
+		/** Whether the range has a lower bound. */
+		private final boolean hasLow;
+
+		/** The inclusive lower bound. */
+		private final E low;
+
+		/** Whether the range has an upper bound. */
+		private final boolean hasHigh;
+
+		/** The exclusive upper bound. */
+		private final E high;
+
+		/**
+		 * Initializes a range view.
+		 *
+		 * @param hasLow whether the range has a lower bound
+		 * @param low the inclusive lower bound
+		 * @param hasHigh whether the range has an upper bound
+		 * @param high the exclusive upper bound
+		 */
+		private Range(boolean hasLow, E low, boolean hasHigh, E high) {
+			if (hasLow && hasHigh && compare(low, high) > 0) {
+				throw new IllegalArgumentException("Lower bound is greater than upper bound.");
+			}
+
+			// checks the bound types, just like a tree set would
+			if (hasLow) {
+				compare(low, low);
+			}
+
+			if (hasHigh) {
+				compare(high, high);
+			}
+
+			this.hasLow = hasLow;
+			this.low = low;
+			this.hasHigh = hasHigh;
+			this.high = high;
+		}
+
+		/**
+		 * Returns the index of the first element in range.
+		 *
+		 * @param node the root to use
+		 * @return index of the first element in range
+		 */
+		private int from(Node<E> node) {
+			return hasLow ? rank(node, low) : 0;
+		}
+
+		/**
+		 * Returns the index after the last element in range.
+		 *
+		 * @param node the root to use
+		 * @return index after the last element in range
+		 */
+		private int to(Node<E> node) {
+			return hasHigh ? rank(node, high) : OrderStatisticTree.size(node);
+		}
+
+		/**
+		 * Returns whether an element is within the bounds of this range.
+		 *
+		 * @param element the element to check
+		 * @return true if the element is within range
+		 */
+		private boolean inRange(Object element) {
+			return (!hasLow || compare(element, low) >= 0) && (!hasHigh || compare(element, high) < 0);
+		}
+
+		@Override
+		public int size() {
+			Node<E> node = root;
+			return Math.max(0, to(node) - from(node));
+		}
+
+		@Override
+		public boolean contains(Object element) {
+			return inRange(element) && OrderStatisticTree.this.contains(element);
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			Node<E> node = root;
+			int from = from(node);
+			return OrderStatisticTree.iterator(node, from, Math.max(from, to(node)));
+		}
+
+		@Override
+		public Comparator<? super E> comparator() {
+			return null;
+		}
+
+		@Override
+		public E first() {
+			Node<E> node = root;
+			int from = from(node);
+
+			if (from >= to(node)) {
+				throw new NoSuchElementException();
+			}
+
+			return select(node, from);
+		}
+
+		@Override
+		public E last() {
+			Node<E> node = root;
+			int to = to(node);
+
+			if (from(node) >= to) {
+				throw new NoSuchElementException();
+			}
+
+			return select(node, to - 1);
+		}
+
+		@Override
+		public SortedSet<E> subSet(E fromElement, E toElement) {
+			check(fromElement);
+			check(toElement);
+			return new Range(true, fromElement, true, toElement);
+		}
+
+		@Override
+		public SortedSet<E> headSet(E toElement) {
+			check(toElement);
+			return new Range(hasLow, low, true, toElement);
+		}
+
+		@Override
+		public SortedSet<E> tailSet(E fromElement) {
+			check(fromElement);
+			return new Range(true, fromElement, hasHigh, high);
+		}
+
+		/**
+		 * Makes sure a new bound is within the bounds of this range.
+		 *
+		 * @param bound the new bound
+		 * @throws IllegalArgumentException if the bound is out of range
+		 */
+		private void check(E bound) {
+			if ((hasLow && compare(bound, low) < 0) || (hasHigh && compare(bound, high) > 0)) {
+				throw new IllegalArgumentException("Bound is out of range.");
+			}
+		}
+	}
+
+	/**
+	 * A spliterator over a range of indices of a subtree. Splits the range in half
+	 * until traversal starts, and then walks the range with
+	 * {@link OrderStatisticTree#iterator(Node, int, int)}.
+	 *
+	 * @param <E> element type
+	 */
+	private static class Slice<E> implements Spliterator<E> {
+
+		/** Root of the subtree. */
+		private final Node<E> root;
+
+		/** Index of the next element to return. */
+		private int from;
+
+		/** Index after the last element to return. */
+		private final int to;
+
+		/** Iterator over the rest of the range, or null if traversal has not started. */
+		private Iterator<E> iterator;
+
+		/**
+		 * Initializes a spliterator over a range of indices.
+		 *
+		 * @param root root of the subtree (may be null)
+		 * @param from index of the first element to return
+		 * @param to index after the last element to return
+		 */
+		private Slice(Node<E> root, int from, int to) {
+			this.root = root;
+			this.from = from;
+			this.to = to;
+			this.iterator = null;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super E> action) {
+			if (from >= to) {
+				return false;
+			}
+
+			if (iterator == null) {
+				iterator = iterator(root, from, to);
+			}
+
+			from++;
+			action.accept(iterator.next());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super E> action) {
+			if (iterator == null) {
+				iterator = iterator(root, from, to);
+			}
+
+			from = to;
+			iterator.forEachRemaining(action);
+		}
+
+		@Override
+		public Spliterator<E> trySplit() {
+			int middle = (from + to) >>> 1;
+
+			if (iterator != null || middle <= from) {
+				return null;
+			}
+
+			Slice<E> prefix = new Slice<E>(root, from, middle);
+			from = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return to - from;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SORTED | DISTINCT | NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+		}
+
+		@Override
+		public Comparator<? super E> getComparator() {
+			return null;
+		}
+	}
+
+	/**
+	 * An immutable tree node that tracks the size and height of its subtree.
+	 *
+	 * @param <E> element type
+	 */
+	private static class Node<E> {
+
+		/** Element stored in this node. */
+		private final E element;
+
+		/** Left subtree, or null if empty. */
+		private final Node<E> left;
+
+		/** Right subtree, or null if empty. */
+		private final Node<E> right;
+
+		/** Number of elements in this subtree. */
+		private final int size;
+
+		/** Height of this subtree. */
+		private final int height;
+
+		/**
+		 * Initializes a node.
+		 *
+		 * @param element element stored in this node
+		 * @param left left subtree (may be null)
+		 * @param right right subtree (may be null)
+		 */
+		private Node(E element, Node<E> left, Node<E> right) {
+			this.element = element;
+			this.left = left;
+			this.right = right;
+			this.size = size(left) + size(right) + 1;
+			this.height = Math.max(height(left), height(right)) + 1;
+		}
+	}
+}
@@ -0,0 +1,692 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Indexed storage that persists its elements to a file, so a large set can be
+ * reopened almost instantly after a restart instead of being rebuilt. The file
+ * holds an {@link OffHeapStorage} layout (the elements in iteration order
+ * followed by their hash table), which is memory-mapped when the file is
+ * opened. As a result, {@link #contains(Object)} and {@link #get(int)} work
+ * directly against the mapped file, and only the pages that are actually used
+ * are ever read from disk.
+ *
+ * <p>
+ * The mapped file is never modified. Instead, new elements are kept in memory
+ * and appended to a log file next to it (with a {@code .log} suffix), which is
+ * replayed when the file is reopened. Once enough elements have been logged,
+ * a new file is written in the background with all of the elements, and
+ * installed by the next write. The log then only keeps the elements added
+ * since. Each step replaces files with an atomic move, and elements in the log
+ * that are already in the file are skipped during replay, so a crash at any
+ * point leaves a consistent set behind.
+ *
+ * <p>
+ * Sorted storage keeps both the file and the new elements in natural order,
+ * and merges the two when accessed by index. Unsorted storage keeps new
+ * elements after the ones in the file, so indices never change.
+ *
+ * <p>
+ * Like the other storage types, this class is not thread-safe, but may be
+ * used by a {@link ThreadSafeIndexedSet}. Elements must have hash codes that
+ * stay the same across runs, such as those of {@link String}, {@link Long}, or
+ * {@link java.util.UUID}. A file must only be opened by one storage at a time.
+ *
+ * @param <E> element type stored in the set
+ *
+ * @see IndexedSet#save(Path, ElementSerializer)
+ * @see OffHeapStorage
+ */
+public class PersistentStorage<E> extends AbstractSet<E> implements IndexedStorage<E>, Closeable {
+
+	/** Identifies a file written by this class. */
+	private static final int MAGIC = 0x49445853;
+
+	/** Version of the file format. */
+	private static final int VERSION = 1;
+
+	/** Number of bytes before the mapped storage, so it stays aligned. */
+	private static final int HEADER = 32;
+
+	/** Default number of logged elements that triggers a compaction. */
+	public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+	/** The file holding the compacted elements. */
+	private final Path file;
+
+	/** Converts elements to and from bytes. */
+	private final ElementSerializer<E> serializer;
+
+	/** Whether elements are kept in natural order instead of insertion order. */
+	private final boolean sorted;
+
+	/** Elements mapped from the file. */
+	private OffHeapStorage<E> base;
+
+	/** Elements added since the file was written, which are not in the file. */
+	private IndexedStorage<E> delta;
+
+	/** The log of added elements, or null if this is a snapshot. */
+	private FileChannel log;
+
+	/** Buffer used to write an element to the log. */
+	private final ByteBuffer record;
+
+	/** Runs compactions in the background, or null if this is a snapshot. */
+	private final Executor executor;
+
+	/** Number of logged elements that triggers a compaction. */
+	private final int threshold;
+
+	/** Number of logged elements at which to start the next compaction. */
+	private int compactAt;
+
+	/**
+	 * A compaction that has been started and not installed yet, which completes
+	 * with the number of logged elements it includes, or null if there is none.
+	 */
+	private CompletableFuture<Integer> compaction;
+
+	/** Whether this set is an immutable snapshot. */
+	private final boolean immutable;
+
+	/**
+	 * Initializes storage from an opened file and log.
+	 *
+	 * @param file the file holding the compacted elements
+	 * @param serializer converts elements to and from bytes
+	 * @param sorted whether elements are kept in natural order
+	 * @param base elements mapped from the file
+	 * @param log the log of added elements, positioned at its end
+	 * @param executor runs compactions in the background
+	 * @param threshold number of logged elements that triggers a compaction
+	 */
+	private PersistentStorage(Path file, ElementSerializer<E> serializer, boolean sorted, OffHeapStorage<E> base,
+			FileChannel log, Executor executor, int threshold) {
+		this.file = file;
+		this.serializer = serializer;
+		this.sorted = sorted;
+		this.base = base;
+		this.delta = sorted ? new OrderStatisticTree<E>() : new OffHeapStorage<E>(serializer);
+		this.log = log;
+		this.record = ByteBuffer.allocate(serializer.width()).order(ByteOrder.LITTLE_ENDIAN);
+		this.executor = executor;
+		this.threshold = threshold;
+		this.compactAt = threshold;
+		this.compaction = null;
+		this.immutable = false;
+	}
+
+	/**
+	 * Initializes an immutable snapshot that shares the elements of another set.
+	 *
+	 * @param source the set to take a snapshot of
+	 */
+	private PersistentStorage(PersistentStorage<E> source) {
+		file = source.file;
+		serializer = source.serializer;
+		sorted = source.sorted;
+		base = source.base;
+		delta = source.delta.snapshot();
+		log = null;
+		record = null;
+		executor = null;
+		threshold = source.threshold;
+		compactAt = source.compactAt;
+		compaction = null;
+		immutable = true;
+	}
+
+	/**
+	 * Opens storage persisted to the specified file, using the default
+	 * compaction threshold.
+	 *
+	 * @param <E> element type stored in the set
+	 * @param file the file to open
+	 * @param sorted whether elements are kept in natural order
+	 * @param serializer converts elements to and from bytes
+	 * @param executor runs compactions in the background
+	 * @return the opened storage
+	 * @throws IOException if the file could not be read
+	 *
+	 * @see #open(Path, boolean, ElementSerializer, Executor, int)
+	 */
+	public static <E> PersistentStorage<E> open(Path file, boolean sorted, ElementSerializer<E> serializer,
+			Executor executor) throws IOException {
+		return open(file, sorted, serializer, executor, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Opens storage persisted to the specified file. If the file does not exist
+	 * yet, an empty file is created first. Any elements in the log are added
+	 * back, and a partial element left at the end of the log by a crash is
+	 * discarded.
+	 *
+	 * @param <E> element type stored in the set
+	 * @param file the file to open
+	 * @param sorted whether elements are kept in natural order
+	 * @param serializer converts elements to and from bytes
+	 * @param executor runs compactions in the background
+	 * @param threshold number of logged elements that triggers a compaction
+	 * @return the opened storage
+	 * @throws IOException if the file could not be read or is not a valid file
+	 * @throws IllegalArgumentException if the file was written with a different
+	 *   order or element width
+	 */
+	public static <E> PersistentStorage<E> open(Path file, boolean sorted, ElementSerializer<E> serializer,
+			Executor executor, int threshold) throws IOException {
+		if (threshold <= 0) {
+			throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+		}
+
+		if (!Files.exists(file)) {
+			save(file, new OrderStatisticTree<E>(), sorted, serializer);
+		}
+
+		// left over from a crash, and already covered by the log
+		Files.deleteIfExists(sibling(file, ".compact"));
+		Files.deleteIfExists(sibling(file, ".compact.tmp"));
+		Files.deleteIfExists(sibling(file, ".tmp"));
+
+		OffHeapStorage<E> base = map(file, sorted, serializer);
+		FileChannel log = FileChannel.open(sibling(file, ".log"), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			PersistentStorage<E> storage = new PersistentStorage<E>(file, serializer, sorted, base, log, executor, threshold);
+			storage.replay();
+			return storage;
+		}
+		catch (IOException | RuntimeException e) {
+			log.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes elements to the specified file, replacing it atomically if it
+	 * already exists. The elements are written in iteration order, which must be
+	 * natural order if the file is sorted.
+	 *
+	 * @param <E> element type stored in the set
+	 * @param file the file to write
+	 * @param elements distinct elements to write
+	 * @param sorted whether the elements are in natural order
+	 * @param serializer converts elements to and from bytes
+	 * @throws IOException if the file could not be written
+	 */
+	public static <E> void save(Path file, Collection<? extends E> elements, boolean sorted,
+			ElementSerializer<E> serializer) throws IOException {
+		Path temp = sibling(file, ".tmp");
+		int count = elements.size();
+
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(sorted ? 1 : 0).putInt(serializer.width()).putInt(count);
+			header.clear();
+			channel.write(header, 0);
+
+			OffHeapStorage<E> storage = OffHeapStorage.map(channel, HEADER, count, serializer, true);
+			Iterator<? extends E> iterator = elements.iterator();
+
+			for (int i = 0; i < count; i++) {
+				storage.add(iterator.next());
+			}
+
+			storage.force();
+			channel.force(true);
+		}
+
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Returns a file next to the specified file, with a suffix added to its name.
+	 *
+	 * @param file the file to add the suffix to
+	 * @param suffix the suffix to add
+	 * @return the sibling file
+	 */
+	private static Path sibling(Path file, String suffix) {
+		return file.resolveSibling(file.getFileName() + suffix);
+	}
+
+	/**
+	 * Maps the elements of a file after checking its header.
+	 *
+	 * @param <E> element type stored in the set
+	 * @param file the file to map
+	 * @param sorted whether elements are expected in natural order
+	 * @param serializer converts elements to and from bytes
+	 * @return the mapped elements
+	 * @throws IOException if the file could not be read or is not a valid file
+	 */
+	private static <E> OffHeapStorage<E> map(Path file, boolean sorted, ElementSerializer<E> serializer)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) {
+					throw new EOFException("Missing header: " + file);
+				}
+			}
+
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				throw new IOException("Not a supported indexed set file: " + file);
+			}
+
+			if ((header.getInt(8) == 1) != sorted || header.getInt(12) != serializer.width()) {
+				throw new IllegalArgumentException("File was written with a different order or element width: " + file);
+			}
+
+			int count = header.getInt(16);
+
+			if (channel.size() < HEADER + OffHeapStorage.mappedLength(count, serializer.width())) {
+				throw new EOFException("Truncated file: " + file);
+			}
+
+			return OffHeapStorage.map(channel, HEADER, count, serializer, false);
+		}
+	}
+
+	/**
+	 * Adds the elements in the log back to this storage, and discards a partial
+	 * element at the end of the log.
+	 *
+	 * @throws IOException if the log could not be read
+	 */
+	private void replay() throws IOException {
+		int width = serializer.width();
+		long valid = log.size() - log.size() % width;
+		ByteBuffer block = ByteBuffer.allocate(width * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+		for (long position = 0; position < valid; position += block.limit()) {
+			block.clear();
+			block.limit((int) Math.min(block.capacity(), valid - position));
+
+			while (block.hasRemaining()) {
+				if (log.read(block, position + block.position()) < 0) {
+					throw new EOFException("Truncated log: " + file);
+				}
+			}
+
+			for (int offset = 0; offset < block.limit(); offset += width) {
+				E element = serializer.read(block, offset);
+
+				if (!base.contains(element)) {
+					delta.add(element);
+				}
+			}
+		}
+
+		log.truncate(valid);
+		log.position(valid);
+	}
+
+	/**
+	 * Compares two elements by their natural ordering.
+	 *
+	 * @param <E> element type
+	 * @param first first element
+	 * @param second second element
+	 * @return negative, zero, or positive if the first element is less than,
+	 *         equal to, or greater than the second element
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E> int compare(E first, E second) {
+		return ((Comparable<? super E>) first).compareTo(second);
+	}
+
+	@Override
+	public boolean isSorted() {
+		return sorted;
+	}
+
+	@Override
+	public boolean add(E element) {
+		if (immutable) {
+			throw new UnsupportedOperationException("Snapshots are immutable.");
+		}
+
+		Objects.requireNonNull(element, "Persistent storage does not support null elements.");
+
+		try {
+			install();
+
+			if (base.contains(element) || delta.contains(element)) {
+				return false;
+			}
+
+			record.clear();
+			serializer.write(element, record, 0);
+
+			while (record.hasRemaining()) {
+				log.write(record);
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		delta.add(element);
+
+		if (delta.size() >= compactAt && compaction == null) {
+			compact();
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		return base.contains(element) || delta.contains(element);
+	}
+
+	/**
+	 * Gets the element at the specified index based on iteration order. For
+	 * sorted storage, finds how many elements come from the file with a binary
+	 * search, which takes logarithmic time.
+	 */
+	@Override
+	public E get(int index) {
+		OffHeapStorage<E> first = base;
+		IndexedStorage<E> second = delta;
+		int n = first.size();
+		int m = second.size();
+		Objects.checkIndex(index, n + m);
+
+		if (!sorted) {
+			return index < n ? first.get(index) : second.get(index - n);
+		}
+
+		// takes i elements from the file and the rest from the delta
+		int count = index + 1;
+		int low = Math.max(0, count - m);
+		int high = Math.min(count, n);
+
+		while (low < high) {
+			int i = (low + high) >>> 1;
+			int j = count - i;
+
+			if (j > 0 && compare(second.get(j - 1), first.get(i)) > 0) {
+				low = i + 1;
+			}
+			else {
+				high = i;
+			}
+		}
+
+		int j = count - low;
+
+		if (low == 0) {
+			return second.get(j - 1);
+		}
+
+		if (j == 0) {
+			return first.get(low - 1);
+		}
+
+		E last = first.get(low - 1);
+		E other = second.get(j - 1);
+		return compare(last, other) > 0 ? last : other;
+	}
+
+	/**
+	 * Adds the rank in the delta tree to the rank in the file, found with a binary
+	 * search, which takes logarithmic time.
+	 */
+	@Override
+	public int rank(Object element) {
+		if (!sorted) {
+			throw new UnsupportedOperationException("Ranks require sorted storage.");
+		}
+
+		OffHeapStorage<E> first = base;
+		IndexedStorage<E> second = delta;
+		return rank(first, element) + second.rank(element);
+	}
+
+	/**
+	 * Counts the elements of sorted file storage that are smaller than an element,
+	 * with a binary search.
+	 *
+	 * @param <E> element type
+	 * @param storage the sorted storage mapped from the file
+	 * @param element the element to rank
+	 * @return number of elements less than the element
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E> int rank(OffHeapStorage<E> storage, Object element) {
+		int low = 0;
+		int high = storage.size();
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (compare(storage.get(middle), (E) element) < 0) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Finds the index of an element with the hash tables of the file and the
+	 * delta. For sorted storage, also counts the smaller elements in the other
+	 * part, with the rank in the delta tree or a binary search of the file, which
+	 * takes logarithmic time.
+	 */
+	@Override
+	public int indexOf(Object element) {
+		OffHeapStorage<E> first = base;
+		IndexedStorage<E> second = delta;
+		int inFirst = first.indexOf(element);
+		int inSecond = inFirst < 0 ? second.indexOf(element) : -1;
+
+		if (inFirst < 0 && inSecond < 0) {
+			return -1;
+		}
+
+		if (!sorted) {
+			return inFirst >= 0 ? inFirst : first.size() + inSecond;
+		}
+
+		return inFirst >= 0 ? inFirst + second.rank(element) : rank(first, element) + inSecond;
+	}
+
+	@Override
+	public int size() {
+		return base.size() + delta.size();
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		if (immutable) {
+			throw new UnsupportedOperationException("Snapshots are immutable.");
+		}
+
+		try {
+			install();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		delta.ensureCapacity(capacity - base.size());
+	}
+
+	@Override
+	public PersistentStorage<E> snapshot() {
+		return immutable ? this : new PersistentStorage<E>(this);
+	}
+
+	/**
+	 * Returns an iterator over the elements in the file followed by the new
+	 * elements, or over both merged in natural order if sorted.
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		Iterator<E> first = base.iterator();
+		Iterator<E> second = delta.iterator();
+
+		return new Iterator<E>() {
+			private E a = first.hasNext() ? first.next() : null;
+			private E b = second.hasNext() ? second.next() : null;
+
+			@Override
+			public boolean hasNext() {
+				return a != null || b != null;
+			}
+
+			@Override
+			public E next() {
+				if (a == null && b == null) {
+					throw new NoSuchElementException();
+				}
+
+				E element;
+
+				if (b == null || (a != null && (!sorted || compare(a, b) < 0))) {
+					element = a;
+					a = first.hasNext() ? first.next() : null;
+				}
+				else {
+					element = b;
+					b = second.hasNext() ? second.next() : null;
+				}
+
+				return element;
+			}
+		};
+	}
+
+	/**
+	 * Starts writing a new file with all of the current elements in the
+	 * background. The new file is installed by the next write once it is ready.
+	 * If the compaction fails, it is tried again after another
+	 * {@link #threshold} elements have been logged.
+	 */
+	private void compact() {
+		PersistentStorage<E> source = snapshot();
+		int merged = source.delta.size();
+		compactAt = merged + threshold;
+
+		try {
+			compaction = CompletableFuture.supplyAsync(() -> {
+				try {
+					save(sibling(file, ".compact"), source, sorted, serializer);
+					return merged;
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, executor);
+		}
+		catch (RejectedExecutionException e) {
+			compaction = null;
+		}
+	}
+
+	/**
+	 * Installs a finished compaction. The new file replaces the old one first,
+	 * and the log is then rewritten with only the elements that were added
+	 * after the compaction started.
+	 *
+	 * @throws IOException if the new file could not be installed
+	 */
+	private void install() throws IOException {
+		if (compaction == null || !compaction.isDone()) {
+			return;
+		}
+
+		if (compaction.isCompletedExceptionally()) {
+			compaction = null;
+			return;
+		}
+
+		int merged = compaction.join();
+
+		Files.move(sibling(file, ".compact"), file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		OffHeapStorage<E> mapped = map(file, sorted, serializer);
+		IndexedStorage<E> remaining = sorted ? new OrderStatisticTree<E>() : new OffHeapStorage<E>(serializer);
+
+		if (sorted) {
+			for (E element : delta) {
+				if (!mapped.contains(element)) {
+					remaining.add(element);
+				}
+			}
+		}
+		else {
+			for (int i = merged; i < delta.size(); i++) {
+				remaining.add(delta.get(i));
+			}
+		}
+
+		Path temp = sibling(file, ".log.tmp");
+
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (E element : remaining) {
+				record.clear();
+				serializer.write(element, record, 0);
+
+				while (record.hasRemaining()) {
+					channel.write(record);
+				}
+			}
+
+			channel.force(true);
+		}
+
+		log.close();
+		Files.move(temp, sibling(file, ".log"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		log = FileChannel.open(sibling(file, ".log"), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		log.position(log.size());
+
+		base = mapped;
+		delta = remaining;
+		compactAt = threshold;
+		compaction = null;
+	}
+
+	/**
+	 * Waits for a running compaction to finish, and closes the log. Elements
+	 * added since the last installed compaction stay in the log and are added
+	 * back when the file is reopened. Does nothing for a snapshot.
+	 *
+	 * @throws IOException if the log could not be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (compaction != null) {
+			compaction.handle((merged, failure) -> merged).join();
+		}
+
+		if (log != null) {
+			log.close();
+		}
+	}
+}
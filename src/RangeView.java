@@ -0,0 +1,207 @@
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.Spliterators;
+
+/**
+ * A range view of sorted indexed storage that is not a {@link SortedSet}
+ * itself, such as a sorted {@link PersistentStorage}. The view is backed by
+ * the storage, so it sees elements added later, but cannot be used to add
+ * elements. Its size and the indices of its first and last elements are
+ * computed from the ranks of its bounds with {@link IndexedStorage#rank(Object)},
+ * so it never iterates to find them.
+ *
+ * <p>
+ * Each iterator reads from a {@link IndexedStorage#snapshot()} taken when it
+ * is created, so it is not affected by elements added while iterating.
+ *
+ * @param <E> element type stored in the set
+ *
+ * @see IndexedSet#headSet(Object)
+ */
+public class RangeView<E> extends AbstractSet<E> implements SortedSet<E> {
+
+	/** The sorted storage to view. */
+	private final IndexedStorage<E> storage;
+
+	/** Whether the range has a lower bound. */
+	private final boolean hasLow;
+
+	/** The inclusive lower bound. */
+	private final E low;
+
+	/** Whether the range has an upper bound. */
+	private final boolean hasHigh;
+
+	/** The exclusive upper bound. */
+	private final E high;
+
+	/**
+	 * Initializes a view of all elements of sorted storage.
+	 *
+	 * @param storage the sorted storage to view
+	 * @throws UnsupportedOperationException if the storage is not sorted
+	 */
+	public RangeView(IndexedStorage<E> storage) {
+		this(storage, false, null, false, null);
+	}
+
+	/**
+	 * Initializes a range view.
+	 *
+	 * @param storage the sorted storage to view
+	 * @param hasLow whether the range has a lower bound
+	 * @param low the inclusive lower bound
+	 * @param hasHigh whether the range has an upper bound
+	 * @param high the exclusive upper bound
+	 * @throws UnsupportedOperationException if the storage is not sorted
+	 */
+	private RangeView(IndexedStorage<E> storage, boolean hasLow, E low, boolean hasHigh, E high) {
+		if (!storage.isSorted()) {
+			throw new UnsupportedOperationException("Range views require a sorted set.");
+		}
+
+		if (hasLow && hasHigh && compare(low, high) > 0) {
+			throw new IllegalArgumentException("Lower bound is greater than upper bound.");
+		}
+
+		// checks the bound types, just like a tree set would
+		if (hasLow) {
+			compare(low, low);
+		}
+
+		if (hasHigh) {
+			compare(high, high);
+		}
+
+		this.storage = storage;
+		this.hasLow = hasLow;
+		this.low = low;
+		this.hasHigh = hasHigh;
+		this.high = high;
+	}
+
+	/**
+	 * Compares two elements by their natural ordering.
+	 *
+	 * @param first first element
+	 * @param second second element
+	 * @return negative, zero, or positive if the first element is less than,
+	 *         equal to, or greater than the second element
+	 */
+	@SuppressWarnings("unchecked")
+	private static int compare(Object first, Object second) {
+		return ((Comparable<Object>) first).compareTo(second);
+	}
+
+	/**
+	 * Returns the index of the first element in range.
+	 *
+	 * @param current the storage or a snapshot of it
+	 * @return index of the first element in range
+	 */
+	private int from(IndexedStorage<E> current) {
+		return hasLow ? current.rank(low) : 0;
+	}
+
+	/**
+	 * Returns the index after the last element in range.
+	 *
+	 * @param current the storage or a snapshot of it
+	 * @return index after the last element in range
+	 */
+	private int to(IndexedStorage<E> current) {
+		return hasHigh ? current.rank(high) : current.size();
+	}
+
+	/**
+	 * Returns whether an element is within the bounds of this range.
+	 *
+	 * @param element the element to check
+	 * @return true if the element is within range
+	 */
+	private boolean inRange(Object element) {
+		return (!hasLow || compare(element, low) >= 0) && (!hasHigh || compare(element, high) < 0);
+	}
+
+	@Override
+	public int size() {
+		IndexedStorage<E> current = storage.snapshot();
+		return Math.max(0, to(current) - from(current));
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		return inRange(element) && storage.contains(element);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		IndexedStorage<E> current = storage.snapshot();
+		int from = from(current);
+		int to = Math.max(from, to(current));
+		return Spliterators.iterator(new IndexedSpliterator<>(current, from, to, IndexedSpliterator.characteristics(current)));
+	}
+
+	@Override
+	public Comparator<? super E> comparator() {
+		return null;
+	}
+
+	@Override
+	public E first() {
+		IndexedStorage<E> current = storage.snapshot();
+		int from = from(current);
+
+		if (from >= to(current)) {
+			throw new NoSuchElementException();
+		}
+
+		return current.get(from);
+	}
+
+	@Override
+	public E last() {
+		IndexedStorage<E> current = storage.snapshot();
+		int to = to(current);
+
+		if (from(current) >= to) {
+			throw new NoSuchElementException();
+		}
+
+		return current.get(to - 1);
+	}
+
+	@Override
+	public SortedSet<E> subSet(E fromElement, E toElement) {
+		check(fromElement);
+		check(toElement);
+		return new RangeView<>(storage, true, fromElement, true, toElement);
+	}
+
+	@Override
+	public SortedSet<E> headSet(E toElement) {
+		check(toElement);
+		return new RangeView<>(storage, hasLow, low, true, toElement);
+	}
+
+	@Override
+	public SortedSet<E> tailSet(E fromElement) {
+		check(fromElement);
+		return new RangeView<>(storage, true, fromElement, hasHigh, high);
+	}
+
+	/**
+	 * Makes sure a new bound is within the bounds of this range.
+	 *
+	 * @param bound the new bound
+	 * @throws IllegalArgumentException if the bound is out of range
+	 */
+	private void check(E bound) {
+		if ((hasLow && compare(bound, low) < 0) || (hasHigh && compare(bound, high) > 0)) {
+			throw new IllegalArgumentException("Bound is out of range.");
+		}
+	}
+}
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe indexed set that splits its elements across several shards by
+ * hash, each with its own lock, as an alternative to
+ * {@link ThreadSafeIndexedSet} for write-heavy workloads. Adds of elements in
+ * different shards do not block each other, so insert throughput scales with
+ * the number of cores instead of being serialized by a single write lock.
+ *
+ * <p>
+ * Each shard is a {@link ThreadSafeIndexedSet}, so {@link #contains(Object)}
+ * only touches the one shard that may hold the element. The size is kept in a
+ * separate striped counter, so {@link #size()} never locks. The iteration order
+ * is shard by shard, each in insertion order, so elements added later may be
+ * placed before earlier ones. To find an element by index, {@link #get(int)}
+ * briefly holds the read lock of every shard and skips whole shards by their
+ * sizes.
+ *
+ * <p>
+ * Since elements are placed by hash, the set cannot be kept sorted. Use
+ * {@link #sortedCopy()} for a sorted view instead.
+ *
+ * @param <E> element type
+ *
+ * @see ThreadSafeIndexedSet
+ * @see LockFreeIndexedSet
+ */
+public class ShardedIndexedSet<E> implements ConcurrentIndexedSet<E> {
+
+	/** The shards, each with its own lock. */
+	private final ThreadSafeIndexedSet<E>[] shards;
+
+	/** Mask used to pick a shard from a spread hash. */
+	private final int mask;
+
+	/** Number of elements in all shards. */
+	private final LongAdder count;
+
+	/**
+	 * Initializes a sharded set with four shards per available processor.
+	 *
+	 * @see #ShardedIndexedSet(int)
+	 */
+	public ShardedIndexedSet() {
+		this(Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	/**
+	 * Initializes a sharded set with at least the given number of shards. The
+	 * number is rounded up to a power of two.
+	 *
+	 * @param shards the minimum number of shards
+	 */
+	@SuppressWarnings("unchecked")
+	public ShardedIndexedSet(int shards) {
+		if (shards < 1 || shards > 1 << 16) {
+			throw new IllegalArgumentException("Number of shards must be between 1 and 65536.");
+		}
+
+		int size = Integer.highestOneBit(shards * 2 - 1);
+		this.shards = (ThreadSafeIndexedSet<E>[]) new ThreadSafeIndexedSet<?>[size];
+		this.mask = size - 1;
+		this.count = new LongAdder();
+
+		for (int i = 0; i < size; i++) {
+			this.shards[i] = new ThreadSafeIndexedSet<E>();
+		}
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return number of shards
+	 */
+	public int shards() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns the index of the shard that holds or would hold an element.
+	 *
+	 * @param element the element
+	 * @return the shard index for that element
+	 */
+	private int index(Object element) {
+		int hash = element.hashCode() * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Returns the shard that holds or would hold an element.
+	 *
+	 * @param element the element
+	 * @return the shard for that element
+	 */
+	private ThreadSafeIndexedSet<E> shard(Object element) {
+		return shards[index(element)];
+	}
+
+	@Override
+	public boolean add(E element) {
+		if (shard(element).add(element)) {
+			count.increment();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Adds the collection of elements to our set. The elements are grouped by
+	 * shard first, so each shard is only locked once.
+	 */
+	@Override
+	public boolean addAll(Collection<E> elements) {
+		List<List<E>> groups = new ArrayList<>(shards.length);
+
+		for (int i = 0; i < shards.length; i++) {
+			groups.add(new ArrayList<>());
+		}
+
+		for (E element : elements) {
+			groups.get(index(element)).add(element);
+		}
+
+		int added = 0;
+
+		for (int i = 0; i < shards.length; i++) {
+			if (!groups.get(i).isEmpty()) {
+				added += shards[i].addBatch(groups.get(i));
+			}
+		}
+
+		count.add(added);
+		return added > 0;
+	}
+
+	/**
+	 * Returns the number of elements in our set. Does not lock, but while other
+	 * threads are adding, may briefly not count elements that are already
+	 * visible to {@link #contains(Object)} and {@link #get(int)}.
+	 */
+	@Override
+	public int size() {
+		return (int) count.sum();
+	}
+
+	@Override
+	public boolean contains(E element) {
+		return shard(element).contains(element);
+	}
+
+	@Override
+	public E get(int index) {
+		if (index < 0) {
+			return null;
+		}
+
+		lockAll();
+
+		try {
+			for (ThreadSafeIndexedSet<E> shard : shards) {
+				int size = shard.size();
+
+				if (index < size) {
+					return shard.get(index);
+				}
+
+				index -= size;
+			}
+
+			return null;
+		}
+		finally {
+			unlockAll();
+		}
+	}
+
+	@Override
+	public Set<E> unsortedCopy() {
+		return new HashSet<E>(elements());
+	}
+
+	@Override
+	public SortedSet<E> sortedCopy() {
+		return new TreeSet<E>(elements());
+	}
+
+	@Override
+	public String toString() {
+		return elements().toString();
+	}
+
+	/**
+	 * Returns a consistent list of all elements in iteration order.
+	 *
+	 * @return list of all elements
+	 */
+	private List<E> elements() {
+		List<E> elements = new ArrayList<>(size());
+
+		lockAll();
+
+		try {
+			for (ThreadSafeIndexedSet<E> shard : shards) {
+				elements.addAll(shard.snapshot());
+			}
+		}
+		finally {
+			unlockAll();
+		}
+
+		return elements;
+	}
+
+	/**
+	 * Acquires the read lock of every shard, always in the same order.
+	 */
+	private void lockAll() {
+		for (ThreadSafeIndexedSet<E> shard : shards) {
+			shard.getLock().readLock().lock();
+		}
+	}
+
+	/**
+	 * Releases the read lock of every shard, in reverse order.
+	 */
+	private void unlockAll() {
+		for (int i = shards.length - 1; i >= 0; i--) {
+			shards[i].getLock().readLock().unlock();
+		}
+	}
+}
@@ -1,3 +1,4 @@
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 
 /**
@@ -16,6 +17,42 @@ public interface SimpleLock {
 	 */
 	public void lock();
 
+	/**
+	 * Acquires the lock unless the current thread is interrupted. If the lock is
+	 * not available then the current thread lies dormant until the lock has been
+	 * acquired or the thread is interrupted.
+	 *
+	 * @throws InterruptedException if the current thread is interrupted before or
+	 *   while waiting for the lock
+	 *
+	 * @see Lock#lockInterruptibly()
+	 */
+	public void lockInterruptibly() throws InterruptedException;
+
+	/**
+	 * Acquires the lock only if it is available at the time of invocation. Never
+	 * waits.
+	 *
+	 * @return true if the lock was acquired
+	 *
+	 * @see Lock#tryLock()
+	 */
+	public boolean tryLock();
+
+	/**
+	 * Acquires the lock if it becomes available within the given waiting time and
+	 * the current thread is not interrupted.
+	 *
+	 * @param time the maximum time to wait for the lock
+	 * @param unit the time unit of the time argument
+	 * @return true if the lock was acquired, or false if the waiting time elapsed
+	 * @throws InterruptedException if the current thread is interrupted before or
+	 *   while waiting for the lock
+	 *
+	 * @see Lock#tryLock(long, TimeUnit)
+	 */
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException;
+
 	/**
 	 * Releases the lock.
 	 */
@@ -1,11 +1,97 @@
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Maintains a pair of associated locks, one for read-only operations and one
  * for writing. The read lock may be held simultaneously by multiple reader
  * threads, so long as there are no writers. The write lock is exclusive.
  *
+ * <p>
+ * The order in which waiting readers and writers are let in is decided by the
+ * {@link Fairness} policy chosen when the lock is created.
+ *
+ * <p>
+ * While nobody is writing or waiting, readers only update an atomic count.
+ * Threads that cannot acquire a lock right away join a queue, and a thread that
+ * releases the lock grants it directly to the waiters that may now proceed: a
+ * single writer, or every reader that can enter at once. A waiting thread first
+ * spins briefly, then yields, and finally parks. The spin budget follows a
+ * moving average of recent write hold times, so waiters stop spinning on their
+ * own when writes are long.
+ *
+ * <p>
+ * The lock never blocks in {@code synchronized} or {@link Object#wait()}. Its
+ * state is protected by a short-lived internal lock, and all waiting is done
+ * with {@link LockSupport#park}, so virtual threads that wait for this lock
+ * unmount from their carrier threads instead of pinning them.
+ *
+ * <p>
+ * The lock may optionally use striped reader counters. In that mode, readers
+ * normally register in one of several padded counters chosen by thread instead
+ * of the shared count of readers, so that uncontended readers on
+ * different cores do not write to the same cache line. An arriving writer
+ * revokes this read bias and waits for the striped counters to drain. The bias
+ * is restored once enough time has passed relative to the cost of the last
+ * revocation, which keeps write-heavy workloads from paying that cost often.
+ *
+ * <p>
+ * The lock also supports optimistic reads, similar to
+ * {@link java.util.concurrent.locks.StampedLock}. A reader gets a stamp from
+ * {@link #tryOptimisticRead()}, reads the shared data without acquiring any
+ * lock, and then calls {@link #validate(long)} to check whether a writer
+ * acquired the lock in the meantime. Since a writer may be modifying the data
+ * during an optimistic read, the reader must be prepared to see inconsistent
+ * values (or even exceptions) and must discard anything it read if validation
+ * fails.
+ *
+ * <p>
+ * All locks are reentrant. A thread holding the write lock may acquire the
+ * read lock and then release the write lock, which atomically downgrades it.
+ * Since two readers upgrading at once would deadlock, a read lock may not be
+ * upgraded. Instead, a thread that may need to write holds the
+ * {@link #upgradableLock()}, which excludes writers and other upgraders but not
+ * readers, and acquires the write lock once it decides to write.
+ *
+ * <p>
+ * The locks may also be acquired without waiting, with a timeout, or
+ * interruptibly. A thread that gives up waiting withdraws from the lock state
+ * and wakes any threads it was holding back, so it never causes a lost wakeup.
+ *
+ * <p>
+ * For code that must never block, such as an event loop, the read and write
+ * locks can also be acquired asynchronously with {@link #readLockAsync(Executor)}
+ * and {@link #writeLockAsync(Executor)}. These queue like any other waiter, but
+ * without a thread, and complete a future with a {@link LockHandle} once the
+ * lock is granted. The handle holds the lock instead of a thread, so it may be
+ * released from wherever the work continues.
+ *
+ * <p>
+ * Finally, the lock can collect statistics about acquisitions, contention, wait
+ * times, and hold times. Instrumentation is off by default and can be turned on
+ * and off at any time. While off, it costs a single volatile read per
+ * acquisition. The statistics are available through {@link #getStatistics()}
+ * and, once registered, through JMX.
+ *
  * @see SimpleLock
  *
  * @see Lock
@@ -13,31 +99,257 @@ import java.util.concurrent.locks.ReadWriteLock;
  */
 public class SimpleReadWriteLock {
 
+	/**
+	 * Policies for deciding whether waiting readers or waiting writers acquire the
+	 * lock first.
+	 */
+	public static enum Fairness {
+
+		/**
+		 * Readers may acquire the lock whenever no writer is active, even if writers
+		 * are waiting. Gives the best read throughput, but a constant stream of
+		 * readers may starve writers forever. This is the default policy.
+		 */
+		READER_PREFERRING,
+
+		/**
+		 * Readers may not acquire the lock while any writer is active or waiting. A
+		 * writer waits at most for the readers already holding the lock, but a
+		 * constant stream of writers may starve readers.
+		 */
+		WRITER_PREFERRING,
+
+		/**
+		 * Writers acquire the lock in first-in first-out order, and read and write
+		 * phases alternate. A reader that arrives while a writer is active or waiting
+		 * waits for at most one write phase. A writer waits for at most the writers
+		 * ahead of it, each followed by at most one read phase. Neither side can be
+		 * starved.
+		 */
+		PHASE_FAIR
+	}
+
 	/** The lock used for reading. */
 	private final SimpleLock readerLock;
 
 	/** The lock used for writing. */
 	private final SimpleLock writerLock;
 
-	/** The number of active readers. */
-	private int readers;
+	/** The policy used to order waiting readers and writers. */
+	private final Fairness fairness;
+
+	/**
+	 * Protects changes to the lock state. Only held briefly and never while
+	 * waiting, and a thread waiting for it parks rather than blocking on an object
+	 * monitor, so virtual threads never pin their carrier on it.
+	 */
+	private final ReentrantLock guard;
+
+	/**
+	 * The number of active readers in the low bits, plus the {@link #SLOW} flag.
+	 * Updated atomically, so that readers can come and go without entering the
+	 * guard while nobody is writing or waiting.
+	 */
+	private final AtomicInteger state;
+
+	/** Set in the state while a writer is active or any thread is queued. */
+	private static final int SLOW = 1 << 30;
+
+	/** Mask of the number of active readers in the state. */
+	private static final int READERS = SLOW - 1;
 
 	/** The number of active writers; */
 	private int writers;
 
-	// TODO Add additional members if you want.
+	/** The number of writers waiting to acquire the lock. */
+	private int waitingWriters;
+
+	/** The number of readers waiting for the current write phase to end. */
+	private int waitingReaders;
+
+	/** The number of completed write phases. */
+	private long writePhases;
+
+	/** The ticket handed to the next writer that arrives. */
+	private long nextTicket;
+
+	/** The ticket of the writer allowed to go next. */
+	private long servingTicket;
+
+	/** Tickets of writers that gave up waiting before their turn. */
+	private final Set<Long> abandonedTickets;
+
+	/**
+	 * The thread or {@link LockHandle} holding the write lock, or null if not
+	 * write locked.
+	 */
+	private Object owner;
+
+	/** The number of times the owner has acquired the write lock. */
+	private int writeHolds;
+
+	/** Whether the owner waited for its ticket, rather than upgrading. */
+	private boolean ticketed;
+
+	/** The thread holding the upgradable lock, or null if not held. */
+	private Thread upgrader;
+
+	/** The number of times the upgrader has acquired the upgradable lock. */
+	private int upgradeHolds;
+
+	/** The first thread waiting to acquire a lock, or null if none. */
+	private Waiter head;
+
+	/** The last thread waiting to acquire a lock, or null if none. */
+	private Waiter tail;
+
+	/** Whether spinning may help, since the lock holder can run at the same time. */
+	private static final boolean MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+
+	/** The longest write hold time in nanoseconds for which waiters still spin. */
+	private static final long MAX_SPIN = 20000;
+
+	/** The number of times a waiter yields after spinning and before parking. */
+	private static final int YIELDS = 2;
+
+	/** Moving average of recent write hold times in nanoseconds, used to tune spinning. */
+	private volatile long holdEstimate;
+
+	/** When the current writer acquired the write lock. */
+	private long writeAcquired;
+
+	/** The lock used for reading with the option to upgrade. */
+	private final SimpleLock upgradableLock;
+
+	/** Index of the read holds registered in the shared count of readers. */
+	private static final int SHARED = 0;
+
+	/** Index of the read holds registered in a striped counter. */
+	private static final int STRIPED = 1;
+
+	/** The number of read holds of each thread, by where they are registered. */
+	private final ThreadLocal<int[]> readHolds;
+
+	/**
+	 * The write version, used for optimistic reads. Odd while the write lock is
+	 * held and even otherwise. Starts at two so that zero is never a valid stamp.
+	 */
+	private volatile long version;
+
+	/** Records statistics while instrumentation is on. */
+	private final LockMetrics metrics;
+
+	/** Whether statistics are currently being collected. */
+	private volatile boolean instrumented;
+
+	/** Number of array elements per stripe, padding each counter to 64 bytes. */
+	private static final int PADDING = 16;
+
+	/** How many revocation times to wait before restoring the read bias. */
+	private static final int INHIBIT_MULTIPLIER = 9;
+
+	/** Striped reader counters, or null if striping is disabled. */
+	private final AtomicIntegerArray stripes;
+
+	/** Mask used to pick a stripe from a thread hash. */
+	private final int stripeMask;
+
+	/** Whether readers may currently use the striped counters. */
+	private volatile boolean readBias;
+
+	/** The time before which the read bias may not be restored. */
+	private volatile long inhibitUntil;
+
+	/**
+	 * Completes an asynchronous writer once the striped readers have left, or
+	 * holds null if no such writer is waiting for them. Null if striping is
+	 * disabled.
+	 */
+	private final AtomicReference<Runnable> drainedWriter;
 
 	/**
-	 * Initializes a new simple read/write lock.
+	 * Initializes a new simple read/write lock that prefers readers.
+	 *
+	 * @see #SimpleReadWriteLock(Fairness)
 	 */
 	public SimpleReadWriteLock() {
+		this(Fairness.READER_PREFERRING);
+	}
+
+	/**
+	 * Initializes a new simple read/write lock with the provided fairness policy.
+	 *
+	 * @param fairness the policy used to order waiting readers and writers
+	 *
+	 * @see #SimpleReadWriteLock(Fairness, boolean)
+	 */
+	public SimpleReadWriteLock(Fairness fairness) {
+		this(fairness, false);
+	}
+
+	/**
+	 * Initializes a new simple read/write lock with the provided fairness policy,
+	 * optionally using striped reader counters.
+	 *
+	 * @param fairness the policy used to order waiting readers and writers
+	 * @param striped if true, readers register in striped counters instead of a
+	 *   single shared count
+	 */
+	public SimpleReadWriteLock(Fairness fairness, boolean striped) {
+		if (fairness == null) {
+			throw new NullPointerException("Fairness policy must not be null.");
+		}
+
 		readerLock = new ReadLock();
 		writerLock = new WriteLock();
 
-		readers = 0;
+		this.fairness = fairness;
+		this.guard = new ReentrantLock();
+
+		state = new AtomicInteger();
 		writers = 0;
 
-		// TODO Perform additional initialization if needed.
+		waitingWriters = 0;
+		waitingReaders = 0;
+		writePhases = 0;
+
+		nextTicket = 0;
+		servingTicket = 0;
+		abandonedTickets = new HashSet<>();
+
+		owner = null;
+		writeHolds = 0;
+		ticketed = false;
+		upgrader = null;
+		upgradeHolds = 0;
+		upgradableLock = new UpgradableLock();
+		readHolds = ThreadLocal.withInitial(() -> new int[2]);
+
+		head = null;
+		tail = null;
+		holdEstimate = 1000;
+		writeAcquired = 0;
+
+		version = 2;
+
+		metrics = new LockMetrics();
+		instrumented = false;
+
+		if (striped) {
+			int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1);
+			stripes = new AtomicIntegerArray(count * PADDING);
+			stripeMask = count - 1;
+			readBias = true;
+			drainedWriter = new AtomicReference<>();
+		}
+		else {
+			stripes = null;
+			stripeMask = 0;
+			readBias = false;
+			drainedWriter = null;
+		}
+
+		inhibitUntil = System.nanoTime();
 	}
 
 	/**
@@ -59,55 +371,1677 @@ public class SimpleReadWriteLock {
 	}
 
 	/**
-	 * Used to maintain simultaneous read operations.
+	 * Returns the upgradable lock. While holding it, a thread may read alongside
+	 * other readers and then acquire the write lock without releasing it first,
+	 * which lets a check-then-act sequence run without another writer in between.
+	 * Only one thread may hold the upgradable lock at a time.
+	 *
+	 * @return the upgradable lock
 	 */
-	private class ReadLock implements SimpleLock {
+	public SimpleLock upgradableLock() {
+		return upgradableLock;
+	}
 
-		/**
-		 * Will wait until there are no active writers in the system, and then will
-		 * increase the number of active readers.
-		 */
-		@Override
-		public void lock() {
-			// TODO Fill this in!
-			throw new UnsupportedOperationException("Not yet implemented.");
+	/**
+	 * Returns the fairness policy of this lock.
+	 *
+	 * @return the fairness policy
+	 */
+	public Fairness getFairness() {
+		return fairness;
+	}
+
+	/**
+	 * Acquires the read lock without blocking the calling thread. Returns a
+	 * future that is completed with a handle holding the read lock, by a task
+	 * submitted to the given executor once the lock is granted. Until then, the
+	 * request waits in the queue without holding any thread, and follows the same
+	 * fairness policy as readers calling {@link SimpleLock#lock()}.
+	 *
+	 * <p>
+	 * Cancelling the future withdraws the request. If the lock was already
+	 * granted, it is released again. Asynchronous acquisitions are not reentrant
+	 * and are not included in the statistics.
+	 *
+	 * @param executor the executor used to complete the future
+	 * @return future completed with a handle holding the read lock
+	 *
+	 * @see LockHandle
+	 */
+	public CompletableFuture<LockHandle> readLockAsync(Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException("Executor must not be null.");
 		}
 
-		/**
-		 * Will decrease the number of active readers, and notify any waiting threads if
-		 * necessary.
-		 */
-		@Override
-		public void unlock() {
-			// TODO Fill this in!
-			throw new UnsupportedOperationException("Not yet implemented.");
+		CompletableFuture<LockHandle> future = new CompletableFuture<>();
+		Handle handle = new Handle(false);
+
+		for (int current = state.get(); (current & SLOW) == 0; current = state.get()) {
+			if (state.compareAndSet(current, current + 1)) {
+				complete(handle, future, executor);
+				return future;
+			}
+		}
+
+		Waiter waiter = null;
+		guard.lock();
+
+		try {
+			if (writers == 0 && (fairness == Fairness.READER_PREFERRING || waitingWriters == 0)) {
+				takeRead();
+				complete(handle, future, executor);
+			}
+			else {
+				waiter = new Waiter(Mode.READ, -1, writePhases, handle, future, executor);
+				enqueue(waiter);
+			}
+		}
+		finally {
+			guard.unlock();
 		}
 
+		withdrawOnCancel(waiter);
+		return future;
 	}
 
 	/**
-	 * Used to maintain exclusive write operations.
+	 * Acquires the write lock without blocking the calling thread. Returns a
+	 * future that is completed with a handle holding the write lock, by a task
+	 * submitted to the given executor once the lock is granted. Until then, the
+	 * request waits in the queue without holding any thread, and follows the same
+	 * fairness policy as writers calling {@link SimpleLock#lock()}. If striped
+	 * reader counters are used, that task is only submitted once the striped
+	 * readers have left, by whichever thread releases the last of them, so the
+	 * executor never waits for them.
+	 *
+	 * <p>
+	 * Cancelling the future withdraws the request. If the lock was already
+	 * granted, it is released again. Asynchronous acquisitions are not reentrant
+	 * and are not included in the statistics.
+	 *
+	 * @param executor the executor used to complete the future
+	 * @return future completed with a handle holding the write lock
+	 *
+	 * @see LockHandle
 	 */
-	private class WriteLock implements SimpleLock {
+	public CompletableFuture<LockHandle> writeLockAsync(Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException("Executor must not be null.");
+		}
 
-		/**
-		 * Will wait until there are no active readers or writers in the system, and
-		 * then will increase the number of active writers.
-		 */
-		@Override
-		public void lock() {
-			// TODO Fill this in!
-			throw new UnsupportedOperationException("Not yet implemented.");
+		CompletableFuture<LockHandle> future = new CompletableFuture<>();
+		Handle handle = new Handle(true);
+		Waiter waiter = null;
+		guard.lock();
+
+		try {
+			long ticket = nextTicket++;
+
+			if (readBias) {
+				readBias = false;
+			}
+
+			state.getAndUpdate(value -> value | SLOW);
+
+			if (canWrite(false, ticket)) {
+				takeWrite(handle, false);
+				complete(handle, future, executor);
+			}
+			else {
+				waiter = new Waiter(Mode.WRITE, ticket, writePhases, handle, future, executor);
+				enqueue(waiter);
+			}
+		}
+		finally {
+			guard.unlock();
 		}
 
-		/**
-		 * Will decrease the number of active writers, and notify any waiting threads if
-		 * necessary.
-		 */
-		@Override
-		public void unlock() {
-			// TODO Fill this in!
-			throw new UnsupportedOperationException("Not yet implemented.");
+		withdrawOnCancel(waiter);
+		return future;
+	}
+
+	/**
+	 * Returns a stamp for an optimistic read, or zero if the write lock is held.
+	 * Does not block or acquire any lock.
+	 *
+	 * @return a stamp to pass to {@link #validate(long)}, or zero if the write lock
+	 *   is held
+	 *
+	 * @see #validate(long)
+	 */
+	public long tryOptimisticRead() {
+		long stamp = version;
+		return (stamp & 1) == 0 ? stamp : 0;
+	}
+
+	/**
+	 * Returns whether the write lock has not been acquired since the stamp was
+	 * returned by {@link #tryOptimisticRead()}. Always false for a zero stamp.
+	 *
+	 * @param stamp the stamp returned by {@link #tryOptimisticRead()}
+	 * @return true if no writer has acquired the lock since the stamp was issued
+	 */
+	public boolean validate(long stamp) {
+		// keeps the optimistic reads from being reordered after the version check
+		VarHandle.acquireFence();
+		return stamp != 0 && stamp == version;
+	}
+
+	/**
+	 * Turns statistics collection on or off.
+	 *
+	 * @param instrumented whether to collect statistics
+	 *
+	 * @see #getStatistics()
+	 */
+	public void setInstrumented(boolean instrumented) {
+		this.instrumented = instrumented;
+	}
+
+	/**
+	 * Returns whether statistics are currently being collected.
+	 *
+	 * @return true if instrumented
+	 */
+	public boolean isInstrumented() {
+		return instrumented;
+	}
+
+	/**
+	 * Returns a snapshot of the statistics collected while instrumentation was
+	 * turned on.
+	 *
+	 * @return statistics snapshot
+	 *
+	 * @see #setInstrumented(boolean)
+	 */
+	public LockStatistics getStatistics() {
+		guard.lock();
+
+		try {
+			return metrics.snapshot(readers() + stripedReaders(), waitingWriters);
+		}
+		finally {
+			guard.unlock();
+		}
+	}
+
+	/**
+	 * Registers this lock with the platform MBean server, so its statistics can be
+	 * read through JMX. Does not turn on instrumentation.
+	 *
+	 * @param name the value of the name key in the object name
+	 * @return the object name this lock was registered under
+	 * @throws JMException if the lock could not be registered
+	 *
+	 * @see SimpleReadWriteLockMXBean
+	 */
+	public ObjectName registerMBean(String name) throws JMException {
+		ObjectName objectName = new ObjectName(SimpleReadWriteLock.class.getSimpleName(), "name", ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new Management(), objectName);
+		return objectName;
+	}
+
+	/**
+	 * Returns whether this lock uses striped reader counters.
+	 *
+	 * @return true if reader counters are striped
+	 */
+	public boolean isStriped() {
+		return stripes != null;
+	}
+
+	/**
+	 * Returns the index of the striped counter used by the current thread.
+	 *
+	 * @return index into {@link #stripes}
+	 */
+	private int stripe() {
+		long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return ((int) (hash >>> 32) & stripeMask) * PADDING;
+	}
+
+	/**
+	 * Waits for readers registered in the striped counters to leave, and then
+	 * inhibits the read bias for a multiple of the time that took. Called by a
+	 * writer after acquiring the lock, outside of the guard.
+	 *
+	 * @param attempt the acquisition attempt of the writer
+	 * @return false if the attempt timed out before the readers left
+	 * @throws InterruptedException if the attempt was interrupted before the
+	 *   readers left
+	 */
+	private boolean drainStripes(Acquisition attempt) throws InterruptedException {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < stripes.length(); i += PADDING) {
+			while (stripes.get(i) != 0) {
+				if (attempt.timed && System.nanoTime() - attempt.deadline >= 0) {
+					return false;
+				}
+
+				if (attempt.interruptible && Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+
+				Thread.yield();
+			}
+		}
+
+		inhibit(start);
+		return true;
+	}
+
+	/**
+	 * Inhibits the read bias for a multiple of the time the striped readers took
+	 * to leave.
+	 *
+	 * @param start the time the writer started waiting for the striped readers
+	 */
+	private void inhibit(long start) {
+		long now = System.nanoTime();
+
+		guard.lock();
+
+		try {
+			inhibitUntil = now + (now - start) * INHIBIT_MULTIPLIER;
+		}
+		finally {
+			guard.unlock();
+		}
+	}
+
+	/**
+	 * Runs the completion of an asynchronous writer if one is waiting and the
+	 * striped readers have left. Called by the writer once granted, and by every
+	 * striped reader that leaves while the writer waits, so whichever comes last
+	 * runs it. Never waits. Since the read bias is revoked, readers without a
+	 * striped hold cannot register again until the writer releases the lock.
+	 */
+	private void drained() {
+		if (drainedWriter.get() == null) {
+			return;
+		}
+
+		for (int i = 0; i < stripes.length(); i += PADDING) {
+			if (stripes.get(i) != 0) {
+				return;
+			}
+		}
+
+		Runnable completion = drainedWriter.getAndSet(null);
+
+		if (completion != null) {
+			completion.run();
+		}
+	}
+
+	/**
+	 * Returns the number of active readers, not counting readers registered in
+	 * the striped counters.
+	 *
+	 * @return number of active readers
+	 */
+	private int readers() {
+		return state.get() & READERS;
+	}
+
+	/**
+	 * Returns the number of readers registered in the striped counters, or zero if
+	 * striping is disabled. Reads each counter once without the guard, so the sum
+	 * may be slightly off while readers arrive or leave. Only used for statistics.
+	 *
+	 * @return number of striped readers
+	 */
+	private int stripedReaders() {
+		if (stripes == null) {
+			return 0;
+		}
+
+		int count = 0;
+
+		for (int i = 0; i < stripes.length(); i += PADDING) {
+			count += stripes.get(i);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Sets the slow flag while a writer is active or any thread is queued, and
+	 * clears it otherwise. While it is set, arriving readers take the guard.
+	 * Must be called while holding the guard after changing either.
+	 */
+	private void updateSlow() {
+		boolean slow = writers > 0 || head != null;
+		int current = state.get();
+
+		// readers may change the count at the same time, so retry until the flag matches
+		while (((current & SLOW) != 0) != slow && !state.compareAndSet(current, current ^ SLOW)) {
+			current = state.get();
+		}
+	}
+
+	/**
+	 * Restores the read bias if no writer is active or waiting and the inhibition
+	 * period has passed. Must be called while holding the guard.
+	 */
+	private void restoreBias() {
+		if (writers == 0 && waitingWriters == 0 && !readBias && System.nanoTime() - inhibitUntil >= 0) {
+			readBias = true;
+		}
+	}
+
+	/**
+	 * Moves on to the next writer ticket, skipping tickets abandoned by writers
+	 * that gave up waiting. Must be called while holding the guard.
+	 */
+	private void advanceTicket() {
+		servingTicket++;
+
+		// checking for emptiness first avoids boxing the ticket on every release
+		while (!abandonedTickets.isEmpty() && abandonedTickets.remove(servingTicket)) {
+			servingTicket++;
+		}
+	}
+
+	/**
+	 * Undoes the bookkeeping of a writer that gave up waiting, because it timed
+	 * out or was interrupted. Must be called while holding the guard, after the
+	 * writer is no longer counted as waiting.
+	 *
+	 * @param ticket the ticket of the writer, or -1 for an upgrade
+	 */
+	private void abandonTicket(long ticket) {
+		if (fairness == Fairness.PHASE_FAIR) {
+			if (ticket == servingTicket) {
+				advanceTicket();
+			}
+			else if (ticket >= 0) {
+				abandonedTickets.add(ticket);
+			}
+
+			if (writers == 0 && waitingWriters == 0) {
+				// readers were waiting for a write phase that will no longer happen
+				writePhases++;
+			}
+		}
+	}
+
+	/**
+	 * The kinds of locks a thread may wait for.
+	 */
+	private static enum Mode {
+
+		/** Waiting for the read lock. */
+		READ,
+
+		/** Waiting for the write lock, possibly as an upgrade. */
+		WRITE,
+
+		/** Waiting for the upgradable lock. */
+		UPGRADABLE
+	}
+
+	/**
+	 * A thread waiting in the queue. Threads that release the lock grant it to
+	 * waiting threads directly, by updating the lock state on their behalf and
+	 * then setting the granted flag, so a granted thread does not need to take
+	 * the guard again.
+	 */
+	private static class Waiter {
+
+		/** The waiting thread. */
+		private final Thread thread;
+
+		/** The kind of lock the thread is waiting for. */
+		private final Mode mode;
+
+		/** Whether a writer is upgrading from the upgradable lock. */
+		private final boolean upgrade;
+
+		/** The ticket of a writer, or -1 if not used. */
+		private final long ticket;
+
+		/** The write phase a phase-fair reader is waiting to end. */
+		private final long phase;
+
+		/** Whether an upgradable waiter lets waiting writers go first. */
+		private final boolean polite;
+
+		/** The handle of an asynchronous request, or null for a thread. */
+		private final Handle handle;
+
+		/** The future of an asynchronous request, or null for a thread. */
+		private final CompletableFuture<LockHandle> future;
+
+		/** The executor that completes the future of an asynchronous request. */
+		private final Executor executor;
+
+		/** Whether the lock has been granted to the thread. */
+		private volatile boolean granted;
+
+		/** The previous waiter in the queue. */
+		private Waiter prev;
+
+		/** The next waiter in the queue. */
+		private Waiter next;
+
+		/**
+		 * Initializes a waiter for the current thread.
+		 *
+		 * @param mode the kind of lock to wait for
+		 * @param upgrade whether a writer is upgrading
+		 * @param ticket the ticket of a writer, or -1 if not used
+		 * @param phase the write phase a phase-fair reader is waiting to end
+		 * @param polite whether an upgradable waiter lets waiting writers go first
+		 */
+		Waiter(Mode mode, boolean upgrade, long ticket, long phase, boolean polite) {
+			this.thread = Thread.currentThread();
+			this.mode = mode;
+			this.upgrade = upgrade;
+			this.ticket = ticket;
+			this.phase = phase;
+			this.polite = polite;
+			this.handle = null;
+			this.future = null;
+			this.executor = null;
+			this.granted = false;
+		}
+
+		/**
+		 * Initializes a waiter for an asynchronous request, which has no thread.
+		 *
+		 * @param mode the kind of lock to wait for
+		 * @param ticket the ticket of a writer, or -1 if not used
+		 * @param phase the write phase a phase-fair reader is waiting to end
+		 * @param handle the handle that will hold the lock
+		 * @param future the future to complete with the handle
+		 * @param executor the executor that completes the future
+		 */
+		Waiter(Mode mode, long ticket, long phase, Handle handle, CompletableFuture<LockHandle> future, Executor executor) {
+			this.thread = null;
+			this.mode = mode;
+			this.upgrade = false;
+			this.ticket = ticket;
+			this.phase = phase;
+			this.polite = false;
+			this.handle = handle;
+			this.future = future;
+			this.executor = executor;
+			this.granted = false;
+		}
+	}
+
+	/**
+	 * Returns whether a queued waiter could acquire its lock right now. Must be
+	 * called while holding the guard.
+	 *
+	 * @param waiter the waiter
+	 * @return true if the lock may be granted to the waiter
+	 */
+	private boolean ready(Waiter waiter) {
+		switch (waiter.mode) {
+			case READ:
+				switch (fairness) {
+					case READER_PREFERRING:
+						return writers == 0;
+
+					case WRITER_PREFERRING:
+						return writers == 0 && waitingWriters == 0;
+
+					default:
+						return writers == 0 && writePhases != waiter.phase;
+				}
+
+			case WRITE:
+				return canWrite(waiter.upgrade, waiter.ticket);
+
+			default:
+				return canUpgrade(waiter.polite);
+		}
+	}
+
+	/**
+	 * Returns whether a writer could acquire the write lock right now. Must be
+	 * called while holding the guard.
+	 *
+	 * @param upgrade whether the writer holds the upgradable lock
+	 * @param ticket the ticket of the writer
+	 * @return true if the write lock may be acquired
+	 */
+	private boolean canWrite(boolean upgrade, long ticket) {
+		if (upgrade) {
+			return readers() == 0;
+		}
+
+		boolean turn = fairness != Fairness.PHASE_FAIR || ticket == servingTicket;
+		return readers() == 0 && writers == 0 && upgrader == null && turn;
+	}
+
+	/**
+	 * Returns whether a thread could acquire the upgradable lock right now. Must be
+	 * called while holding the guard.
+	 *
+	 * @param polite whether to let waiting writers go first
+	 * @return true if the upgradable lock may be acquired
+	 */
+	private boolean canUpgrade(boolean polite) {
+		return writers == 0 && upgrader == null && !(polite && waitingWriters > 0);
+	}
+
+	/**
+	 * Adds a waiter to the end of the queue. Must be called while holding the
+	 * guard.
+	 *
+	 * @param waiter the waiter to add
+	 */
+	private void enqueue(Waiter waiter) {
+		waiter.prev = tail;
+
+		if (tail == null) {
+			head = waiter;
+		}
+		else {
+			tail.next = waiter;
+		}
+
+		tail = waiter;
+
+		if (waiter.mode == Mode.WRITE) {
+			waitingWriters++;
+		}
+		else if (waiter.mode == Mode.READ && fairness == Fairness.PHASE_FAIR) {
+			waitingReaders++;
+		}
+
+		updateSlow();
+	}
+
+	/**
+	 * Removes a waiter from the queue. Must be called while holding the guard.
+	 *
+	 * @param waiter the waiter to remove
+	 */
+	private void dequeue(Waiter waiter) {
+		if (waiter.prev == null) {
+			head = waiter.next;
+		}
+		else {
+			waiter.prev.next = waiter.next;
+		}
+
+		if (waiter.next == null) {
+			tail = waiter.prev;
+		}
+		else {
+			waiter.next.prev = waiter.prev;
+		}
+
+		waiter.prev = null;
+		waiter.next = null;
+
+		if (waiter.mode == Mode.WRITE) {
+			waitingWriters--;
+		}
+		else if (waiter.mode == Mode.READ && fairness == Fairness.PHASE_FAIR) {
+			waitingReaders--;
+		}
+	}
+
+	/**
+	 * Grants the lock to every queued waiter that can acquire it, in queue order,
+	 * and wakes only those waiters. Since granting a writer makes every other
+	 * waiter wait, at most one writer is woken, while readers are woken as a
+	 * batch. Under the reader-preferring and phase-fair policies, readers are
+	 * granted before anyone else, so readers released by the end of a write phase
+	 * go before the next writer. Must be called while holding the guard after
+	 * any change that may let a waiter in.
+	 */
+	private void grant() {
+		if (head != null) {
+			if (fairness != Fairness.WRITER_PREFERRING) {
+				grant(true);
+			}
+
+			grant(false);
+		}
+
+		updateSlow();
+	}
+
+	/**
+	 * Grants the lock to every queued waiter that can acquire it, in queue order.
+	 * Must be called while holding the guard.
+	 *
+	 * @param readersOnly whether to only grant the read lock
+	 */
+	private void grant(boolean readersOnly) {
+		Waiter waiter = head;
+
+		while (waiter != null) {
+			Waiter next = waiter.next;
+
+			if ((!readersOnly || waiter.mode == Mode.READ) && ready(waiter)) {
+				dequeue(waiter);
+
+				switch (waiter.mode) {
+					case READ:
+						takeRead();
+						break;
+
+					case WRITE:
+						takeWrite(waiter.handle != null ? waiter.handle : waiter.thread, waiter.upgrade);
+						break;
+
+					case UPGRADABLE:
+						takeUpgradable(waiter.thread);
+						break;
+				}
+
+				waiter.granted = true;
+
+				if (waiter.future != null) {
+					complete(waiter.handle, waiter.future, waiter.executor);
+				}
+				else {
+					LockSupport.unpark(waiter.thread);
+				}
+			}
+
+			waiter = next;
+		}
+	}
+
+	/**
+	 * Updates the lock state for a new reader. Must be called while holding the
+	 * guard.
+	 */
+	private void takeRead() {
+		int count = state.incrementAndGet() & READERS;
+
+		if (instrumented) {
+			metrics.readersChanged(count + stripedReaders());
+		}
+
+		if (stripes != null) {
+			restoreBias();
+		}
+	}
+
+	/**
+	 * Updates the lock state for a new writer. Must be called while holding the
+	 * guard.
+	 *
+	 * @param holder the thread or handle that becomes the owner of the write lock
+	 * @param upgrade whether the writer upgraded from the upgradable lock
+	 */
+	private void takeWrite(Object holder, boolean upgrade) {
+		writers++;
+		owner = holder;
+		writeHolds = 1;
+		ticketed = !upgrade;
+		writeAcquired = System.nanoTime();
+		updateSlow();
+
+		// makes the odd version visible before any writes the new owner makes
+		version++;
+		VarHandle.storeStoreFence();
+	}
+
+	/**
+	 * Updates the lock state for a new upgrader. Must be called while holding the
+	 * guard.
+	 *
+	 * @param thread the new holder of the upgradable lock
+	 */
+	private void takeUpgradable(Thread thread) {
+		upgrader = thread;
+		upgradeHolds = 1;
+	}
+
+	/**
+	 * Removes a reader from the count, and grants the lock to any waiting threads
+	 * if it was the last one. Must be called without holding the guard.
+	 */
+	private void releaseRead() {
+		int previous = state.getAndDecrement();
+
+		// the last reader lets in whoever is waiting, such as a writer
+		if ((previous & SLOW) != 0 && (previous & READERS) == 1) {
+			guard.lock();
+
+			try {
+				grant();
+			}
+			finally {
+				guard.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Updates the lock state for a writer that releases the write lock for the
+	 * last time, and grants the lock to any waiting threads. Must be called while
+	 * holding the guard.
+	 */
+	private void releaseWrite() {
+		long held = System.nanoTime() - writeAcquired;
+		holdEstimate += (held - holdEstimate) >> 3;
+
+		version++;
+		writers--;
+		owner = null;
+		writePhases++;
+
+		if (ticketed) {
+			advanceTicket();
+		}
+
+		grant();
+	}
+
+	/**
+	 * Returns how long a waiting thread should spin before yielding and parking.
+	 * Spinning only pays off if the lock is likely to be released before a park
+	 * and unpark would complete, so the budget is a small multiple of the recent
+	 * write hold times, and zero if they are long or there is only one processor.
+	 *
+	 * @return the spin budget in nanoseconds
+	 */
+	private long spinBudget() {
+		long estimate = holdEstimate;
+		return MULTIPROCESSOR && estimate <= MAX_SPIN ? estimate * 2 : 0;
+	}
+
+	/**
+	 * Waits until the lock is granted to a queued waiter, the attempt times out,
+	 * or (if interruptible) the thread is interrupted. Spins for a while first,
+	 * then yields, and finally parks. Must be called without holding the guard.
+	 *
+	 * @param waiter the queued waiter of the current thread
+	 * @param attempt the acquisition attempt
+	 * @return true if the lock was granted, or false if the attempt timed out
+	 * @throws InterruptedException if the attempt was interrupted
+	 */
+	private boolean await(Waiter waiter, Acquisition attempt) throws InterruptedException {
+		attempt.contended = true;
+
+		if (attempt.timed && attempt.deadline - System.nanoTime() <= 0) {
+			return cancel(waiter);
+		}
+
+		long budget = spinBudget();
+
+		if (budget > 0) {
+			long start = System.nanoTime();
+
+			while (!waiter.granted && System.nanoTime() - start < budget) {
+				Thread.onSpinWait();
+			}
+		}
+
+		for (int i = 0; i < YIELDS && !waiter.granted; i++) {
+			Thread.yield();
+		}
+
+		while (!waiter.granted) {
+			if (attempt.timed) {
+				long remaining = attempt.deadline - System.nanoTime();
+
+				if (remaining <= 0) {
+					return cancel(waiter);
+				}
+
+				LockSupport.parkNanos(this, remaining);
+			}
+			else {
+				LockSupport.park(this);
+			}
+
+			if (Thread.interrupted()) {
+				if (!attempt.interruptible) {
+					attempt.interrupted = true;
+				}
+				else if (cancel(waiter)) {
+					// granted just before giving up, so keep the lock and the interrupt
+					attempt.interrupted = true;
+				}
+				else {
+					throw new InterruptedException();
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Removes a waiter that gives up from the queue, unless the lock was already
+	 * granted to it. Since the waiter may have been holding others back, the lock
+	 * is then granted to anyone who can now acquire it.
+	 *
+	 * @param waiter the waiter that gives up
+	 * @return true if the lock had already been granted to the waiter
+	 */
+	private boolean cancel(Waiter waiter) {
+		guard.lock();
+
+		try {
+			if (waiter.granted) {
+				return true;
+			}
+
+			dequeue(waiter);
+
+			if (waiter.mode == Mode.WRITE) {
+				abandonTicket(waiter.ticket);
+			}
+
+			grant();
+			return false;
+		}
+		finally {
+			guard.unlock();
+		}
+	}
+
+	/**
+	 * Completes the future of an asynchronous request that was granted the lock,
+	 * using a task on the executor so that no continuation runs while holding the
+	 * guard. If the future was cancelled in the meantime, or the executor rejects
+	 * the task, the lock is released again.
+	 *
+	 * <p>
+	 * A writer that uses striped reader counters also needs the striped readers to
+	 * leave. Instead of waiting for them on the executor, which may be the very
+	 * event loop that has to run their release, the task is submitted by the last
+	 * of them to leave.
+	 *
+	 * @param handle the handle holding the lock
+	 * @param future the future to complete with the handle
+	 * @param executor the executor that completes the future
+	 */
+	private void complete(Handle handle, CompletableFuture<LockHandle> future, Executor executor) {
+		if (handle.write && stripes != null) {
+			long start = System.nanoTime();
+			drainedWriter.set(() -> submit(handle, future, executor, start));
+			drained();
+		}
+		else {
+			submit(handle, future, executor, 0);
+		}
+	}
+
+	/**
+	 * Submits the task that completes the future of an asynchronous request.
+	 *
+	 * @param handle the handle holding the lock
+	 * @param future the future to complete with the handle
+	 * @param executor the executor that completes the future
+	 * @param start the time a writer started waiting for the striped readers
+	 *
+	 * @see #complete(Handle, CompletableFuture, Executor)
+	 */
+	private void submit(Handle handle, CompletableFuture<LockHandle> future, Executor executor, long start) {
+		try {
+			executor.execute(() -> {
+				if (handle.write && stripes != null) {
+					inhibit(start);
+				}
+
+				if (!future.complete(handle)) {
+					handle.close();
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+
+			// the guard may be held here, so release the lock from elsewhere
+			ForkJoinPool.commonPool().execute(handle::close);
+		}
+	}
+
+	/**
+	 * Withdraws a queued asynchronous request from the queue if its future is
+	 * cancelled or otherwise completed exceptionally before the lock is granted.
+	 *
+	 * @param waiter the queued waiter, or null if the lock was granted right away
+	 */
+	private void withdrawOnCancel(Waiter waiter) {
+		if (waiter != null) {
+			waiter.future.whenComplete((handle, failure) -> {
+				if (failure != null) {
+					cancel(waiter);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Tracks a single attempt to acquire the read or write lock, which may be
+	 * limited by a deadline and may or may not give up when interrupted.
+	 */
+	private class Acquisition {
+
+		/** Whether the attempt gives up at the deadline. */
+		private final boolean timed;
+
+		/** The time at which a timed attempt gives up. */
+		private final long deadline;
+
+		/** Whether the attempt gives up when interrupted. */
+		private final boolean interruptible;
+
+		/** Whether the thread was interrupted while waiting uninterruptibly. */
+		private boolean interrupted;
+
+		/** Whether the attempt had to wait at all. */
+		private boolean contended;
+
+		/** When the attempt started, if instrumented. */
+		private final long start;
+
+		/** Whether statistics are collected for this attempt. */
+		private final boolean instrumented;
+
+		/**
+		 * Initializes an attempt.
+		 *
+		 * @param timed whether the attempt gives up after the timeout
+		 * @param timeout the maximum time to wait in nanoseconds, if timed
+		 * @param interruptible whether the attempt gives up when interrupted
+		 * @throws InterruptedException if interruptible and the thread is already
+		 *   interrupted
+		 */
+		Acquisition(boolean timed, long timeout, boolean interruptible) throws InterruptedException {
+			if (interruptible && Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+
+			this.instrumented = SimpleReadWriteLock.this.instrumented;
+			this.start = instrumented || timed ? System.nanoTime() : 0;
+			this.timed = timed;
+			this.deadline = start + Math.max(timeout, 0);
+			this.interruptible = interruptible;
+			this.interrupted = false;
+			this.contended = false;
+		}
+
+		/**
+		 * Restores the interrupt status if the thread was interrupted while waiting
+		 * uninterruptibly. Called once the attempt is over.
+		 */
+		void finish() {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Used to maintain simultaneous read operations.
+	 */
+	private class ReadLock implements SimpleLock {
+
+		/**
+		 * Will wait until there are no active writers in the system, and then will
+		 * increase the number of active readers. Depending on the fairness policy,
+		 * may also wait for writers that are waiting. If no writer is active and no
+		 * thread is waiting, only updates the count without using the guard. If
+		 * the read bias is set, will instead register in a striped counter. A thread
+		 * that already holds any of the locks never waits.
+		 */
+		@Override
+		public void lock() {
+			if (!instrumented && acquireUncontended(readHolds.get())) {
+				return;
+			}
+
+			try {
+				acquire(new Acquisition(false, 0, false));
+			}
+			catch (InterruptedException e) {
+				throw new AssertionError("Uninterruptible acquisition was interrupted.", e);
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			acquire(new Acquisition(false, 0, true));
+		}
+
+		@Override
+		public boolean tryLock() {
+			if (!instrumented && acquireUncontended(readHolds.get())) {
+				return true;
+			}
+
+			try {
+				return acquire(new Acquisition(true, 0, false));
+			}
+			catch (InterruptedException e) {
+				throw new AssertionError("Uninterruptible acquisition was interrupted.", e);
+			}
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			return acquire(new Acquisition(true, unit.toNanos(time), true));
+		}
+
+		/**
+		 * Acquires the read lock, unless the attempt gives up first. An attempt that
+		 * gives up leaves no trace in the lock state.
+		 *
+		 * @param attempt the acquisition attempt
+		 * @return true if the read lock was acquired
+		 * @throws InterruptedException if the attempt was interrupted
+		 */
+		private boolean acquire(Acquisition attempt) throws InterruptedException {
+			int[] holds = readHolds.get();
+
+			if (acquireUncontended(holds)) {
+				if (attempt.instrumented) {
+					metrics.readersChanged(readers() + stripedReaders());
+					metrics.acquiredRead(attempt.start, false);
+				}
+
+				return true;
+			}
+
+			try {
+				Waiter waiter = null;
+
+				guard.lock();
+
+				try {
+					Thread current = Thread.currentThread();
+
+					// waiting while holding a lock could deadlock with a writer waiting on this thread
+					boolean reentrant = holds[SHARED] > 0 || owner == current || upgrader == current;
+
+					if (reentrant || writers == 0 && (fairness == Fairness.READER_PREFERRING || waitingWriters == 0)) {
+						takeRead();
+					}
+					else {
+						waiter = new Waiter(Mode.READ, false, -1, writePhases, false);
+						enqueue(waiter);
+					}
+				}
+				finally {
+					guard.unlock();
+				}
+
+				if (waiter != null && !await(waiter, attempt)) {
+					return false;
+				}
+			}
+			finally {
+				attempt.finish();
+			}
+
+			holds[SHARED]++;
+
+			if (attempt.instrumented) {
+				metrics.acquiredRead(attempt.start, attempt.contended);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Acquires the read lock if that needs neither waiting nor the guard, by
+		 * registering in a striped counter or updating the count of readers. Does
+		 * not allocate or collect statistics.
+		 *
+		 * @param holds the read holds of the current thread
+		 * @return true if the read lock was acquired
+		 */
+		private boolean acquireUncontended(int[] holds) {
+			// a thread already registered in a stripe stays there, since a draining writer waits for it
+			if (readBias || holds[STRIPED] > 0) {
+				int index = stripe();
+				stripes.incrementAndGet(index);
+
+				if (readBias || holds[STRIPED] > 0) {
+					holds[STRIPED]++;
+					return true;
+				}
+
+				// a writer arrived, so back out and use the shared count
+				stripes.decrementAndGet(index);
+
+				// the last striped reader may have seen this increment and left the writer waiting
+				drained();
+			}
+
+			// without writers or waiting threads, readers only need to update the count
+			for (int current = state.get(); (current & SLOW) == 0; current = state.get()) {
+				if (state.compareAndSet(current, current + 1)) {
+					holds[SHARED]++;
+
+					if (stripes != null && !readBias && System.nanoTime() - inhibitUntil >= 0) {
+						guard.lock();
+
+						try {
+							restoreBias();
+						}
+						finally {
+							guard.unlock();
+						}
+					}
+
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Will decrease the number of active readers, and grant the lock to any
+		 * waiting threads if necessary.
+		 *
+		 * @throws IllegalMonitorStateException if the current thread does not hold
+		 *   the read lock
+		 */
+		@Override
+		public void unlock() {
+			int[] holds = readHolds.get();
+
+			if (holds[STRIPED] + holds[SHARED] <= 0) {
+				throw new IllegalMonitorStateException("Read lock is not held by the current thread.");
+			}
+
+			if (instrumented) {
+				metrics.releasedRead();
+			}
+
+			if (holds[STRIPED] > 0) {
+				holds[STRIPED]--;
+				stripes.decrementAndGet(stripe());
+				drained();
+				return;
+			}
+
+			holds[SHARED]--;
+			releaseRead();
+		}
+
+	}
+
+	/**
+	 * Used to maintain exclusive write operations.
+	 */
+	private class WriteLock implements SimpleLock {
+
+		/**
+		 * Will wait until there are no active readers or writers in the system, and
+		 * then will increase the number of active writers. Under the phase-fair
+		 * policy, will also wait for earlier writers. If striped reader counters are
+		 * used, will revoke the read bias on arrival and wait for the striped readers
+		 * to leave.
+		 *
+		 * <p>
+		 * The thread holding the write lock may acquire it again, and the thread
+		 * holding the upgradable lock may acquire it once all readers have left.
+		 *
+		 * @throws IllegalMonitorStateException if the current thread holds the read
+		 *   lock but not the write lock, since waiting for itself would deadlock
+		 */
+		@Override
+		public void lock() {
+			if (!instrumented && acquireUncontended()) {
+				return;
+			}
+
+			try {
+				acquire(new Acquisition(false, 0, false));
+			}
+			catch (InterruptedException e) {
+				throw new AssertionError("Uninterruptible acquisition was interrupted.", e);
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			acquire(new Acquisition(false, 0, true));
+		}
+
+		@Override
+		public boolean tryLock() {
+			if (!instrumented && acquireUncontended()) {
+				return true;
+			}
+
+			try {
+				return acquire(new Acquisition(true, 0, false));
+			}
+			catch (InterruptedException e) {
+				throw new AssertionError("Uninterruptible acquisition was interrupted.", e);
+			}
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			return acquire(new Acquisition(true, unit.toNanos(time), true));
+		}
+
+		/**
+		 * Acquires the write lock if the current thread already owns it, or if no
+		 * other thread holds or waits for any lock. Does not allocate or collect
+		 * statistics. Leaves everything else, including upgrades and striped
+		 * readers that must be drained, to the full acquisition.
+		 *
+		 * @return true if the write lock was acquired
+		 */
+		private boolean acquireUncontended() {
+			if (stripes != null) {
+				return false;
+			}
+
+			Thread current = Thread.currentThread();
+			guard.lock();
+
+			try {
+				if (owner == current) {
+					writeHolds++;
+					return true;
+				}
+
+				if (writers > 0 || upgrader != null || head != null) {
+					return false;
+				}
+
+				// stops readers from registering without the guard before counting them
+				state.getAndUpdate(value -> value | SLOW);
+
+				if (canWrite(false, nextTicket)) {
+					nextTicket++;
+					takeWrite(current, false);
+					return true;
+				}
+
+				updateSlow();
+				return false;
+			}
+			finally {
+				guard.unlock();
+			}
+		}
+
+		/**
+		 * Acquires the write lock, unless the attempt gives up first. A writer that
+		 * gives up withdraws its ticket and lets in any readers it was holding back.
+		 *
+		 * @param attempt the acquisition attempt
+		 * @return true if the write lock was acquired
+		 * @throws InterruptedException if the attempt was interrupted
+		 */
+		private boolean acquire(Acquisition attempt) throws InterruptedException {
+			Thread current = Thread.currentThread();
+			int[] holds = readHolds.get();
+
+			try {
+				Waiter waiter = null;
+
+				guard.lock();
+
+				try {
+					if (owner == current) {
+						writeHolds++;
+						return true;
+					}
+
+					if (holds[SHARED] + holds[STRIPED] > 0) {
+						throw new IllegalMonitorStateException("Read lock cannot be upgraded; use the upgradable lock instead.");
+					}
+
+					// an upgrade skips the ticket order, since queued writers wait for it anyway
+					boolean upgrade = upgrader == current;
+					long ticket = upgrade ? -1 : nextTicket++;
+
+					if (readBias) {
+						readBias = false;
+					}
+
+					// stops readers from registering without the guard before counting them
+					state.getAndUpdate(value -> value | SLOW);
+
+					if (canWrite(upgrade, ticket)) {
+						takeWrite(current, upgrade);
+					}
+					else {
+						waiter = new Waiter(Mode.WRITE, upgrade, ticket, writePhases, false);
+						enqueue(waiter);
+					}
+				}
+				finally {
+					guard.unlock();
+				}
+
+				if (waiter != null && !await(waiter, attempt)) {
+					return false;
+				}
+
+				if (stripes != null) {
+					boolean drained = false;
+
+					try {
+						drained = drainStripes(attempt);
+					}
+					finally {
+						if (!drained) {
+							unlock();
+						}
+					}
+
+					if (!drained) {
+						return false;
+					}
+				}
+			}
+			finally {
+				attempt.finish();
+			}
+
+			if (attempt.instrumented) {
+				metrics.acquiredWrite(attempt.start, attempt.contended);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Will decrease the number of active writers, and grant the lock to any
+		 * waiting threads if necessary. If the current thread also acquired the read
+		 * lock, it keeps holding the read lock, which downgrades the write lock
+		 * without letting another writer in between.
+		 *
+		 * @throws IllegalMonitorStateException if the current thread does not hold
+		 *   the write lock
+		 */
+		@Override
+		public void unlock() {
+			guard.lock();
+
+			try {
+				if (writers <= 0 || owner != Thread.currentThread()) {
+					throw new IllegalMonitorStateException("Write lock is not held by the current thread.");
+				}
+
+				if (--writeHolds > 0) {
+					return;
+				}
+
+				if (instrumented) {
+					metrics.releasedWrite();
+				}
+
+				releaseWrite();
+			}
+			finally {
+				guard.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Used to read with the option of upgrading to the write lock. Only one thread
+	 * may hold this lock at a time, but it does not exclude readers.
+	 */
+	private class UpgradableLock implements SimpleLock {
+
+		/**
+		 * Will wait until there are no active writers and no other thread holds the
+		 * upgradable lock. Unless reader-preferring, will also wait for writers that
+		 * are waiting. A thread that already holds the write lock or the upgradable
+		 * lock never waits.
+		 */
+		@Override
+		public void lock() {
+			try {
+				acquire(new Acquisition(false, 0, false));
+			}
+			catch (InterruptedException e) {
+				throw new AssertionError("Uninterruptible acquisition was interrupted.", e);
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			acquire(new Acquisition(false, 0, true));
+		}
+
+		@Override
+		public boolean tryLock() {
+			try {
+				return acquire(new Acquisition(true, 0, false));
+			}
+			catch (InterruptedException e) {
+				throw new AssertionError("Uninterruptible acquisition was interrupted.", e);
+			}
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			return acquire(new Acquisition(true, unit.toNanos(time), true));
+		}
+
+		/**
+		 * Acquires the upgradable lock, unless the attempt gives up first.
+		 *
+		 * @param attempt the acquisition attempt
+		 * @return true if the upgradable lock was acquired
+		 * @throws InterruptedException if the attempt was interrupted
+		 */
+		private boolean acquire(Acquisition attempt) throws InterruptedException {
+			Thread current = Thread.currentThread();
+			int[] holds = readHolds.get();
+
+			try {
+				Waiter waiter = null;
+
+				guard.lock();
+
+				try {
+					if (upgrader == current) {
+						upgradeHolds++;
+						return true;
+					}
+
+					if (owner == current) {
+						if (upgrader != null) {
+							throw new IllegalMonitorStateException("Upgradable lock is held by another thread.");
+						}
+
+						takeUpgradable(current);
+					}
+					else {
+						// readers must not wait for writers that wait for them
+						boolean polite = fairness != Fairness.READER_PREFERRING && holds[SHARED] + holds[STRIPED] == 0;
+
+						if (canUpgrade(polite)) {
+							takeUpgradable(current);
+						}
+						else {
+							waiter = new Waiter(Mode.UPGRADABLE, false, -1, writePhases, polite);
+							enqueue(waiter);
+						}
+					}
+				}
+				finally {
+					guard.unlock();
+				}
+
+				if (waiter != null && !await(waiter, attempt)) {
+					return false;
+				}
+			}
+			finally {
+				attempt.finish();
+			}
+
+			return true;
+		}
+
+		/**
+		 * Releases the upgradable lock, and grants the lock to any waiting threads if
+		 * necessary.
+		 *
+		 * @throws IllegalMonitorStateException if the current thread does not hold
+		 *   the upgradable lock
+		 */
+		@Override
+		public void unlock() {
+			guard.lock();
+
+			try {
+				if (upgrader != Thread.currentThread()) {
+					throw new IllegalMonitorStateException("Upgradable lock is not held by the current thread.");
+				}
+
+				if (--upgradeHolds == 0) {
+					upgrader = null;
+					grant();
+				}
+			}
+			finally {
+				guard.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Holds a lock acquired asynchronously, in place of a thread.
+	 */
+	private class Handle implements LockHandle {
+
+		/** Whether the handle holds the write lock rather than the read lock. */
+		private final boolean write;
+
+		/** Whether the handle has been released. */
+		private final AtomicBoolean released;
+
+		/**
+		 * Initializes a handle that does not hold the lock yet.
+		 *
+		 * @param write whether the handle will hold the write lock
+		 */
+		Handle(boolean write) {
+			this.write = write;
+			this.released = new AtomicBoolean(false);
+		}
+
+		@Override
+		public boolean isWrite() {
+			return write;
+		}
+
+		@Override
+		public void close() {
+			if (!released.compareAndSet(false, true)) {
+				throw new IllegalMonitorStateException("Lock handle was already released.");
+			}
+
+			if (!write) {
+				releaseRead();
+				return;
+			}
+
+			guard.lock();
+
+			try {
+				releaseWrite();
+			}
+			finally {
+				guard.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Exposes the statistics of this lock through JMX.
+	 */
+	private class Management implements SimpleReadWriteLockMXBean {
+
+		/**
+		 * Summarizes a histogram for JMX.
+		 *
+		 * @param histogram the histogram to summarize
+		 * @return summary of the histogram
+		 */
+		private Map<String, Long> summarize(LatencyHistogram histogram) {
+			Map<String, Long> summary = new LinkedHashMap<>();
+			summary.put("count", histogram.getCount());
+			summary.put("mean", Math.round(histogram.getMean()));
+			summary.put("p50", histogram.getValueAtPercentile(50));
+			summary.put("p90", histogram.getValueAtPercentile(90));
+			summary.put("p99", histogram.getValueAtPercentile(99));
+			summary.put("max", histogram.getMax());
+			return summary;
+		}
+
+		@Override
+		public boolean isInstrumented() {
+			return SimpleReadWriteLock.this.isInstrumented();
+		}
+
+		@Override
+		public void setInstrumented(boolean instrumented) {
+			SimpleReadWriteLock.this.setInstrumented(instrumented);
+		}
+
+		@Override
+		public long getReadAcquisitions() {
+			return getStatistics().getReadAcquisitions();
+		}
+
+		@Override
+		public long getContendedReads() {
+			return getStatistics().getContendedReads();
+		}
+
+		@Override
+		public long getWriteAcquisitions() {
+			return getStatistics().getWriteAcquisitions();
+		}
+
+		@Override
+		public long getContendedWrites() {
+			return getStatistics().getContendedWrites();
+		}
+
+		@Override
+		public int getPeakReaders() {
+			return getStatistics().getPeakReaders();
+		}
+
+		@Override
+		public int getWaitingWriters() {
+			return getStatistics().getWaitingWriters();
+		}
+
+		@Override
+		public Map<String, Long> getReadWait() {
+			return summarize(getStatistics().getReadWait());
+		}
+
+		@Override
+		public Map<String, Long> getReadHold() {
+			return summarize(getStatistics().getReadHold());
+		}
+
+		@Override
+		public Map<String, Long> getWriteWait() {
+			return summarize(getStatistics().getWriteWait());
+		}
+
+		@Override
+		public Map<String, Long> getWriteHold() {
+			return summarize(getStatistics().getWriteHold());
 		}
 	}
 }
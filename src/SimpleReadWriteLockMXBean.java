@@ -0,0 +1,98 @@
+import java.util.Map;
+
+/**
+ * The management interface used to expose the statistics of an instrumented
+ * {@link SimpleReadWriteLock} through JMX. Each latency attribute is a map with
+ * the keys {@code count}, {@code mean}, {@code p50}, {@code p90}, {@code p99},
+ * and {@code max}, where every value except the count is in nanoseconds.
+ *
+ * @see SimpleReadWriteLock#registerMBean(String)
+ * @see LockStatistics
+ */
+public interface SimpleReadWriteLockMXBean {
+
+	/**
+	 * Returns whether the lock is collecting statistics.
+	 *
+	 * @return true if instrumented
+	 */
+	public boolean isInstrumented();
+
+	/**
+	 * Turns statistics collection on or off.
+	 *
+	 * @param instrumented whether to collect statistics
+	 */
+	public void setInstrumented(boolean instrumented);
+
+	/**
+	 * Returns the number of read lock acquisitions.
+	 *
+	 * @return number of read lock acquisitions
+	 */
+	public long getReadAcquisitions();
+
+	/**
+	 * Returns the number of read lock acquisitions that had to wait.
+	 *
+	 * @return number of contended read lock acquisitions
+	 */
+	public long getContendedReads();
+
+	/**
+	 * Returns the number of write lock acquisitions.
+	 *
+	 * @return number of write lock acquisitions
+	 */
+	public long getWriteAcquisitions();
+
+	/**
+	 * Returns the number of write lock acquisitions that had to wait.
+	 *
+	 * @return number of contended write lock acquisitions
+	 */
+	public long getContendedWrites();
+
+	/**
+	 * Returns the largest number of readers that held the lock at once, including
+	 * readers using striped counters.
+	 *
+	 * @return peak number of concurrent readers
+	 */
+	public int getPeakReaders();
+
+	/**
+	 * Returns the number of writers currently waiting.
+	 *
+	 * @return number of waiting writers
+	 */
+	public int getWaitingWriters();
+
+	/**
+	 * Returns a summary of the time spent waiting for the read lock.
+	 *
+	 * @return read wait time summary
+	 */
+	public Map<String, Long> getReadWait();
+
+	/**
+	 * Returns a summary of the time spent holding the read lock.
+	 *
+	 * @return read hold time summary
+	 */
+	public Map<String, Long> getReadHold();
+
+	/**
+	 * Returns a summary of the time spent waiting for the write lock.
+	 *
+	 * @return write wait time summary
+	 */
+	public Map<String, Long> getWriteWait();
+
+	/**
+	 * Returns a summary of the time spent holding the write lock.
+	 *
+	 * @return write hold time summary
+	 */
+	public Map<String, Long> getWriteHold();
+}
@@ -0,0 +1,349 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+/**
+ * An immutable sorted view of a snapshot of indexed storage, which sorts the
+ * elements only when they are first needed in order. The view sees the elements
+ * present when it was created and is not affected by elements added later.
+ * Attempts to modify the view throw an {@link UnsupportedOperationException}.
+ *
+ * <p>
+ * {@link #size()} and {@link #contains(Object)} are answered by the snapshot
+ * without sorting. The first method that needs the order, such as
+ * {@link #iterator()} or {@link #first()}, sorts the elements into an array,
+ * and every later call reuses that array. The {@link #headSet(Object)},
+ * {@link #tailSet(Object)}, and {@link #subSet(Object, Object)} views are
+ * ranges of the same array, found with a binary search.
+ *
+ * <p>
+ * Unsorted storage only ever appends elements, so a view created with
+ * {@link #of(IndexedStorage, SortedView)} after more elements were added only
+ * needs to sort the added elements, and merges them into the order of the
+ * earlier view in linear time. If nothing was added, the earlier view is
+ * returned as is, so its order is never computed twice.
+ *
+ * <p>
+ * A view may be read by any number of threads without synchronization. If
+ * several threads need the order at the same time, each may sort the elements,
+ * but all of them see the same result.
+ *
+ * @param <E> element type stored in the set
+ *
+ * @see IndexedSet#sortedCopy()
+ */
+public class SortedView<E> extends AbstractSet<E> implements SortedSet<E> {
+
+	/** The snapshot whose elements this view sorts. */
+	private final IndexedStorage<E> storage;
+
+	/**
+	 * An earlier sorted view of a prefix of the same storage, whose order is
+	 * merged instead of sorted again, or null if there is none or this view is
+	 * already sorted.
+	 */
+	private volatile SortedView<E> previous;
+
+	/** All elements in natural order, or null until first needed. */
+	private volatile Slice<E> sorted;
+
+	/**
+	 * Initializes a sorted view of the elements currently in the storage.
+	 *
+	 * @param storage the storage to take a snapshot of
+	 */
+	public SortedView(IndexedStorage<E> storage) {
+		this(storage.snapshot(), null);
+	}
+
+	/**
+	 * Initializes a sorted view of a snapshot.
+	 *
+	 * @param storage the snapshot to sort
+	 * @param previous an earlier sorted view of a prefix of the snapshot, or null
+	 */
+	private SortedView(IndexedStorage<E> storage, SortedView<E> previous) {
+		this.storage = storage;
+		this.previous = previous;
+	}
+
+	/**
+	 * Returns a sorted view of the elements currently in the storage, reusing an
+	 * earlier view of the same storage where possible. Returns the earlier view
+	 * itself if no elements were added since it was created. Otherwise, the new
+	 * view reuses the order of the earlier view, and only sorts the added elements
+	 * once its order is needed. An earlier view of a larger snapshot, which may be
+	 * cached by another thread, is not reused.
+	 *
+	 * @param <E> element type
+	 * @param storage the storage to take a snapshot of
+	 * @param previous an earlier view returned for the same storage, or null
+	 * @return sorted view of the elements currently in the storage
+	 */
+	public static <E> SortedView<E> of(IndexedStorage<E> storage, SortedView<E> previous) {
+		IndexedStorage<E> current = storage.snapshot();
+
+		// elements are only ever added, so the size tells whether any were
+		if (previous != null && previous.storage.size() == current.size()) {
+			return previous;
+		}
+
+		if (previous == null || current.isSorted() || previous.storage.size() > current.size()) {
+			return new SortedView<>(current, null);
+		}
+
+		// links to a view that is already sorted, so views never form a chain
+		SortedView<E> base = previous.previous;
+
+		if (previous.sorted != null) {
+			base = previous;
+		}
+
+		return new SortedView<>(current, base);
+	}
+
+	/**
+	 * Returns all elements in natural order, and sorts them first if this has not
+	 * been done yet.
+	 *
+	 * @return range over all sorted elements
+	 */
+	private Slice<E> sorted() {
+		Slice<E> result = sorted;
+
+		if (result != null) {
+			return result;
+		}
+
+		SortedView<E> base = previous;
+		int size = storage.size();
+		Object[] elements;
+
+		if (storage.isSorted()) {
+			elements = storage.toArray();
+		}
+		else {
+			Object[] done = base == null ? new Object[0] : base.sorted().elements;
+			Object[] added = new Object[size - done.length];
+
+			for (int index = done.length; index < size; index++) {
+				added[index - done.length] = storage.get(index);
+			}
+
+			Arrays.sort(added);
+			elements = merge(done, added);
+		}
+
+		result = new Slice<>(elements, 0, elements.length);
+		sorted = result;
+		previous = null;
+		return result;
+	}
+
+	/**
+	 * Merges two sorted arrays of distinct elements.
+	 *
+	 * @param first first sorted array
+	 * @param second second sorted array
+	 * @return sorted array with the elements of both
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object[] merge(Object[] first, Object[] second) {
+		if (first.length == 0) {
+			return second;
+		}
+
+		Object[] merged = new Object[first.length + second.length];
+		int i = 0;
+		int j = 0;
+
+		for (int k = 0; k < merged.length; k++) {
+			if (j >= second.length || i < first.length && ((Comparable<Object>) first[i]).compareTo(second[j]) < 0) {
+				merged[k] = first[i++];
+			}
+			else {
+				merged[k] = second[j++];
+			}
+		}
+
+		return merged;
+	}
+
+	@Override
+	public int size() {
+		return storage.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return storage.isEmpty();
+	}
+
+	@Override
+	public boolean contains(Object element) {
+		return storage.contains(element);
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return sorted().iterator();
+	}
+
+	@Override
+	public Spliterator<E> spliterator() {
+		return sorted().spliterator();
+	}
+
+	@Override
+	public Object[] toArray() {
+		return sorted().toArray();
+	}
+
+	@Override
+	public Comparator<? super E> comparator() {
+		return null;
+	}
+
+	@Override
+	public E first() {
+		return sorted().first();
+	}
+
+	@Override
+	public E last() {
+		return sorted().last();
+	}
+
+	@Override
+	public SortedSet<E> headSet(E toElement) {
+		return sorted().headSet(toElement);
+	}
+
+	@Override
+	public SortedSet<E> tailSet(E fromElement) {
+		return sorted().tailSet(fromElement);
+	}
+
+	@Override
+	public SortedSet<E> subSet(E fromElement, E toElement) {
+		return sorted().subSet(fromElement, toElement);
+	}
+
+	/**
+	 * An immutable range of a sorted array of distinct elements.
+	 *
+	 * @param <E> element type
+	 */
+	private static class Slice<E> extends AbstractSet<E> implements SortedSet<E> {
+
+		/** All sorted elements, shared by every range. */
+		private final Object[] elements;
+
+		/** Index of the first element in range. */
+		private final int from;
+
+		/** Index after the last element in range. */
+		private final int to;
+
+		/**
+		 * Initializes a range of a sorted array.
+		 *
+		 * @param elements all sorted elements
+		 * @param from index of the first element in range
+		 * @param to index after the last element in range
+		 */
+		private Slice(Object[] elements, int from, int to) {
+			this.elements = elements;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * Returns the index of the first element in range that is not less than the
+		 * provided element.
+		 *
+		 * @param element the element to search for
+		 * @return index between {@link #from} and {@link #to}
+		 */
+		private int search(Object element) {
+			int index = Arrays.binarySearch(elements, from, to, element);
+			return index >= 0 ? index : -index - 1;
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+
+		@Override
+		public boolean contains(Object element) {
+			return Arrays.binarySearch(elements, from, to, element) >= 0;
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			return Spliterators.iterator(spliterator());
+		}
+
+		@Override
+		public Spliterator<E> spliterator() {
+			return Spliterators.spliterator(elements, from, to,
+					Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.IMMUTABLE);
+		}
+
+		@Override
+		public Object[] toArray() {
+			return Arrays.copyOfRange(elements, from, to);
+		}
+
+		@Override
+		public Comparator<? super E> comparator() {
+			return null;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public E first() {
+			if (from >= to) {
+				throw new NoSuchElementException();
+			}
+
+			return (E) elements[from];
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public E last() {
+			if (from >= to) {
+				throw new NoSuchElementException();
+			}
+
+			return (E) elements[to - 1];
+		}
+
+		@Override
+		public SortedSet<E> headSet(E toElement) {
+			return new Slice<>(elements, from, search(toElement));
+		}
+
+		@Override
+		public SortedSet<E> tailSet(E fromElement) {
+			return new Slice<>(elements, search(fromElement), to);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public SortedSet<E> subSet(E fromElement, E toElement) {
+			if (((Comparable<Object>) fromElement).compareTo(toElement) > 0) {
+				throw new IllegalArgumentException("Lower bound is greater than upper bound.");
+			}
+
+			return new Slice<>(elements, search(fromElement), search(toElement));
+		}
+	}
+}
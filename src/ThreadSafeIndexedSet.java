@@ -1,18 +1,101 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * A thread-safe version of {@link IndexedSet} using a read/write lock.
  *
+ * <p>
+ * The {@link #size()}, {@link #contains(Object)}, and {@link #get(int)} methods
+ * first try an optimistic read without acquiring any lock, and only fall back
+ * to the read lock if a write happened at the same time. The backing storage
+ * never loops forever or corrupts itself when read during a write, so any
+ * inconsistent result (or exception) from an optimistic read is simply
+ * discarded.
+ *
+ * <p>
+ * In snapshot mode, every write also publishes an immutable snapshot of the
+ * set through a volatile reference. The snapshot shares structure with the
+ * set, so publishing it is cheap. Reads then use the latest snapshot without
+ * any lock, and the copy methods return the snapshot itself instead of
+ * building a new set.
+ *
+ * <p>
+ * With {@link #useFilter(double)}, a lock-free {@link BloomFilter} of the
+ * elements is kept next to the set and updated by every write. A check for a
+ * missing element then usually returns after looking at a few bits, without
+ * taking any lock or searching the set. The filter matches elements by
+ * {@link Object#hashCode()} and {@link Object#equals(Object)}, like unsorted
+ * storage, so it is only available for unsorted sets.
+ *
+ * <p>
+ * The {@code try} variants of the operations give up with a
+ * {@link TimeoutException} if the lock cannot be acquired within the given
+ * time, so callers can enforce a latency budget instead of piling up behind a
+ * slow writer.
+ *
+ * <p>
+ * The {@code async} variants never block the calling thread. They acquire the
+ * lock with {@link SimpleReadWriteLock#readLockAsync(Executor)} or
+ * {@link SimpleReadWriteLock#writeLockAsync(Executor)} and return a future that
+ * completes once the operation has run, so event loops never stall waiting for
+ * a writer.
+ *
+ * <p>
+ * If created with a {@link WriteAheadLog}, every added element is also
+ * buffered in the log while holding the write lock, and synced in the
+ * background. Only with {@link WriteAheadLog.FlushPolicy#sync()} do writers wait
+ * for the sync, and then only after releasing the write lock.
+ *
+ * <p>
+ * Since the lock is reentrant, any operation may also be called while holding
+ * the write or upgradable lock returned by {@link #getLock()}, and any read
+ * operation while holding its read lock.
+ *
  * @param <E>
  *            element type
  * @see IndexedSet
  * @see ReadWriteLock
+ * @see ConcurrentIndexedSet
  */
-public class ThreadSafeIndexedSet<E> extends IndexedSet<E> {
+public class ThreadSafeIndexedSet<E> extends IndexedSet<E> implements ConcurrentIndexedSet<E> {
+
+	/** Smallest number of elements a filter is sized for. */
+	private static final int MIN_FILTER = 1024;
 
 	/** The lock used to protect concurrent access to the underlying set. */
 	private SimpleReadWriteLock lock;
 
+	/** The latest published snapshot, or null if snapshot mode is disabled. */
+	private volatile IndexedStorage<E> snapshot;
+
+	/** The log of added elements, or null if there is none. */
+	private final WriteAheadLog<E> log;
+
+	/** Filter of the added elements, or null if not in use. */
+	private volatile BloomFilter<E> filter;
+
+	/** The newest view returned by {@link #sortedCopy()}, or holds null. */
+	private final AtomicReference<SortedView<E>> sortedView;
+
 	/**
 	 * Initializes an unsorted thread-safe indexed set.
 	 */
@@ -26,9 +109,1214 @@ public class ThreadSafeIndexedSet<E> extends IndexedSet<E> {
 	 * @param sorted whether the set should be sorted
 	 */
 	public ThreadSafeIndexedSet(boolean sorted) {
-		super(sorted);
+		this(sorted, false);
+	}
+
+	/**
+	 * Initializes a thread-safe indexed set, optionally in snapshot mode. In
+	 * snapshot mode, reads never block, not even {@link #unsortedCopy()} and
+	 * {@link #sortedCopy()}.
+	 *
+	 * @param sorted whether the set should be sorted
+	 * @param snapshots whether reads should use published snapshots
+	 */
+	public ThreadSafeIndexedSet(boolean sorted, boolean snapshots) {
+		this(sorted ? new OrderStatisticTree<E>() : new InsertionOrderedSet<E>(), snapshots);
+	}
+
+	/**
+	 * Initializes a thread-safe indexed set backed by the specified storage, such
+	 * as an {@link OffHeapStorage}.
+	 *
+	 * @param storage the storage to keep elements in
+	 *
+	 * @see IndexedSet#IndexedSet(IndexedStorage)
+	 */
+	public ThreadSafeIndexedSet(IndexedStorage<E> storage) {
+		this(storage, false);
+	}
+
+	/**
+	 * Initializes a thread-safe indexed set backed by the specified storage,
+	 * optionally in snapshot mode.
+	 *
+	 * @param storage the storage to keep elements in
+	 * @param snapshots whether reads should use published snapshots
+	 *
+	 * @see IndexedSet#IndexedSet(IndexedStorage)
+	 */
+	public ThreadSafeIndexedSet(IndexedStorage<E> storage, boolean snapshots) {
+		this(storage, snapshots, null);
+	}
+
+	/**
+	 * Initializes a thread-safe indexed set backed by the specified storage,
+	 * which records every added element in a write-ahead log. Writers only
+	 * buffer the record while holding the write lock, and the log syncs records
+	 * in the background according to its policy. The storage should already
+	 * contain any elements recovered from the log.
+	 *
+	 * @param storage the storage to keep elements in
+	 * @param snapshots whether reads should use published snapshots
+	 * @param log the log of added elements, or null for none
+	 *
+	 * @see WriteAheadLog#replay(Path, ElementSerializer, IndexedStorage)
+	 */
+	public ThreadSafeIndexedSet(IndexedStorage<E> storage, boolean snapshots, WriteAheadLog<E> log) {
+		super(log == null ? storage : log.wrap(storage));
 		lock = new SimpleReadWriteLock();
+		snapshot = snapshots ? super.snapshot() : null;
+		this.log = log;
+		sortedView = new AtomicReference<>();
+	}
+
+	/**
+	 * Returns whether this set is in snapshot mode.
+	 *
+	 * @return true if reads use published snapshots
+	 */
+	public boolean usesSnapshots() {
+		return snapshot != null;
+	}
+
+	/**
+	 * Starts keeping a {@link BloomFilter} of the elements in this set, so that
+	 * checking for a missing element usually returns right away without any lock,
+	 * and without searching the set. Worthwhile if most checks are misses. The
+	 * filter is built from the current elements, and replaced with a larger one
+	 * whenever the set outgrows it, which takes linear time.
+	 *
+	 * <p>
+	 * Sorted sets match elements with {@link Comparable#compareTo(Object)}
+	 * instead of {@link Object#equals(Object)}, so elements that compare as equal
+	 * may still have different hash codes (such as {@code 1.0} and {@code 1.00}
+	 * as {@link java.math.BigDecimal}). The filter would then rule out elements
+	 * that are in the set, so sorted sets do not support it.
+	 *
+	 * @param falsePositiveRate the fraction of missing elements the filter may
+	 *   let through to the set, between 0 and 1 (exclusive)
+	 * @throws UnsupportedOperationException if this set is sorted
+	 *
+	 * @see #contains(Object)
+	 */
+	public void useFilter(double falsePositiveRate) {
+		lock.writeLock().lock();
+
+		try {
+			if (super.snapshot().isSorted()) {
+				throw new UnsupportedOperationException("Filters require an unsorted set.");
+			}
+
+			filter = build(super.size() * 2, falsePositiveRate);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns whether this set keeps a filter of its elements.
+	 *
+	 * @return true if a filter is in use
+	 *
+	 * @see #useFilter(double)
+	 */
+	public boolean usesFilter() {
+		return filter != null;
 	}
 
-	// TODO Override methods as necessary. Do NOT use the synchronized keyword.
+	/**
+	 * Returns the lock protecting this set. Since the lock is reentrant, callers
+	 * may hold it across several operations on this set to make them atomic, for
+	 * example holding the {@link SimpleReadWriteLock#upgradableLock()} to add an
+	 * element only if some other element is missing.
+	 *
+	 * @return the lock protecting this set
+	 */
+	public SimpleReadWriteLock getLock() {
+		return lock;
+	}
+
+	/**
+	 * Adds an element to our set. First checks for a duplicate without any lock,
+	 * so adding an element that is already present never blocks readers or
+	 * writers, and otherwise acquires the write lock once.
+	 */
+	@Override
+	public boolean add(E element) {
+		if (isPresent(element)) {
+			return false;
+		}
+
+		boolean added;
+		lock.writeLock().lock();
+
+		try {
+			added = insert(element);
+
+			if (added) {
+				publish();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		if (added) {
+			commit();
+		}
+
+		return added;
+	}
+
+	/**
+	 * Determines whether our set contains the element without acquiring any lock,
+	 * using the filter, the snapshot, or an optimistic read. Elements are never
+	 * removed, so an element found here is still present. May return false for a
+	 * present element if a write happened during the optimistic read.
+	 *
+	 * @param element element to search for
+	 * @return true if the element is known to be in the set
+	 */
+	private boolean isPresent(E element) {
+		if (isFiltered(element)) {
+			return false;
+		}
+
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return current.contains(element);
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp == 0) {
+			return false;
+		}
+
+		try {
+			return super.contains(element) && lock.validate(stamp);
+		}
+		catch (RuntimeException e) {
+			// may be caused by a concurrent write, which the write lock will wait for
+			return false;
+		}
+	}
+
+	/**
+	 * Adds an element to our set, giving up if the write lock cannot be acquired
+	 * within the given time.
+	 *
+	 * @param element element to add
+	 * @param timeout the maximum time to wait for the lock
+	 * @param unit the time unit of the timeout
+	 * @return true if the element was added (false if it was a duplicate)
+	 * @throws TimeoutException if the lock could not be acquired in time
+	 * @throws InterruptedException if interrupted while waiting for the lock
+	 *
+	 * @see #add(Object)
+	 */
+	public boolean tryAdd(E element, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		boolean added;
+		acquire(lock.writeLock(), timeout, unit);
+
+		try {
+			added = insert(element);
+
+			if (added) {
+				publish();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		if (added) {
+			commit();
+		}
+
+		return added;
+	}
+
+	/**
+	 * Adds an element to our set without blocking the calling thread. The
+	 * element is added once the write lock is granted.
+	 *
+	 * @param element element to add
+	 * @param executor the executor used to complete the lock future
+	 * @return future completed with true if the element was added (false if it
+	 *   was a duplicate)
+	 *
+	 * @see #add(Object)
+	 * @see SimpleReadWriteLock#writeLockAsync(Executor)
+	 */
+	public CompletableFuture<Boolean> addAsync(E element, Executor executor) {
+		return lock.writeLockAsync(executor).thenApply(handle -> {
+			boolean added;
+
+			try (handle) {
+				added = insert(element);
+
+				if (added) {
+					publish();
+				}
+			}
+
+			if (added) {
+				commit();
+			}
+
+			return added;
+		});
+	}
+
+	@Override
+	public boolean addAll(Collection<E> elements) {
+		boolean added;
+		lock.writeLock().lock();
+
+		try {
+			added = insert(elements) > 0;
+
+			if (added) {
+				publish();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		if (added) {
+			commit();
+		}
+
+		return added;
+	}
+
+	/**
+	 * Adds the collection of elements to our set, giving up if the write lock
+	 * cannot be acquired within the given time.
+	 *
+	 * @param elements elements to add
+	 * @param timeout the maximum time to wait for the lock
+	 * @param unit the time unit of the timeout
+	 * @return true if any elements were added (false if were all duplicates)
+	 * @throws TimeoutException if the lock could not be acquired in time
+	 * @throws InterruptedException if interrupted while waiting for the lock
+	 *
+	 * @see #addAll(Collection)
+	 */
+	public boolean tryAddAll(Collection<E> elements, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		boolean added;
+		acquire(lock.writeLock(), timeout, unit);
+
+		try {
+			added = insert(elements) > 0;
+
+			if (added) {
+				publish();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		if (added) {
+			commit();
+		}
+
+		return added;
+	}
+
+	/**
+	 * Adds a batch of elements to our set while holding the write lock once for
+	 * the entire batch.
+	 */
+	@Override
+	public int addBatch(Iterable<? extends E> elements) {
+		int added;
+		lock.writeLock().lock();
+
+		try {
+			added = insert(elements);
+
+			if (added > 0) {
+				publish();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		if (added > 0) {
+			commit();
+		}
+
+		return added;
+	}
+
+	/**
+	 * Adds a batch of elements to our set, releasing and reacquiring the write
+	 * lock after every chunk of elements. This bounds how long readers may wait
+	 * for a large batch, at the cost of other threads possibly seeing only part of
+	 * the batch.
+	 *
+	 * @param elements elements to add
+	 * @param chunkSize maximum number of elements to add per write lock
+	 * @return the number of elements that were added (not counting duplicates)
+	 */
+	public int addBatch(Iterable<? extends E> elements, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive.");
+		}
+
+		if (elements instanceof Collection) {
+			ensureCapacity(size() + ((Collection<?>) elements).size());
+		}
+
+		Iterator<? extends E> iterator = elements.iterator();
+		int added = 0;
+
+		while (iterator.hasNext()) {
+			lock.writeLock().lock();
+
+			try {
+				int chunk = 0;
+
+				for (int i = 0; i < chunkSize && iterator.hasNext(); i++) {
+					E element = iterator.next();
+
+					if (insert(element)) {
+						chunk++;
+					}
+				}
+
+				if (chunk > 0) {
+					publish();
+				}
+
+				added += chunk;
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		if (added > 0) {
+			commit();
+		}
+
+		return added;
+	}
+
+	/**
+	 * Adds an array of elements to our set while holding the write lock once for
+	 * the entire batch.
+	 */
+	@Override
+	public int addBatch(E[] elements) {
+		int added;
+		lock.writeLock().lock();
+
+		try {
+			added = insert(Arrays.asList(elements));
+
+			if (added > 0) {
+				publish();
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+
+		if (added > 0) {
+			commit();
+		}
+
+		return added;
+	}
+
+	/**
+	 * Adds a stream of elements to our set while holding the write lock once for
+	 * the entire batch. The stream is collected before acquiring the lock, so the
+	 * stream pipeline does not run while other threads are blocked.
+	 */
+	@Override
+	public int addBatch(Stream<? extends E> elements) {
+		List<? extends E> collected = elements.collect(Collectors.toList());
+		return addBatch(collected);
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		lock.writeLock().lock();
+
+		try {
+			super.ensureCapacity(capacity);
+			BloomFilter<E> current = filter;
+
+			if (current != null && capacity > current.capacity()) {
+				filter = build(capacity, current.falsePositiveRate());
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return current.size();
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			int size = super.size();
+
+			if (lock.validate(stamp)) {
+				return size;
+			}
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of elements in our set, giving up if the read lock is
+	 * needed but cannot be acquired within the given time.
+	 *
+	 * @param timeout the maximum time to wait for the lock
+	 * @param unit the time unit of the timeout
+	 * @return number of elements
+	 * @throws TimeoutException if the lock could not be acquired in time
+	 * @throws InterruptedException if interrupted while waiting for the lock
+	 *
+	 * @see #size()
+	 */
+	public int trySize(long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return current.size();
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			int size = super.size();
+
+			if (lock.validate(stamp)) {
+				return size;
+			}
+		}
+
+		acquire(lock.readLock(), timeout, unit);
+
+		try {
+			return super.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Determines whether our set contains the element. If a filter is in use and
+	 * rules out the element, returns false right away without any lock.
+	 *
+	 * @see #useFilter(double)
+	 */
+	@Override
+	public boolean contains(E element) {
+		if (isFiltered(element)) {
+			return false;
+		}
+
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return current.contains(element);
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				boolean found = super.contains(element);
+
+				if (lock.validate(stamp)) {
+					return found;
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.contains(element);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Determines whether our set contains the element, giving up if the read lock
+	 * is needed but cannot be acquired within the given time.
+	 *
+	 * @param element element to search for
+	 * @param timeout the maximum time to wait for the lock
+	 * @param unit the time unit of the timeout
+	 * @return true if the element is contained in our set
+	 * @throws TimeoutException if the lock could not be acquired in time
+	 * @throws InterruptedException if interrupted while waiting for the lock
+	 *
+	 * @see #contains(Object)
+	 */
+	public boolean tryContains(E element, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		if (isFiltered(element)) {
+			return false;
+		}
+
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return current.contains(element);
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				boolean found = super.contains(element);
+
+				if (lock.validate(stamp)) {
+					return found;
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		acquire(lock.readLock(), timeout, unit);
+
+		try {
+			return super.contains(element);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Determines whether our set contains the element without blocking the
+	 * calling thread. If the element can be found without the lock, the returned
+	 * future is already complete. Otherwise, the element is searched for once the
+	 * read lock is granted.
+	 *
+	 * @param element element to search for
+	 * @param executor the executor used to complete the lock future
+	 * @return future completed with true if the element is contained in our set
+	 *
+	 * @see #contains(Object)
+	 * @see SimpleReadWriteLock#readLockAsync(Executor)
+	 */
+	public CompletableFuture<Boolean> containsAsync(E element, Executor executor) {
+		if (isFiltered(element)) {
+			return CompletableFuture.completedFuture(false);
+		}
+
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return CompletableFuture.completedFuture(current.contains(element));
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				boolean found = super.contains(element);
+
+				if (lock.validate(stamp)) {
+					return CompletableFuture.completedFuture(found);
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		return lock.readLockAsync(executor).thenApply(handle -> {
+			try (handle) {
+				return super.contains(element);
+			}
+		});
+	}
+
+	@Override
+	public E get(int index) {
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return index < 0 || index >= current.size() ? null : current.get(index);
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				E element = super.get(index);
+
+				if (lock.validate(stamp)) {
+					return element;
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.get(index);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the element at the specified index based on iteration order, giving up
+	 * if the read lock is needed but cannot be acquired within the given time.
+	 *
+	 * @param index index of element to get
+	 * @param timeout the maximum time to wait for the lock
+	 * @param unit the time unit of the timeout
+	 * @return element at the specified index or null of the index was invalid
+	 * @throws TimeoutException if the lock could not be acquired in time
+	 * @throws InterruptedException if interrupted while waiting for the lock
+	 *
+	 * @see #get(int)
+	 */
+	public E tryGet(int index, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return index < 0 || index >= current.size() ? null : current.get(index);
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				E element = super.get(index);
+
+				if (lock.validate(stamp)) {
+					return element;
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		acquire(lock.readLock(), timeout, unit);
+
+		try {
+			return super.get(index);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the element at the specified index based on iteration order without
+	 * blocking the calling thread. If the element can be found without the lock,
+	 * the returned future is already complete. Otherwise, the element is looked up
+	 * once the read lock is granted.
+	 *
+	 * @param index index of element to get
+	 * @param executor the executor used to complete the lock future
+	 * @return future completed with the element at the specified index or null if
+	 *   the index was invalid
+	 *
+	 * @see #get(int)
+	 * @see SimpleReadWriteLock#readLockAsync(Executor)
+	 */
+	public CompletableFuture<E> getAsync(int index, Executor executor) {
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return CompletableFuture.completedFuture(index < 0 || index >= current.size() ? null : current.get(index));
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				E element = super.get(index);
+
+				if (lock.validate(stamp)) {
+					return CompletableFuture.completedFuture(element);
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		return lock.readLockAsync(executor).thenApply(handle -> {
+			try (handle) {
+				return super.get(index);
+			}
+		});
+	}
+
+	/**
+	 * Determines which of the elements are contained in our set. Searches a
+	 * single snapshot of our set, so the read lock is held only once and only
+	 * briefly (or not at all in snapshot mode), and the result is consistent.
+	 *
+	 * @see #snapshot()
+	 */
+	@Override
+	public BitSet containsAll(List<? extends E> elements) {
+		IndexedStorage<E> current = snapshot();
+		BitSet found = new BitSet(elements.size());
+		int index = 0;
+
+		for (E element : elements) {
+			if (!isFiltered(element) && current.contains(element)) {
+				found.set(index);
+			}
+
+			index++;
+		}
+
+		return found;
+	}
+
+	/**
+	 * Gets the elements in a range of indices from a single snapshot of our set,
+	 * so the read lock is held only once and only briefly (or not at all in
+	 * snapshot mode).
+	 *
+	 * @see #snapshot()
+	 */
+	@Override
+	public List<E> getRange(int from, int to) {
+		IndexedStorage<E> current = snapshot();
+		int start = Math.max(from, 0);
+		int end = Math.min(to, current.size());
+		return start < end ? current.getRange(start, end) : List.of();
+	}
+
+	@Override
+	public int indexOf(E element) {
+		if (isFiltered(element)) {
+			return -1;
+		}
+
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return current.indexOf(element);
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				int index = super.indexOf(element);
+
+				if (lock.validate(stamp)) {
+					return index;
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.indexOf(element);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a view of the elements less than the specified element in a
+	 * snapshot of our set, so it is safe to use while other threads add elements,
+	 * but does not see them.
+	 */
+	@Override
+	public SortedSet<E> headSet(E toElement) {
+		return sorted(snapshot()).headSet(toElement);
+	}
+
+	/**
+	 * Returns a view of the elements greater than or equal to the specified
+	 * element in a snapshot of our set, so it is safe to use while other threads
+	 * add elements, but does not see them.
+	 */
+	@Override
+	public SortedSet<E> tailSet(E fromElement) {
+		return sorted(snapshot()).tailSet(fromElement);
+	}
+
+	/**
+	 * Returns a view of the elements in the range in a snapshot of our set, so it
+	 * is safe to use while other threads add elements, but does not see them.
+	 */
+	@Override
+	public SortedSet<E> subSet(E fromElement, E toElement) {
+		return sorted(snapshot()).subSet(fromElement, toElement);
+	}
+
+	@Override
+	public int rank(E element) {
+		return read(current -> current.rank(element), () -> super.rank(element));
+	}
+
+	@Override
+	public E lower(E element) {
+		return read(current -> current.lower(element), () -> super.lower(element));
+	}
+
+	@Override
+	public E floor(E element) {
+		return read(current -> current.floor(element), () -> super.floor(element));
+	}
+
+	@Override
+	public E ceiling(E element) {
+		return read(current -> current.ceiling(element), () -> super.ceiling(element));
+	}
+
+	@Override
+	public E higher(E element) {
+		return read(current -> current.higher(element), () -> super.higher(element));
+	}
+
+	@Override
+	public int count(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+		return read(current -> current.count(fromElement, fromInclusive, toElement, toInclusive),
+				() -> super.count(fromElement, fromInclusive, toElement, toInclusive));
+	}
+
+	/**
+	 * Runs a query that reads our set more than once, such as a rank followed by
+	 * a get, so that all reads see the same elements. In snapshot mode, runs it on
+	 * the latest snapshot. Otherwise, runs it optimistically without the lock, and
+	 * again with the read lock only if a write happened at the same time.
+	 *
+	 * @param <T> result type
+	 * @param onSnapshot the query on a snapshot
+	 * @param onSet the query on our set
+	 * @return result of the query
+	 */
+	private <T> T read(Function<IndexedStorage<E>, T> onSnapshot, Supplier<T> onSet) {
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return onSnapshot.apply(current);
+		}
+
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				T result = onSet.get();
+
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return onSet.get();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return current.toString();
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.toString();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of our set, so the read lock is held only briefly (or not
+	 * at all in snapshot mode).
+	 *
+	 * @see #snapshot()
+	 */
+	@Override
+	public Set<E> unsortedCopy() {
+		return snapshot();
+	}
+
+	/**
+	 * Returns a sorted view of a snapshot of our set, so the read lock is held
+	 * only briefly (or not at all in snapshot mode), and the elements are sorted
+	 * after it is released. The last view is shared between threads until
+	 * elements are added, and is safe to read from any number of them.
+	 *
+	 * @see SortedView#of(IndexedStorage, SortedView)
+	 */
+	@Override
+	public SortedSet<E> sortedCopy() {
+		IndexedStorage<E> current = snapshot();
+
+		if (current instanceof SortedSet) {
+			return (SortedSet<E>) current;
+		}
+
+		SortedView<E> view = SortedView.of(current, sortedView.get());
+
+		// another thread may have cached a view of a newer snapshot in the meantime
+		sortedView.accumulateAndGet(view,
+				(cached, created) -> cached == null || created.size() > cached.size() ? created : cached);
+		return view;
+	}
+
+	@Override
+	public IndexedStorage<E> snapshot() {
+		IndexedStorage<E> current = snapshot;
+
+		if (current != null) {
+			return current;
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.snapshot();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns a spliterator over a snapshot of this set, so it always sees a
+	 * consistent set of elements, and writes may continue while it is traversed.
+	 * Taking the snapshot takes constant time and holds the read lock only
+	 * briefly (or not at all in snapshot mode).
+	 *
+	 * @see #snapshot()
+	 */
+	@Override
+	public Spliterator<E> spliterator() {
+		return snapshot().spliterator();
+	}
+
+	/**
+	 * Returns a sequential stream over a snapshot of this set.
+	 *
+	 * @see #spliterator()
+	 */
+	@Override
+	public Stream<E> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * Returns a parallel stream over a snapshot of this set. No lock is held
+	 * while the stream runs.
+	 *
+	 * @see #spliterator()
+	 */
+	@Override
+	public Stream<E> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * Saves this set to a file in iteration order. Writes a snapshot of the set,
+	 * so no lock is held while writing the file.
+	 */
+	@Override
+	public void save(Path file, ElementSerializer<E> serializer) throws IOException {
+		IndexedStorage<E> current = snapshot();
+		PersistentStorage.save(file, current, current.isSorted(), serializer);
+	}
+
+	/**
+	 * Returns a snapshot as a sorted set, for the range views. Sorted storage that
+	 * is not a sorted set itself is wrapped in a {@link RangeView}.
+	 *
+	 * @param <E> element type
+	 * @param current a snapshot of our set
+	 * @return the same snapshot as a sorted set
+	 * @throws UnsupportedOperationException if our set is not sorted
+	 */
+	private static <E> SortedSet<E> sorted(IndexedStorage<E> current) {
+		if (current instanceof SortedSet) {
+			return (SortedSet<E>) current;
+		}
+
+		return new RangeView<>(current);
+	}
+
+	/**
+	 * Returns whether the filter rules out an element. Never locks.
+	 *
+	 * @param element element to search for
+	 * @return true if the element is definitely not in our set
+	 */
+	private boolean isFiltered(E element) {
+		BloomFilter<E> current = filter;
+		return current != null && !current.mightContain(element);
+	}
+
+	/**
+	 * Adds an element to our set, and also to the filter if it was not a
+	 * duplicate. Replaces the filter with a larger one once it is full. Every
+	 * write goes through here, so the filter never misses an element. Must be
+	 * called while holding the write lock.
+	 *
+	 * @param element element to add
+	 * @return true if the element was added (false if it was a duplicate)
+	 */
+	private boolean insert(E element) {
+		if (!super.add(element)) {
+			return false;
+		}
+
+		BloomFilter<E> current = filter;
+
+		if (current != null && current.isFull()) {
+			filter = build(super.size() * 2, current.falsePositiveRate());
+		}
+		else if (current != null) {
+			current.add(element);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds elements to our set with {@link #insert(Object)}, iterating over them
+	 * only once, so any {@link Iterable} works. If the number of elements is known
+	 * in advance, makes room for all of them before adding any. Must be called
+	 * while holding the write lock.
+	 *
+	 * @param elements elements to add
+	 * @return the number of elements that were added (not counting duplicates)
+	 */
+	private int insert(Iterable<? extends E> elements) {
+		if (elements instanceof Collection) {
+			super.ensureCapacity(super.size() + ((Collection<?>) elements).size());
+		}
+
+		int added = 0;
+
+		for (E element : elements) {
+			if (insert(element)) {
+				added++;
+			}
+		}
+
+		return added;
+	}
+
+	/**
+	 * Publishes a new snapshot after elements were added, if in snapshot mode.
+	 * Must be called while holding the write lock.
+	 */
+	private void publish() {
+		if (snapshot != null) {
+			snapshot = super.snapshot();
+		}
+	}
+
+	/**
+	 * Builds a filter of all elements in our set. Must be called while holding the
+	 * write lock (or the upgradable lock).
+	 *
+	 * @param capacity the number of elements to size the filter for
+	 * @param falsePositiveRate the false positive rate of the filter
+	 * @return the new filter
+	 */
+	private BloomFilter<E> build(int capacity, double falsePositiveRate) {
+		BloomFilter<E> built = new BloomFilter<>(Math.max(capacity, MIN_FILTER), falsePositiveRate);
+
+		for (E element : super.snapshot()) {
+			built.add(element);
+		}
+
+		return built;
+	}
+
+	/**
+	 * Waits until the elements added by this thread are synced to the write-ahead
+	 * log, if its policy requires it. Called after releasing the write lock, so
+	 * that concurrent writers can share the same sync.
+	 *
+	 * @see WriteAheadLog#commit()
+	 */
+	private void commit() {
+		if (log != null) {
+			log.commit();
+		}
+	}
+
+	/**
+	 * Acquires the lock within the given time or throws an exception.
+	 *
+	 * @param lock the lock to acquire
+	 * @param timeout the maximum time to wait for the lock
+	 * @param unit the time unit of the timeout
+	 * @throws TimeoutException if the lock could not be acquired in time
+	 * @throws InterruptedException if interrupted while waiting for the lock
+	 */
+	private static void acquire(SimpleLock lock, long timeout, TimeUnit unit) throws TimeoutException, InterruptedException {
+		if (!lock.tryLock(timeout, unit)) {
+			throw new TimeoutException("Lock not acquired within " + timeout + " " + unit + ".");
+		}
+	}
 }
@@ -0,0 +1,186 @@
+/**
+ * A thread-safe version of {@link IntIndexedSet} using a read/write lock.
+ *
+ * <p>
+ * Like {@link ThreadSafeIndexedSet}, the {@link #size()},
+ * {@link #contains(int)}, and {@link #get(int)} methods first try an optimistic
+ * read without acquiring any lock, and only fall back to the read lock if a
+ * write happened at the same time. Neither the optimistic reads nor the
+ * uncontended lock acquisitions allocate, so reads and writes on the hot path
+ * produce no garbage.
+ *
+ * @see IntIndexedSet
+ * @see ThreadSafeLongIndexedSet
+ */
+public class ThreadSafeIntIndexedSet extends IntIndexedSet {
+
+	/** The lock used to protect concurrent access to the underlying set. */
+	private final SimpleReadWriteLock lock;
+
+	/**
+	 * Initializes an unsorted thread-safe set.
+	 */
+	public ThreadSafeIntIndexedSet() {
+		this(false);
+	}
+
+	/**
+	 * Initializes a thread-safe set.
+	 *
+	 * @param sorted whether the set should be sorted
+	 */
+	public ThreadSafeIntIndexedSet(boolean sorted) {
+		super(sorted);
+		lock = new SimpleReadWriteLock();
+	}
+
+	/**
+	 * Returns the lock protecting this set. Since the lock is reentrant, callers
+	 * may hold it across several operations on this set to make them atomic.
+	 *
+	 * @return the lock protecting this set
+	 */
+	public SimpleReadWriteLock getLock() {
+		return lock;
+	}
+
+	@Override
+	public boolean add(int value) {
+		lock.writeLock().lock();
+
+		try {
+			return super.add(value);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds an array of values to our set while holding the write lock once for
+	 * the entire batch.
+	 */
+	@Override
+	public int addBatch(int[] values) {
+		lock.writeLock().lock();
+
+		try {
+			return super.addBatch(values);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		lock.writeLock().lock();
+
+		try {
+			super.ensureCapacity(capacity);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			int size = super.size();
+
+			if (lock.validate(stamp)) {
+				return size;
+			}
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean contains(int value) {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				boolean found = super.contains(value);
+
+				if (lock.validate(stamp)) {
+					return found;
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write, so retry below with the lock
+			}
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.contains(value);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int get(int index) {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				int value = super.get(index);
+
+				if (lock.validate(stamp)) {
+					return value;
+				}
+			}
+			catch (RuntimeException e) {
+				// may be caused by a concurrent write or an invalid index, so retry below with the lock
+			}
+		}
+
+		lock.readLock().lock();
+
+		try {
+			return super.get(index);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int[] toArray() {
+		lock.readLock().lock();
+
+		try {
+			return super.toArray();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.readLock().lock();
+
+		try {
+			return super.toString();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+}
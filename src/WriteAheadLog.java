@@ -0,0 +1,675 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of the elements added to an indexed set, so they survive
+ * a crash. Adding an element only copies it into an in-memory buffer, and a
+ * background flusher thread writes and syncs the buffered records in batches
+ * according to a {@link FlushPolicy}. Many writes therefore share a single
+ * sync (group commit), and writers never wait for the disk while holding the
+ * write lock of a set.
+ *
+ * <p>
+ * Each record holds an element followed by a checksum. A record that was only
+ * partially written or is corrupted ends the log, so a crash while writing
+ * loses at most the records that were not synced yet. After a restart, use
+ * {@link #replay(Path, ElementSerializer, IndexedStorage)} or
+ * {@link #recover(Path, ElementSerializer, boolean)} to add the logged elements
+ * back, and then open the log again to keep appending to it.
+ *
+ * <p>
+ * The log is attached to a set by wrapping its storage, either with
+ * {@link #wrap(IndexedStorage)} or by passing the log to
+ * {@link ThreadSafeIndexedSet#ThreadSafeIndexedSet(IndexedStorage, boolean, WriteAheadLog)}.
+ * All methods may be called by multiple threads at the same time.
+ *
+ * @param <E> element type stored in the log
+ *
+ * @see PersistentStorage
+ */
+public class WriteAheadLog<E> implements Closeable {
+
+	/**
+	 * Decides when buffered records are written and synced to the log.
+	 */
+	public static final class FlushPolicy {
+
+		/** Whether writers wait until their records are synced. */
+		private final boolean sync;
+
+		/** Number of buffered records that triggers a flush, or zero if unused. */
+		private final int records;
+
+		/** Maximum time a record is buffered before a flush, or zero if unused. */
+		private final long nanos;
+
+		/**
+		 * Initializes a flush policy.
+		 *
+		 * @param sync whether writers wait until their records are synced
+		 * @param records number of buffered records that triggers a flush
+		 * @param nanos maximum time a record is buffered before a flush
+		 */
+		private FlushPolicy(boolean sync, int records, long nanos) {
+			this.sync = sync;
+			this.records = records;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * Returns a policy that flushes as soon as possible, and makes writers of
+		 * a {@link ThreadSafeIndexedSet} wait until their elements are synced. The
+		 * write lock is released before waiting, so concurrent writers still share
+		 * syncs.
+		 *
+		 * @return a synchronous policy
+		 */
+		public static FlushPolicy sync() {
+			return new FlushPolicy(true, 1, 0);
+		}
+
+		/**
+		 * Returns a policy that flushes once the specified number of records is
+		 * buffered. Records are also flushed when the log is closed.
+		 *
+		 * @param records number of buffered records that triggers a flush
+		 * @return a policy based on the number of records
+		 */
+		public static FlushPolicy everyRecords(int records) {
+			if (records < 1) {
+				throw new IllegalArgumentException("Record count must be positive.");
+			}
+
+			return new FlushPolicy(false, records, 0);
+		}
+
+		/**
+		 * Returns a policy that flushes records at most the specified time after
+		 * they were buffered.
+		 *
+		 * @param millis maximum time in milliseconds a record is buffered
+		 * @return a policy based on time
+		 */
+		public static FlushPolicy everyMillis(long millis) {
+			if (millis < 1) {
+				throw new IllegalArgumentException("Interval must be positive.");
+			}
+
+			return new FlushPolicy(false, 0, TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+
+		@Override
+		public String toString() {
+			if (sync) {
+				return "sync";
+			}
+
+			return records > 0 ? "every " + records + " records" : "every " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+		}
+	}
+
+	/** Initial capacity of the record buffers in bytes. */
+	private static final int BUFFER_SIZE = 1 << 12;
+
+	/** Converts elements to and from bytes. */
+	private final ElementSerializer<E> serializer;
+
+	/** Decides when buffered records are flushed. */
+	private final FlushPolicy policy;
+
+	/** The log file, positioned at its end. */
+	private final FileChannel channel;
+
+	/** Guards the buffers and counters. */
+	private final ReentrantLock guard;
+
+	/** Signals the flusher that records may need to be flushed. */
+	private final Condition flushable;
+
+	/** Signals writers that records were synced. */
+	private final Condition synced;
+
+	/** Computes the checksum of each record. */
+	private final CRC32C checksum;
+
+	/** Records waiting to be flushed. */
+	private ByteBuffer pending;
+
+	/** An empty buffer to swap with the pending records when flushing. */
+	private ByteBuffer spare;
+
+	/** Number of records appended since the log was opened. */
+	private long appended;
+
+	/** Number of records synced since the log was opened. */
+	private long durable;
+
+	/** Time the oldest pending record was buffered. */
+	private long oldest;
+
+	/** Whether the log has been closed. */
+	private boolean closed;
+
+	/** The first failure to write the log, or null if there was none. */
+	private IOException failure;
+
+	/** Writes and syncs the pending records. */
+	private final Thread flusher;
+
+	/**
+	 * Initializes a log that appends to an opened file.
+	 *
+	 * @param channel the log file, positioned at its end
+	 * @param serializer converts elements to and from bytes
+	 * @param policy decides when buffered records are flushed
+	 */
+	private WriteAheadLog(FileChannel channel, ElementSerializer<E> serializer, FlushPolicy policy) {
+		this.serializer = serializer;
+		this.policy = policy;
+		this.channel = channel;
+		this.guard = new ReentrantLock();
+		this.flushable = guard.newCondition();
+		this.synced = guard.newCondition();
+		this.checksum = new CRC32C();
+		this.pending = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.spare = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		this.appended = 0;
+		this.durable = 0;
+		this.closed = false;
+		this.failure = null;
+		this.flusher = new Thread(this::flush, "WriteAheadLog flusher");
+		this.flusher.setDaemon(true);
+	}
+
+	/**
+	 * Opens a log for appending, creating the file if it does not exist yet. A
+	 * partial or corrupted record at the end of the log is discarded first, so
+	 * any elements should be replayed before opening the log.
+	 *
+	 * @param <E> element type stored in the log
+	 * @param file the log file
+	 * @param serializer converts elements to and from bytes
+	 * @param policy decides when buffered records are written and synced
+	 * @return the opened log
+	 * @throws IOException if the file could not be opened
+	 *
+	 * @see #replay(Path, ElementSerializer, IndexedStorage)
+	 */
+	public static <E> WriteAheadLog<E> open(Path file, ElementSerializer<E> serializer, FlushPolicy policy)
+			throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			long valid = scan(channel, serializer, element -> {});
+			channel.truncate(valid);
+			channel.position(valid);
+		}
+		catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		WriteAheadLog<E> log = new WriteAheadLog<E>(channel, serializer, policy);
+		log.flusher.start();
+		return log;
+	}
+
+	/**
+	 * Adds every element in a log to the storage, stopping at the first partial
+	 * or corrupted record. Does nothing if the log does not exist.
+	 *
+	 * @param <E> element type stored in the log
+	 * @param file the log file
+	 * @param serializer converts elements to and from bytes
+	 * @param storage the storage to add the elements to
+	 * @return the number of elements that were added (not counting duplicates)
+	 * @throws IOException if the log could not be read
+	 */
+	public static <E> int replay(Path file, ElementSerializer<E> serializer, IndexedStorage<E> storage)
+			throws IOException {
+		if (!Files.exists(file)) {
+			return 0;
+		}
+
+		int[] added = { 0 };
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			scan(channel, serializer, element -> {
+				if (storage.add(element)) {
+					added[0]++;
+				}
+			});
+		}
+
+		return added[0];
+	}
+
+	/**
+	 * Returns a new set with every element in a log.
+	 *
+	 * @param <E> element type stored in the log
+	 * @param file the log file
+	 * @param serializer converts elements to and from bytes
+	 * @param sorted whether the set should be sorted
+	 * @return the recovered set
+	 * @throws IOException if the log could not be read
+	 *
+	 * @see #replay(Path, ElementSerializer, IndexedStorage)
+	 */
+	public static <E> IndexedSet<E> recover(Path file, ElementSerializer<E> serializer, boolean sorted)
+			throws IOException {
+		IndexedStorage<E> storage = sorted ? new OrderStatisticTree<E>() : new InsertionOrderedSet<E>();
+		replay(file, serializer, storage);
+		return new IndexedSet<E>(storage);
+	}
+
+	/**
+	 * Reads every valid record in a log from the start.
+	 *
+	 * @param <E> element type stored in the log
+	 * @param channel the log file
+	 * @param serializer converts elements to and from bytes
+	 * @param action called with the element of every valid record
+	 * @return the length of the valid records in bytes
+	 * @throws IOException if the log could not be read
+	 */
+	private static <E> long scan(FileChannel channel, ElementSerializer<E> serializer, Consumer<E> action)
+			throws IOException {
+		int width = serializer.width();
+		int stride = width + Integer.BYTES;
+		long length = channel.size() - channel.size() % stride;
+		ByteBuffer block = ByteBuffer.allocate(stride * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32C checksum = new CRC32C();
+
+		for (long position = 0; position < length; position += block.limit()) {
+			block.clear();
+			block.limit((int) Math.min(block.capacity(), length - position));
+
+			while (block.hasRemaining()) {
+				if (channel.read(block, position + block.position()) < 0) {
+					throw new EOFException("Truncated log.");
+				}
+			}
+
+			for (int offset = 0; offset < block.limit(); offset += stride) {
+				checksum.reset();
+				checksum.update(block.array(), offset, width);
+
+				if ((int) checksum.getValue() != block.getInt(offset + width)) {
+					return position + offset;
+				}
+
+				action.accept(serializer.read(block, offset));
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * Returns the policy that decides when buffered records are flushed.
+	 *
+	 * @return the flush policy
+	 */
+	public FlushPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Buffers a record of an added element. Only copies the element, so this may
+	 * be called while holding the write lock of a set.
+	 *
+	 * @param element the element that was added
+	 * @return the sequence number of the record
+	 * @throws IllegalStateException if the log was closed
+	 * @throws UncheckedIOException if an earlier flush failed
+	 */
+	public long append(E element) {
+		int width = serializer.width();
+		guard.lock();
+
+		try {
+			if (closed) {
+				throw new IllegalStateException("Write-ahead log is closed.");
+			}
+
+			if (failure != null) {
+				throw new UncheckedIOException("Write-ahead log failed.", failure);
+			}
+
+			if (pending.remaining() < width + Integer.BYTES) {
+				int capacity = Math.max(pending.capacity() * 2, pending.position() + width + Integer.BYTES);
+				ByteBuffer larger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+				pending.flip();
+				larger.put(pending);
+				pending = larger;
+			}
+
+			int offset = pending.position();
+			serializer.write(element, pending, offset);
+			checksum.reset();
+			checksum.update(pending.array(), offset, width);
+			pending.putInt(offset + width, (int) checksum.getValue());
+			pending.position(offset + width + Integer.BYTES);
+
+			long buffered = ++appended - durable;
+
+			if (buffered == 1) {
+				oldest = System.nanoTime();
+			}
+
+			if (policy.sync || buffered == 1 || buffered == policy.records) {
+				flushable.signal();
+			}
+
+			return appended;
+		}
+		finally {
+			guard.unlock();
+		}
+	}
+
+	/**
+	 * Waits until every record appended so far is synced, if the policy is
+	 * {@link FlushPolicy#sync()}. Returns immediately for other policies.
+	 *
+	 * @throws UncheckedIOException if the records could not be written
+	 */
+	public void commit() {
+		if (policy.sync) {
+			guard.lock();
+
+			try {
+				await(appended);
+			}
+			finally {
+				guard.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Writes and syncs every record appended so far, regardless of the policy.
+	 *
+	 * @throws UncheckedIOException if the records could not be written
+	 */
+	public void sync() {
+		guard.lock();
+
+		try {
+			await(appended);
+		}
+		finally {
+			guard.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the specified number of records is synced. Must be called while
+	 * holding the guard. Wakes the flusher before every wait, since a wake-up can
+	 * take the caller off the list of waiters the flusher checks for.
+	 *
+	 * @param sequence the sequence number of the last record to wait for
+	 * @throws UncheckedIOException if the records could not be written
+	 */
+	private void await(long sequence) {
+		while (durable < sequence && failure == null) {
+			flushable.signal();
+			synced.awaitUninterruptibly();
+		}
+
+		if (durable < sequence) {
+			throw new UncheckedIOException("Write-ahead log failed.", failure);
+		}
+	}
+
+	/**
+	 * Returns whether the pending records should be flushed now, either because
+	 * of the policy or because someone is waiting for them. Must be called while
+	 * holding the guard.
+	 *
+	 * @param buffered number of pending records
+	 * @return true if the pending records should be flushed
+	 */
+	private boolean due(long buffered) {
+		if (buffered == 0) {
+			return false;
+		}
+
+		return closed || policy.sync || guard.hasWaiters(synced)
+				|| (policy.records > 0 && buffered >= policy.records)
+				|| (policy.nanos > 0 && System.nanoTime() - oldest >= policy.nanos);
+	}
+
+	/**
+	 * Runs the flusher thread, which writes and syncs the pending records
+	 * whenever the policy says so, until the log is closed and every record is
+	 * synced. Records are written without holding the guard, so writers can keep
+	 * appending in the meantime.
+	 */
+	private void flush() {
+		guard.lock();
+
+		try {
+			while (true) {
+				long buffered = appended - durable;
+
+				if (!due(buffered)) {
+					if (closed && buffered == 0) {
+						return;
+					}
+
+					if (buffered > 0 && policy.nanos > 0) {
+						flushable.awaitNanos(policy.nanos - (System.nanoTime() - oldest));
+					}
+					else {
+						flushable.awaitUninterruptibly();
+					}
+
+					continue;
+				}
+
+				ByteBuffer batch = pending;
+				long sequence = appended;
+				pending = spare;
+				guard.unlock();
+
+				IOException error = null;
+
+				try {
+					batch.flip();
+
+					while (batch.hasRemaining()) {
+						channel.write(batch);
+					}
+
+					channel.force(false);
+				}
+				catch (IOException e) {
+					error = e;
+				}
+				finally {
+					guard.lock();
+				}
+
+				batch.clear();
+				spare = batch;
+
+				if (error != null) {
+					failure = error;
+					synced.signalAll();
+					return;
+				}
+
+				durable = sequence;
+				synced.signalAll();
+			}
+		}
+		catch (InterruptedException e) {
+			failure = new InterruptedIOException("Write-ahead log flusher was interrupted.");
+			synced.signalAll();
+		}
+		finally {
+			guard.unlock();
+		}
+	}
+
+	/**
+	 * Flushes every remaining record and closes the log. Records appended after
+	 * this are rejected.
+	 *
+	 * @throws IOException if the remaining records could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		guard.lock();
+
+		try {
+			closed = true;
+			flushable.signal();
+		}
+		finally {
+			guard.unlock();
+		}
+
+		try {
+			flusher.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			channel.close();
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Returns storage that appends a record to this log for every element added
+	 * to the specified storage.
+	 *
+	 * @param storage the storage to wrap
+	 * @return storage that logs added elements
+	 */
+	public IndexedStorage<E> wrap(IndexedStorage<E> storage) {
+		return new LoggedStorage<E>(storage, this);
+	}
+
+	/**
+	 * Storage that appends a record to a log for every added element, and
+	 * otherwise passes all calls through to the wrapped storage.
+	 *
+	 * @param <E> element type stored in the set
+	 */
+	private static class LoggedStorage<E> extends AbstractSet<E> implements IndexedStorage<E> {
+
+		/** The wrapped storage. */
+		private final IndexedStorage<E> storage;
+
+		/** The log of added elements. */
+		private final WriteAheadLog<E> log;
+
+		/**
+		 * Initializes storage that logs added elements.
+		 *
+		 * @param storage the wrapped storage
+		 * @param log the log of added elements
+		 */
+		public LoggedStorage(IndexedStorage<E> storage, WriteAheadLog<E> log) {
+			this.storage = storage;
+			this.log = log;
+		}
+
+		@Override
+		public boolean add(E element) {
+			if (!storage.add(element)) {
+				return false;
+			}
+
+			log.append(element);
+			return true;
+		}
+
+		@Override
+		public boolean contains(Object element) {
+			return storage.contains(element);
+		}
+
+		@Override
+		public E get(int index) {
+			return storage.get(index);
+		}
+
+		@Override
+		public int indexOf(Object element) {
+			return storage.indexOf(element);
+		}
+
+		@Override
+		public List<E> getRange(int from, int to) {
+			return storage.getRange(from, to);
+		}
+
+		@Override
+		public int rank(Object element) {
+			return storage.rank(element);
+		}
+
+		@Override
+		public Spliterator<E> spliterator() {
+			return storage.spliterator();
+		}
+
+		@Override
+		public int size() {
+			return storage.size();
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			return storage.iterator();
+		}
+
+		@Override
+		public void ensureCapacity(int capacity) {
+			storage.ensureCapacity(capacity);
+		}
+
+		@Override
+		public boolean isSorted() {
+			return storage.isSorted();
+		}
+
+		@Override
+		public IndexedStorage<E> snapshot() {
+			return storage.snapshot();
+		}
+
+		@Override
+		public String toString() {
+			return storage.toString();
+		}
+	}
+}
@@ -0,0 +1,266 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests asynchronous acquisition of the {@link SimpleReadWriteLock} and the
+ * matching {@link ThreadSafeIndexedSet} operations.
+ */
+@SuppressWarnings("javadoc")
+public class AsyncLockTest {
+
+	/** Timeout used for futures that are expected to complete. */
+	public static final long GENEROUS = 5000;
+
+	/**
+	 * Waits for a future that is expected to complete.
+	 *
+	 * @param <T> result type
+	 * @param future the future to wait for
+	 * @return the result of the future
+	 * @throws Exception if the future failed or did not complete in time
+	 */
+	private static <T> T await(CompletableFuture<T> future) throws Exception {
+		return future.get(GENEROUS, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void testAsyncRead() throws Exception {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		LockHandle first = await(lock.readLockAsync(Runnable::run));
+		LockHandle second = await(lock.readLockAsync(Runnable::run));
+
+		Assertions.assertFalse(first.isWrite());
+		Assertions.assertFalse(TryLockTest.tryElsewhere(lock.writeLock(), 0));
+
+		first.close();
+		second.close();
+
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> first.close());
+		Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), 0));
+	}
+
+	@Test
+	public void testAsyncWriteWaits() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+				SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+				AtomicInteger tasks = new AtomicInteger();
+
+				lock.readLock().lock();
+
+				CompletableFuture<LockHandle> future = lock.writeLockAsync(task -> {
+					tasks.incrementAndGet();
+					executor.execute(task);
+				});
+
+				// the request waits without holding any thread, including this one
+				Thread.sleep(TryLockTest.TIMEOUT);
+				Assertions.assertFalse(future.isDone(), fairness::toString);
+
+				lock.readLock().unlock();
+
+				try (LockHandle handle = await(future)) {
+					Assertions.assertTrue(handle.isWrite(), fairness::toString);
+					Assertions.assertEquals(1, tasks.get(), fairness::toString);
+					Assertions.assertFalse(TryLockTest.tryElsewhere(lock.readLock(), 0), fairness::toString);
+				}
+
+				Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), 0), fairness::toString);
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testReleasedByOtherThread() throws Exception {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		LockHandle handle = await(lock.writeLockAsync(Runnable::run));
+
+		// the handle holds the lock, not the thread that requested it
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> lock.writeLock().unlock());
+
+		Thread other = new Thread(handle::close);
+		other.start();
+		other.join();
+
+		Assertions.assertTrue(lock.writeLock().tryLock());
+		lock.writeLock().unlock();
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+			lock.writeLock().lock();
+
+			CompletableFuture<LockHandle> writer = lock.writeLockAsync(Runnable::run);
+			CompletableFuture<LockHandle> reader = lock.readLockAsync(Runnable::run);
+
+			Assertions.assertTrue(writer.cancel(false), fairness::toString);
+			Assertions.assertTrue(reader.cancel(false), fairness::toString);
+
+			lock.writeLock().unlock();
+
+			// neither cancelled request may still hold or wait for the lock
+			Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), TryLockTest.GENEROUS), fairness::toString);
+		}
+	}
+
+	@Test
+	public void testRejected() throws Exception {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		CompletableFuture<LockHandle> future = lock.writeLockAsync(task -> {
+			throw new RejectedExecutionException();
+		});
+
+		Assertions.assertTrue(future.isCompletedExceptionally());
+		Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), TryLockTest.GENEROUS));
+	}
+
+	@Test
+	public void testStripedEventLoop() throws Exception {
+		ExecutorService loop = Executors.newSingleThreadExecutor();
+
+		try {
+			for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+				SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness, true);
+
+				// a striped reader on the loop, whose release is queued on the same loop
+				await(CompletableFuture.runAsync(() -> lock.readLock().lock(), loop));
+				CompletableFuture<LockHandle> future = lock.writeLockAsync(loop);
+				CompletableFuture<Void> released = CompletableFuture.runAsync(() -> lock.readLock().unlock(), loop);
+
+				try (LockHandle handle = await(future)) {
+					Assertions.assertTrue(handle.isWrite(), fairness::toString);
+					Assertions.assertTrue(released.isDone(), fairness::toString);
+				}
+
+				Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), 0), fairness::toString);
+			}
+		}
+		finally {
+			loop.shutdown();
+		}
+	}
+
+	@Test
+	public void testStripedRace() throws Exception {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness, true);
+			AtomicBoolean done = new AtomicBoolean();
+			List<Thread> readers = new ArrayList<>();
+
+			// readers keep arriving while the bias is revoked and restored, so some back out of a stripe
+			for (int i = 0; i < 4; i++) {
+				readers.add(new Thread(() -> {
+					while (!done.get()) {
+						lock.readLock().lock();
+						lock.readLock().unlock();
+					}
+				}));
+			}
+
+			for (Thread reader : readers) {
+				// a lost wake-up leaves readers queued forever, so they must not keep the tests running
+				reader.setDaemon(true);
+				reader.start();
+			}
+
+			try {
+				for (int i = 0; i < 2000; i++) {
+					// the future must complete even if the last striped reader left during a back out
+					await(lock.writeLockAsync(Runnable::run)).close();
+				}
+			}
+			finally {
+				done.set(true);
+
+				for (Thread reader : readers) {
+					reader.join(GENEROUS);
+				}
+			}
+
+			Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), 0), fairness::toString);
+		}
+	}
+
+	@Test
+	public void testMutualExclusion() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+				SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness, true);
+				long[] pair = new long[2];
+				List<CompletableFuture<?>> futures = new ArrayList<>();
+
+				for (int i = 0; i < 2000; i++) {
+					futures.add(lock.writeLockAsync(executor).thenAccept(handle -> {
+						try (handle) {
+							pair[0]++;
+							Thread.yield();
+							pair[1]++;
+						}
+					}));
+
+					futures.add(lock.readLockAsync(executor).thenAccept(handle -> {
+						try (handle) {
+							Assertions.assertEquals(pair[0], pair[1]);
+						}
+					}));
+				}
+
+				await(CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])));
+				Assertions.assertEquals(2000, pair[0], fairness::toString);
+				Assertions.assertEquals(2000, pair[1], fairness::toString);
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSetAsync() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			ThreadSafeIndexedSet<String> set = new ThreadSafeIndexedSet<>();
+			set.add("a");
+
+			set.getLock().writeLock().lock();
+
+			CompletableFuture<Boolean> added = set.addAsync("b", executor);
+			CompletableFuture<Boolean> duplicate = set.addAsync("a", executor);
+
+			Thread.sleep(TryLockTest.TIMEOUT);
+			Assertions.assertFalse(added.isDone());
+
+			set.getLock().writeLock().unlock();
+
+			Assertions.assertTrue(await(added));
+			Assertions.assertFalse(await(duplicate));
+			Assertions.assertTrue(await(set.containsAsync("b", executor)));
+			Assertions.assertFalse(await(set.containsAsync("c", executor)));
+			Assertions.assertEquals("b", await(set.getAsync(1, executor)));
+			Assertions.assertNull(await(set.getAsync(2, executor)));
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link BloomFilter} class, both directly and in front of a
+ * {@link ThreadSafeIndexedSet}.
+ */
+@SuppressWarnings("javadoc")
+public class BloomFilterTest {
+
+	@Test
+	public void testFalsePositiveRate() {
+		for (double rate : new double[] { 0.1, 0.01, 0.001 }) {
+			BloomFilter<Integer> filter = new BloomFilter<>(10000, rate);
+
+			for (int value = 0; value < 10000; value++) {
+				filter.add(value);
+			}
+
+			// an element whose bits were all set already is not counted
+			Assertions.assertTrue(filter.count() >= 10000 * (1 - rate));
+			Assertions.assertFalse(filter.add(0));
+
+			for (int value = 0; value < 10000; value++) {
+				Assertions.assertTrue(filter.mightContain(value));
+			}
+
+			int positives = 0;
+
+			for (int value = 0; value < 100000; value++) {
+				if (filter.mightContain(-1 - value)) {
+					positives++;
+				}
+			}
+
+			double measured = positives / 100000.0;
+			Assertions.assertTrue(measured <= rate * 1.5, () -> filter + " has false positive rate " + measured);
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new BloomFilter<Integer>(0, 0.1));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new BloomFilter<Integer>(10, 0));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new BloomFilter<Integer>(10, 1));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new BloomFilter<Integer>(10, Double.NaN));
+
+		// sorted sets match elements by comparison, which the filter cannot hash
+		ThreadSafeIndexedSet<BigDecimal> sorted = new ThreadSafeIndexedSet<>(true);
+		sorted.add(new BigDecimal("1.0"));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> sorted.useFilter(0.01));
+		Assertions.assertFalse(sorted.usesFilter());
+		Assertions.assertTrue(sorted.contains(new BigDecimal("1.00")));
+	}
+
+	@Test
+	public void testFilteredSet() throws InterruptedException {
+		for (boolean snapshots : new boolean[] { false, true }) {
+			ThreadSafeIndexedSet<Integer> set = new ThreadSafeIndexedSet<>(false, snapshots);
+			set.add(-1);
+			set.useFilter(0.01);
+			Assertions.assertTrue(set.usesFilter());
+			Assertions.assertTrue(set.contains(-1));
+
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < 5; i++) {
+				int offset = i * 2000;
+
+				workers.add(new Thread(() -> {
+					// grows far past the initial filter, so it is rebuilt several times
+					for (int value = offset; value < offset + 2000; value++) {
+						Assertions.assertFalse(set.contains(value));
+						set.add(value);
+						Assertions.assertTrue(set.contains(value));
+						Assertions.assertTrue(set.contains(offset + (value - offset) / 2));
+					}
+				}));
+			}
+
+			ThreadSafeIndexedSetTest.assertConcurrent("testFilteredSet()", workers, 30000);
+
+			List<Integer> batch = new ArrayList<>();
+
+			for (int value = 10000; value < 20000; value++) {
+				batch.add(value);
+			}
+
+			set.ensureCapacity(20000);
+			Assertions.assertEquals(5000, set.addBatch(batch.subList(0, 5000)));
+			Assertions.assertEquals(5000, set.addBatch(batch.subList(5000, 10000), 1000));
+			Assertions.assertFalse(set.addAll(batch.subList(7500, 10000)));
+			Assertions.assertEquals(20001, set.size());
+
+			for (int value = -1; value < 20000; value++) {
+				Assertions.assertTrue(set.contains(value));
+			}
+
+			Assertions.assertFalse(set.contains(20000));
+			Assertions.assertFalse(set.contains(-2));
+
+			// an iterable that can only be iterated once still reaches the filter
+			Iterator<Integer> once = IntStream.range(20000, 21000).boxed().iterator();
+			Assertions.assertEquals(1000, set.addBatch(() -> once));
+
+			for (int value = 20000; value < 21000; value++) {
+				Assertions.assertTrue(set.contains(value));
+			}
+		}
+	}
+}
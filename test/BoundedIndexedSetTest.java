@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link BoundedIndexedSet} class.
+ */
+@SuppressWarnings("javadoc")
+public class BoundedIndexedSetTest {
+
+	/**
+	 * Returns the elements of a set by index.
+	 *
+	 * @param set the set to read
+	 * @return elements in iteration order
+	 */
+	private static List<Integer> elements(BoundedIndexedSet<Integer> set) {
+		List<Integer> elements = new ArrayList<>();
+
+		for (int i = 0; i < set.size(); i++) {
+			elements.add(set.get(i));
+		}
+
+		Assertions.assertNull(set.get(set.size()));
+		Assertions.assertNull(set.get(-1));
+		return elements;
+	}
+
+	@Test
+	public void testLru() {
+		BoundedIndexedSet<Integer> set = new BoundedIndexedSet<>(3);
+
+		Assertions.assertTrue(set.add(1));
+		Assertions.assertTrue(set.add(2));
+		Assertions.assertTrue(set.add(3));
+		Assertions.assertFalse(set.add(1));
+
+		// 2 is the least recently used, since adding 1 again counts as a use
+		Assertions.assertTrue(set.add(4));
+		Assertions.assertEquals(List.of(1, 3, 4), elements(set));
+
+		// so is a hit, once the buffered hits are applied by the next write
+		Assertions.assertTrue(set.contains(3));
+		Assertions.assertFalse(set.contains(2));
+		Assertions.assertTrue(set.add(5));
+		Assertions.assertEquals(List.of(3, 4, 5), elements(set));
+
+		Assertions.assertEquals(1, set.getHits());
+		Assertions.assertEquals(1, set.getMisses());
+		Assertions.assertEquals(2, set.getEvictions());
+		Assertions.assertEquals(0, set.getRejections());
+		Assertions.assertEquals(List.of(3, 4, 5), new ArrayList<>(set.sortedCopy()));
+	}
+
+	@Test
+	public void testCompaction() {
+		BoundedIndexedSet<Integer> set = new BoundedIndexedSet<>(100);
+
+		for (int value = 0; value < 10000; value++) {
+			set.add(value);
+
+			// keeps every third element in use, so evictions leave holes everywhere
+			if (value % 3 == 0) {
+				for (int used = Math.max(0, value - 150); used <= value; used += 3) {
+					set.contains(used);
+				}
+			}
+
+			Assertions.assertEquals(Math.min(value + 1, 100), set.size());
+		}
+
+		List<Integer> elements = elements(set);
+		Assertions.assertEquals(set.unsortedCopy().size(), elements.size());
+		Assertions.assertEquals(elements.stream().sorted().collect(Collectors.toList()), elements);
+		Assertions.assertEquals(10000 - 100, set.getEvictions());
+		Assertions.assertTrue(set.contains(9999));
+	}
+
+	@Test
+	public void testLfu() {
+		BoundedIndexedSet<Integer> set = new BoundedIndexedSet<>(10, BoundedIndexedSet.Eviction.LFU);
+
+		for (int round = 0; round < 5; round++) {
+			for (int value = 0; value < 10; value++) {
+				set.add(value);
+			}
+		}
+
+		// a scan of elements used only once does not push out the ones still in use
+		for (int value = 100; value < 1000; value++) {
+			Assertions.assertFalse(set.add(value));
+			Assertions.assertFalse(set.contains(value));
+			Assertions.assertTrue(set.contains(value % 10));
+		}
+
+		Assertions.assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toList()), elements(set));
+		Assertions.assertEquals(0, set.getEvictions());
+		Assertions.assertEquals(900, set.getRejections());
+
+		// but an element used more often than the least recently used one is admitted
+		set = new BoundedIndexedSet<>(10, BoundedIndexedSet.Eviction.LFU);
+
+		for (int value = 0; value < 10; value++) {
+			set.add(value);
+		}
+
+		Assertions.assertFalse(set.add(1000));
+		Assertions.assertFalse(set.contains(1000));
+		Assertions.assertEquals(1, set.getRejections());
+		Assertions.assertTrue(set.add(1000));
+		Assertions.assertTrue(set.contains(1000));
+		Assertions.assertFalse(set.contains(0));
+		Assertions.assertEquals(10, set.size());
+		Assertions.assertEquals(1, set.getEvictions());
+	}
+
+	@Test
+	public void testTtl() {
+		AtomicLong now = new AtomicLong();
+		BoundedIndexedSet<Integer> set = new BoundedIndexedSet<>(100, BoundedIndexedSet.Eviction.LRU, 10,
+				TimeUnit.SECONDS, now::get);
+
+		for (int value = 0; value < 10; value++) {
+			set.add(value);
+			now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+		}
+
+		// elements 0 to 3 have expired, even though nothing was written since
+		now.addAndGet(TimeUnit.SECONDS.toNanos(3));
+		Assertions.assertEquals(6, set.size());
+		Assertions.assertEquals(List.of(4, 5, 6, 7, 8, 9), elements(set));
+		Assertions.assertFalse(set.contains(3));
+		Assertions.assertTrue(set.contains(4));
+
+		// the next write removes them, and an expired element can be added again
+		Assertions.assertTrue(set.add(0));
+		Assertions.assertEquals(4, set.getEvictions());
+		Assertions.assertEquals(List.of(4, 5, 6, 7, 8, 9, 0), elements(set));
+
+		now.addAndGet(TimeUnit.SECONDS.toNanos(100));
+		Assertions.assertEquals(0, set.size());
+		Assertions.assertTrue(set.unsortedCopy().isEmpty());
+		Assertions.assertNull(set.get(0));
+	}
+
+	@Test
+	public void testThreadSafe() throws InterruptedException {
+		for (BoundedIndexedSet.Eviction eviction : BoundedIndexedSet.Eviction.values()) {
+			BoundedIndexedSet<Integer> set = new BoundedIndexedSet<>(500, eviction);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < 5; i++) {
+				int offset = i * 1000;
+
+				workers.add(new Thread(() -> {
+					for (int value = offset; value < offset + 2000; value++) {
+						set.add(value);
+						set.contains(value - 10);
+
+						// without a time to live, the size never shrinks
+						int size = set.size();
+						Assertions.assertTrue(size <= 500);
+						Assertions.assertNotNull(set.get(size - 1));
+					}
+				}));
+			}
+
+			ThreadSafeIndexedSetTest.assertConcurrent("testThreadSafe()", workers, 30000);
+			Assertions.assertEquals(500, set.size());
+			Assertions.assertEquals(500, set.unsortedCopy().size());
+			Assertions.assertEquals(5 * 2000, set.getHits() + set.getMisses());
+		}
+	}
+
+	@Test
+	public void testInvalid() {
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new BoundedIndexedSet<Integer>(0));
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> new BoundedIndexedSet<Integer>(1, BoundedIndexedSet.Eviction.LRU, -1, TimeUnit.SECONDS));
+		Assertions.assertThrows(NullPointerException.class, () -> new BoundedIndexedSet<Integer>(1).add(null));
+	}
+}
@@ -0,0 +1,321 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class IndexedSetTest {
+
+	/**
+	 * Creates a list of distinct random integers in a repeatable way.
+	 *
+	 * @param size number of integers to create
+	 * @return list of distinct integers in random order
+	 */
+	private static List<Integer> randomIntegers(int size) {
+		Random random = new Random(212);
+		TreeSet<Integer> seen = new TreeSet<>();
+		List<Integer> values = new ArrayList<>();
+
+		while (values.size() < size) {
+			int value = random.nextInt();
+
+			if (seen.add(value)) {
+				values.add(value);
+			}
+		}
+
+		return values;
+	}
+
+	@Test
+	public void testUnsortedInsertionOrder() {
+		List<Integer> values = randomIntegers(1000);
+		IndexedSet<Integer> set = new IndexedSet<>(false);
+
+		for (Integer value : values) {
+			Assertions.assertTrue(set.add(value));
+			Assertions.assertFalse(set.add(value));
+		}
+
+		Assertions.assertEquals(values.size(), set.size());
+
+		for (int i = 0; i < values.size(); i++) {
+			Assertions.assertEquals(values.get(i), set.get(i));
+			Assertions.assertTrue(set.contains(values.get(i)));
+		}
+
+		Assertions.assertFalse(set.contains(null));
+		Assertions.assertEquals(new TreeSet<>(values), set.sortedCopy());
+	}
+
+	@Test
+	public void testSortedOrder() {
+		List<Integer> values = randomIntegers(1000);
+		IndexedSet<Integer> set = new IndexedSet<>(true);
+		Assertions.assertTrue(set.addAll(values));
+		Assertions.assertFalse(set.addAll(values));
+
+		TreeSet<Integer> expected = new TreeSet<>(values);
+		Iterator<Integer> iterator = expected.iterator();
+
+		for (int i = 0; i < expected.size(); i++) {
+			Assertions.assertEquals(iterator.next(), set.get(i));
+		}
+
+		Assertions.assertEquals(expected, set.sortedCopy());
+		Assertions.assertEquals(expected.toString(), set.toString());
+	}
+
+	@Test
+	public void testInvalidIndex() {
+		IndexedSet<String> sorted = new IndexedSet<>(true);
+		IndexedSet<String> unsorted = new IndexedSet<>(false);
+
+		for (IndexedSet<String> set : List.of(sorted, unsorted)) {
+			Assertions.assertNull(set.get(0));
+			set.add("hello");
+			Assertions.assertEquals("hello", set.get(0));
+			Assertions.assertNull(set.get(-1));
+			Assertions.assertNull(set.get(1));
+		}
+	}
+
+	@Test
+	public void testIndexedLoop() {
+		// looping over every index used to take quadratic time
+		List<Integer> values = randomIntegers(500000);
+
+		Assertions.assertTimeoutPreemptively(Duration.ofMillis(10000), () -> {
+			for (boolean sorted : new boolean[] { true, false }) {
+				IndexedSet<Integer> set = new IndexedSet<>(sorted);
+				set.addAll(values);
+
+				long sum = 0;
+
+				for (int i = 0; i < set.size(); i++) {
+					sum += set.get(i);
+				}
+
+				Assertions.assertEquals(values.stream().mapToLong(Integer::longValue).sum(), sum);
+			}
+		});
+	}
+
+	@Test
+	public void testSnapshot() {
+		for (boolean sorted : new boolean[] { true, false }) {
+			IndexedSet<Integer> set = new IndexedSet<>(sorted);
+			set.addAll(randomIntegers(100));
+
+			IndexedStorage<Integer> snapshot = set.snapshot();
+			TreeSet<Integer> expected = new TreeSet<>(snapshot);
+
+			set.addAll(randomIntegers(1000));
+			Assertions.assertEquals(100, snapshot.size());
+			Assertions.assertEquals(expected, new TreeSet<>(snapshot));
+
+			for (int i = 0; i < set.size(); i++) {
+				Integer element = set.get(i);
+				Assertions.assertEquals(expected.contains(element), snapshot.contains(element));
+			}
+
+			Assertions.assertSame(snapshot, snapshot.snapshot());
+			Assertions.assertThrows(UnsupportedOperationException.class, () -> snapshot.add(0));
+		}
+	}
+
+	@Test
+	public void testSortedViews() {
+		OrderStatisticTree<Integer> tree = new OrderStatisticTree<>();
+		TreeSet<Integer> expected = new TreeSet<>();
+
+		for (int i = 0; i < 100; i += 2) {
+			tree.add(i);
+			expected.add(i);
+		}
+
+		Assertions.assertEquals(expected.first(), tree.first());
+		Assertions.assertEquals(expected.last(), tree.last());
+
+		for (int low = -1; low <= 101; low += 7) {
+			for (int high = low; high <= 101; high += 5) {
+				SortedSet<Integer> actual = tree.subSet(low, high);
+				Assertions.assertEquals(expected.subSet(low, high), actual);
+				Assertions.assertEquals(expected.subSet(low, high).size(), actual.size());
+				Assertions.assertIterableEquals(expected.subSet(low, high), actual);
+			}
+
+			Assertions.assertIterableEquals(expected.headSet(low), tree.headSet(low));
+			Assertions.assertIterableEquals(expected.tailSet(low), tree.tailSet(low));
+			Assertions.assertEquals(expected.headSet(low).size(), tree.rank(low));
+		}
+
+		// views are backed by the tree
+		SortedSet<Integer> view = tree.subSet(10, 20);
+		tree.add(11);
+		Assertions.assertTrue(view.contains(11));
+		Assertions.assertEquals(List.of(10, 11, 12, 14, 16, 18), new ArrayList<>(view));
+		Assertions.assertEquals(List.of(10, 11, 12), new ArrayList<>(view.headSet(13)));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> view.headSet(30));
+	}
+
+	@Test
+	public void testAddBatch() {
+		for (boolean sorted : new boolean[] { true, false }) {
+			List<Integer> values = randomIntegers(1000);
+			IndexedSet<Integer> set = new IndexedSet<>(sorted);
+
+			Assertions.assertEquals(500, set.addBatch(values.subList(0, 500)));
+			Assertions.assertEquals(250, set.addBatch(values.subList(250, 750).toArray(new Integer[0])));
+			Assertions.assertEquals(250, set.addBatch(values.stream()));
+			Assertions.assertEquals(0, set.addBatch(values.stream().filter(value -> value % 2 == 0)));
+
+			Assertions.assertEquals(values.size(), set.size());
+			Assertions.assertEquals(new TreeSet<>(values), set.sortedCopy());
+
+			if (!sorted) {
+				for (int i = 0; i < values.size(); i++) {
+					Assertions.assertEquals(values.get(i), set.get(i));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testStreams() {
+		List<Integer> values = randomIntegers(1000);
+
+		for (boolean sorted : new boolean[] { true, false }) {
+			IndexedSet<Integer> set = new IndexedSet<>(sorted);
+			set.addAll(values);
+
+			List<Integer> expected = new ArrayList<>(sorted ? new TreeSet<>(values) : values);
+			Assertions.assertEquals(expected, set.stream().collect(Collectors.toList()));
+			Assertions.assertEquals(expected, set.parallelStream().collect(Collectors.toList()));
+			Assertions.assertEquals(expected.stream().mapToLong(Integer::longValue).sum(),
+					set.parallelStream().mapToLong(Integer::longValue).sum());
+
+			Spliterator<Integer> spliterator = set.spliterator();
+			Assertions.assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED
+					| Spliterator.ORDERED | Spliterator.DISTINCT));
+			Assertions.assertEquals(sorted, spliterator.hasCharacteristics(Spliterator.SORTED));
+
+			// splits evenly, and the halves cover everything in order
+			Spliterator<Integer> prefix = spliterator.trySplit();
+			Assertions.assertEquals(500, prefix.estimateSize());
+			Assertions.assertEquals(500, spliterator.estimateSize());
+
+			List<Integer> traversed = new ArrayList<>();
+			Assertions.assertTrue(prefix.tryAdvance(traversed::add));
+			prefix.forEachRemaining(traversed::add);
+			spliterator.forEachRemaining(traversed::add);
+			Assertions.assertEquals(expected, traversed);
+			Assertions.assertFalse(prefix.tryAdvance(traversed::add));
+
+			// elements added later are not seen
+			Spliterator<Integer> before = set.spliterator();
+			set.add(sorted ? Integer.MAX_VALUE : 0);
+			Assertions.assertEquals(1000, before.estimateSize());
+		}
+
+		Assertions.assertEquals(0, new IndexedSet<Integer>().stream().count());
+	}
+
+	@Test
+	public void testBulkQueries() {
+		List<Integer> values = randomIntegers(1000);
+
+		for (boolean sorted : new boolean[] { true, false }) {
+			IndexedSet<Integer> set = new IndexedSet<>(sorted);
+			set.addAll(values.subList(0, 500));
+
+			BitSet found = set.containsAll(values);
+			Assertions.assertEquals(500, found.cardinality());
+			Assertions.assertEquals(500, found.nextClearBit(0));
+
+			List<Integer> expected = new ArrayList<>(sorted ? new TreeSet<>(values.subList(0, 500)) : values.subList(0, 500));
+			Assertions.assertEquals(expected, set.getRange(0, 500));
+			Assertions.assertEquals(expected.subList(100, 200), set.getRange(100, 200));
+			Assertions.assertEquals(expected.subList(490, 500), set.getRange(490, 600));
+			Assertions.assertEquals(expected.subList(0, 10), set.getRange(-10, 10));
+			Assertions.assertTrue(set.getRange(600, 700).isEmpty());
+			Assertions.assertTrue(set.getRange(10, 5).isEmpty());
+
+			for (int i = 0; i < 500; i++) {
+				Assertions.assertEquals(i, set.indexOf(expected.get(i)));
+				Assertions.assertEquals(-1, set.indexOf(values.get(500 + i)));
+			}
+		}
+
+		IndexedSet<Integer> sorted = new IndexedSet<>(true);
+		sorted.addAll(List.of(10, 20, 30, 40));
+		SortedSet<Integer> head = sorted.headSet(30);
+		Assertions.assertEquals(List.of(10, 20), new ArrayList<>(head));
+		Assertions.assertEquals(List.of(30, 40), new ArrayList<>(sorted.tailSet(25)));
+		Assertions.assertEquals(List.of(20, 30), new ArrayList<>(sorted.subSet(20, 40)));
+
+		// views are backed by the set
+		sorted.add(15);
+		Assertions.assertEquals(List.of(10, 15, 20), new ArrayList<>(head));
+
+		IndexedSet<Integer> unsorted = new IndexedSet<>(false);
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> unsorted.headSet(0));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> unsorted.subSet(0, 1));
+	}
+
+	@Test
+	public void testNavigation() {
+		List<Integer> values = randomIntegers(1000);
+		IndexedSet<Integer> set = new IndexedSet<>(true);
+		TreeSet<Integer> expected = new TreeSet<>();
+
+		// only even values, so that odd values fall between elements
+		for (int value : values.subList(0, 500)) {
+			set.add(value * 2);
+			expected.add(value * 2);
+		}
+
+		for (int value : values) {
+			for (int probe : new int[] { value * 2, value * 2 + 1, value * 2 - 1 }) {
+				Assertions.assertEquals(expected.headSet(probe).size(), set.rank(probe));
+				Assertions.assertEquals(expected.lower(probe), set.lower(probe));
+				Assertions.assertEquals(expected.floor(probe), set.floor(probe));
+				Assertions.assertEquals(expected.ceiling(probe), set.ceiling(probe));
+				Assertions.assertEquals(expected.higher(probe), set.higher(probe));
+			}
+		}
+
+		for (int i = 0; i + 1 < values.size(); i += 2) {
+			int from = Math.min(values.get(i) * 2, values.get(i + 1) * 2);
+			int to = Math.max(values.get(i) * 2, values.get(i + 1) * 2);
+
+			for (boolean fromInclusive : new boolean[] { true, false }) {
+				for (boolean toInclusive : new boolean[] { true, false }) {
+					int count = from == to && !(fromInclusive && toInclusive) ? 0
+							: expected.subSet(from, fromInclusive, to, toInclusive).size();
+					Assertions.assertEquals(count, set.count(from, fromInclusive, to, toInclusive));
+				}
+			}
+
+			// a reversed range is empty
+			Assertions.assertEquals(0, set.count(to + 1, true, from, true));
+		}
+
+		IndexedSet<Integer> unsorted = new IndexedSet<>(false);
+		unsorted.add(1);
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> unsorted.rank(1));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> unsorted.floor(1));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> unsorted.count(0, true, 2, true));
+		Assertions.assertNull(new IndexedSet<Integer>(true).ceiling(1));
+	}
+}
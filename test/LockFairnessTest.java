@@ -0,0 +1,309 @@
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link SimpleReadWriteLock.Fairness} policies. Like the other lock
+ * tests, these rely on timing and are not 100% accurate, but the bounds are
+ * generous enough that a correct implementation should always pass.
+ */
+@SuppressWarnings("javadoc")
+public class LockFairnessTest {
+
+	/** Number of reader threads constantly acquiring the read lock. */
+	public static final int READERS = 64;
+
+	/** Number of write lock acquisitions to measure. */
+	public static final int SAMPLES = 100;
+
+	/** Maximum acceptable 99th percentile write lock acquisition time. */
+	public static final long MAX_WRITE_WAIT = 1000;
+
+	/** Overall timeout for each test. */
+	public static final long TIMEOUT = 30000;
+
+	/**
+	 * Busy waits for the specified amount of time, simulating a short critical
+	 * section.
+	 *
+	 * @param nanos time to spin
+	 */
+	private static void spin(long nanos) {
+		long start = System.nanoTime();
+
+		while (System.nanoTime() - start < nanos) {
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Starts threads that constantly acquire and release the read lock until the
+	 * running flag is cleared.
+	 *
+	 * @param lock the lock to use
+	 * @param running flag that keeps the readers going
+	 * @return the started reader threads
+	 */
+	private static List<Thread> startReaders(SimpleReadWriteLock lock, AtomicBoolean running) {
+		List<Thread> threads = new ArrayList<>();
+
+		for (int i = 0; i < READERS; i++) {
+			Thread reader = new Thread(() -> {
+				while (running.get()) {
+					lock.readLock().lock();
+
+					try {
+						spin(50000);
+					}
+					finally {
+						lock.readLock().unlock();
+					}
+				}
+			});
+
+			reader.setDaemon(true);
+			reader.start();
+			threads.add(reader);
+		}
+
+		return threads;
+	}
+
+	/**
+	 * Measures the write lock acquisition latency (in milliseconds) while many
+	 * readers hammer the read lock.
+	 *
+	 * @param fairness the policy to test
+	 * @return sorted write latencies in milliseconds
+	 * @throws InterruptedException if interrupted while joining readers
+	 */
+	private static double[] writeLatencies(SimpleReadWriteLock.Fairness fairness)
+			throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<Thread> readers = startReaders(lock, running);
+		double[] latencies = new double[SAMPLES];
+
+		try {
+			// give the readers time to saturate the lock
+			Thread.sleep(100);
+
+			for (int i = 0; i < SAMPLES; i++) {
+				long start = System.nanoTime();
+				lock.writeLock().lock();
+				latencies[i] = (System.nanoTime() - start) / 1e6;
+				lock.writeLock().unlock();
+				Thread.sleep(1);
+			}
+		}
+		finally {
+			running.set(false);
+
+			for (Thread reader : readers) {
+				reader.join();
+			}
+		}
+
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	/**
+	 * Asserts that the tail write latency under the given policy is bounded.
+	 *
+	 * @param fairness the policy to test
+	 */
+	private static void assertBoundedWrites(SimpleReadWriteLock.Fairness fairness) {
+		Assertions.assertTimeoutPreemptively(Duration.ofMillis(TIMEOUT), () -> {
+			double[] latencies = writeLatencies(fairness);
+			double p50 = latencies[SAMPLES / 2];
+			double p99 = latencies[(int) Math.ceil(SAMPLES * 0.99) - 1];
+			double max = latencies[SAMPLES - 1];
+
+			Assertions.assertTrue(p99 < MAX_WRITE_WAIT, () -> String.format(
+					"%s write latency too high: p50=%.2fms p99=%.2fms max=%.2fms",
+					fairness, p50, p99, max));
+		});
+	}
+
+	@Test
+	public void testWriterPreferringLatency() {
+		assertBoundedWrites(SimpleReadWriteLock.Fairness.WRITER_PREFERRING);
+	}
+
+	@Test
+	public void testPhaseFairLatency() {
+		assertBoundedWrites(SimpleReadWriteLock.Fairness.PHASE_FAIR);
+	}
+
+	@Test
+	public void testPhaseFairReaders() {
+		// readers must still get in when writers are constantly waiting
+		SimpleReadWriteLock lock = new SimpleReadWriteLock(SimpleReadWriteLock.Fairness.PHASE_FAIR);
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<Thread> writers = new ArrayList<>();
+
+		for (int i = 0; i < 8; i++) {
+			Thread writer = new Thread(() -> {
+				while (running.get()) {
+					lock.writeLock().lock();
+
+					try {
+						spin(50000);
+					}
+					finally {
+						lock.writeLock().unlock();
+					}
+				}
+			});
+
+			writer.setDaemon(true);
+			writer.start();
+			writers.add(writer);
+		}
+
+		try {
+			Assertions.assertTimeoutPreemptively(Duration.ofMillis(TIMEOUT), () -> {
+				for (int i = 0; i < SAMPLES; i++) {
+					lock.readLock().lock();
+					lock.readLock().unlock();
+				}
+			});
+		}
+		finally {
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Asserts that writers are exclusive and readers never see a partial write.
+	 *
+	 * @param striped whether to use striped reader counters
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	private static void assertMutualExclusion(boolean striped) throws InterruptedException {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness, striped);
+			long[] pair = new long[2];
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < 8; i++) {
+				workers.add(new Thread(() -> {
+					for (int j = 0; j < 2000; j++) {
+						lock.writeLock().lock();
+						pair[0]++;
+						Thread.yield();
+						pair[1]++;
+						lock.writeLock().unlock();
+
+						lock.readLock().lock();
+						Assertions.assertEquals(pair[0], pair[1]);
+						lock.readLock().unlock();
+					}
+				}));
+			}
+
+			ThreadSafeIndexedSetTest.assertConcurrent(fairness.toString(), workers, 30);
+			Assertions.assertEquals(8 * 2000, pair[0], fairness::toString);
+			Assertions.assertEquals(8 * 2000, pair[1], fairness::toString);
+		}
+	}
+
+	@Test
+	public void testMutualExclusion() throws InterruptedException {
+		assertMutualExclusion(false);
+	}
+
+	@Test
+	public void testStripedMutualExclusion() throws InterruptedException {
+		assertMutualExclusion(true);
+	}
+
+	@Test
+	public void testStripedWriterWaitsForReaders() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock(SimpleReadWriteLock.Fairness.READER_PREFERRING, true);
+		StringBuffer buffer = new StringBuffer();
+
+		lock.readLock().lock();
+		lock.readLock().lock();
+
+		Thread writer = new Thread(() -> {
+			lock.writeLock().lock();
+			buffer.append("Write Lock\n");
+			lock.writeLock().unlock();
+		});
+
+		writer.start();
+		Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+		buffer.append("Read Unlock\n");
+		lock.readLock().unlock();
+		lock.readLock().unlock();
+		writer.join();
+
+		Assertions.assertTrue(lock.isStriped());
+		Assertions.assertEquals("Read Unlock\nWrite Lock\n", buffer.toString());
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> lock.readLock().unlock());
+	}
+
+	@Test
+	public void testReadersWokenTogether() throws InterruptedException {
+		// readers queued behind a writer must all be let in when it leaves, not one by one
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+			CountDownLatch inside = new CountDownLatch(8);
+			AtomicBoolean together = new AtomicBoolean(true);
+			List<Thread> readers = new ArrayList<>();
+
+			lock.writeLock().lock();
+
+			for (int i = 0; i < 8; i++) {
+				Thread reader = new Thread(() -> {
+					lock.readLock().lock();
+
+					try {
+						inside.countDown();
+
+						if (!inside.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+							together.set(false);
+						}
+					}
+					catch (InterruptedException e) {
+						together.set(false);
+					}
+					finally {
+						lock.readLock().unlock();
+					}
+				});
+
+				reader.start();
+				readers.add(reader);
+			}
+
+			Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+			Assertions.assertEquals(8, inside.getCount(), fairness::toString);
+			lock.writeLock().unlock();
+
+			for (Thread reader : readers) {
+				reader.join();
+			}
+
+			Assertions.assertTrue(together.get(), fairness::toString);
+			Assertions.assertTrue(lock.writeLock().tryLock(), fairness::toString);
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Test
+	public void testUnlockWithoutLock() {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> lock.readLock().unlock());
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> lock.writeLock().unlock());
+	}
+}
@@ -0,0 +1,168 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the instrumentation of {@link SimpleReadWriteLock}.
+ */
+@SuppressWarnings("javadoc")
+public class LockStatisticsTest {
+
+	@Test
+	public void testDisabledByDefault() {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		lock.readLock().lock();
+		lock.readLock().unlock();
+		lock.writeLock().lock();
+		lock.writeLock().unlock();
+
+		LockStatistics statistics = lock.getStatistics();
+		Assertions.assertFalse(lock.isInstrumented());
+		Assertions.assertEquals(0, statistics.getReadAcquisitions());
+		Assertions.assertEquals(0, statistics.getWriteAcquisitions());
+		Assertions.assertEquals(0, statistics.getReadHold().getCount());
+	}
+
+	@Test
+	public void testCounts() {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		lock.setInstrumented(true);
+
+		lock.readLock().lock();
+		lock.readLock().lock();
+		lock.readLock().lock();
+
+		LockStatistics during = lock.getStatistics();
+		Assertions.assertEquals(3, during.getActiveReaders());
+
+		lock.readLock().unlock();
+		lock.readLock().unlock();
+		lock.readLock().unlock();
+
+		for (int i = 0; i < 5; i++) {
+			lock.writeLock().lock();
+			lock.writeLock().unlock();
+		}
+
+		LockStatistics statistics = lock.getStatistics();
+		Assertions.assertEquals(3, statistics.getReadAcquisitions());
+		Assertions.assertEquals(5, statistics.getWriteAcquisitions());
+		Assertions.assertEquals(0, statistics.getContendedReads());
+		Assertions.assertEquals(0, statistics.getContendedWrites());
+		Assertions.assertEquals(3, statistics.getPeakReaders());
+		Assertions.assertEquals(0, statistics.getActiveReaders());
+		Assertions.assertEquals(3, statistics.getReadWait().getCount());
+		Assertions.assertEquals(3, statistics.getReadHold().getCount());
+		Assertions.assertEquals(5, statistics.getWriteWait().getCount());
+		Assertions.assertEquals(5, statistics.getWriteHold().getCount());
+	}
+
+	@Test
+	public void testStriped() {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock(SimpleReadWriteLock.Fairness.READER_PREFERRING, true);
+		lock.setInstrumented(true);
+
+		lock.readLock().lock();
+		lock.readLock().lock();
+		lock.readLock().lock();
+
+		Assertions.assertEquals(3, lock.getStatistics().getActiveReaders());
+
+		lock.readLock().unlock();
+		lock.readLock().unlock();
+		lock.readLock().unlock();
+
+		LockStatistics statistics = lock.getStatistics();
+		Assertions.assertEquals(3, statistics.getPeakReaders());
+		Assertions.assertEquals(0, statistics.getActiveReaders());
+	}
+
+	@Test
+	public void testContention() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		lock.setInstrumented(true);
+		lock.writeLock().lock();
+
+		Thread writer = new Thread(() -> {
+			lock.writeLock().lock();
+			lock.writeLock().unlock();
+		});
+
+		Thread reader = new Thread(() -> {
+			lock.readLock().lock();
+			lock.readLock().unlock();
+		});
+
+		writer.start();
+		reader.start();
+		Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+
+		Assertions.assertEquals(1, lock.getStatistics().getWaitingWriters());
+		lock.writeLock().unlock();
+
+		writer.join();
+		reader.join();
+
+		LockStatistics statistics = lock.getStatistics();
+		Assertions.assertEquals(1, statistics.getContendedReads());
+		Assertions.assertEquals(1, statistics.getContendedWrites());
+		Assertions.assertEquals(0, statistics.getWaitingWriters());
+
+		long slept = ReadWriteLockTest.OFFSET_SLEEP * 1000000L;
+		Assertions.assertTrue(statistics.getWriteHold().getMax() >= slept / 2, statistics.toString());
+		Assertions.assertTrue(statistics.getReadWait().getMax() >= slept / 2, statistics.toString());
+	}
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		Assertions.assertEquals(1000, histogram.getCount());
+		Assertions.assertEquals(1000000, histogram.getMax());
+		Assertions.assertEquals(500500, histogram.getMean(), 1);
+
+		// buckets have at most 12.5% relative error
+		long median = histogram.getValueAtPercentile(50);
+		long p99 = histogram.getValueAtPercentile(99);
+		Assertions.assertTrue(Math.abs(median - 500000) <= 500000 / 8, Long.toString(median));
+		Assertions.assertTrue(Math.abs(p99 - 990000) <= 990000 / 8, Long.toString(p99));
+		Assertions.assertTrue(p99 <= histogram.getMax());
+	}
+
+	@Test
+	public void testMBean() throws JMException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		ObjectName name = lock.registerMBean("LockStatisticsTest");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			SimpleReadWriteLockMXBean bean = JMX.newMXBeanProxy(server, name, SimpleReadWriteLockMXBean.class);
+			Assertions.assertFalse(bean.isInstrumented());
+
+			bean.setInstrumented(true);
+			Assertions.assertTrue(lock.isInstrumented());
+
+			lock.writeLock().lock();
+			lock.writeLock().unlock();
+
+			Map<String, Long> hold = bean.getWriteHold();
+			Assertions.assertEquals(1, bean.getWriteAcquisitions());
+			Assertions.assertEquals(1, hold.get("count"));
+			Assertions.assertTrue(hold.containsKey("p99"));
+		}
+		finally {
+			server.unregisterMBean(name);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link OffHeapStorage} class, both directly and as the storage of
+ * an {@link IndexedSet} or {@link ThreadSafeIndexedSet}.
+ */
+@SuppressWarnings("javadoc")
+public class OffHeapStorageTest {
+
+	/** Stores {@link UUID} elements in sixteen bytes. */
+	private static final ElementSerializer<UUID> UUIDS = new ElementSerializer<>() {
+		@Override
+		public int width() {
+			return 2 * Long.BYTES;
+		}
+
+		@Override
+		public void write(UUID element, ByteBuffer buffer, int offset) {
+			buffer.putLong(offset, element.getMostSignificantBits());
+			buffer.putLong(offset + Long.BYTES, element.getLeastSignificantBits());
+		}
+
+		@Override
+		public UUID read(ByteBuffer buffer, int offset) {
+			return new UUID(buffer.getLong(offset), buffer.getLong(offset + Long.BYTES));
+		}
+	};
+
+	@Test
+	public void testInsertionOrder() {
+		// enough elements to need several full chunks
+		Random random = new Random(212);
+		List<Long> values = new ArrayList<>();
+		IndexedSet<Long> set = new IndexedSet<>(new OffHeapStorage<>(ElementSerializer.LONG));
+
+		for (int i = 0; i < 200000; i++) {
+			long value = random.nextLong();
+
+			if (set.add(value)) {
+				values.add(value);
+			}
+
+			Assertions.assertFalse(set.add(value));
+		}
+
+		Assertions.assertEquals(values.size(), set.size());
+
+		for (int i = 0; i < values.size(); i++) {
+			Assertions.assertEquals(values.get(i), set.get(i));
+			Assertions.assertTrue(set.contains(values.get(i)));
+			Assertions.assertEquals(i, set.indexOf(values.get(i)));
+		}
+
+		Assertions.assertFalse(set.contains(null));
+		Assertions.assertEquals(-1, set.indexOf(null));
+		Assertions.assertNull(set.get(values.size()));
+		Assertions.assertEquals(values, new ArrayList<>(set.snapshot()));
+	}
+
+	@Test
+	public void testCustomSerializer() {
+		List<UUID> values = new ArrayList<>();
+		OffHeapStorage<UUID> storage = new OffHeapStorage<>(UUIDS);
+		storage.ensureCapacity(1000);
+
+		for (int i = 0; i < 1000; i++) {
+			UUID value = UUID.nameUUIDFromBytes(new byte[] { (byte) i, (byte) (i >> 8) });
+			Assertions.assertTrue(storage.add(value));
+			values.add(value);
+		}
+
+		Assertions.assertEquals(values, new ArrayList<>(storage));
+		Assertions.assertTrue(storage.contains(values.get(500)));
+		Assertions.assertFalse(storage.contains(UUID.randomUUID()));
+		Assertions.assertFalse(storage.contains("not a uuid"));
+	}
+
+	@Test
+	public void testSnapshot() {
+		OffHeapStorage<Integer> storage = new OffHeapStorage<>(ElementSerializer.INTEGER);
+		storage.add(1);
+		storage.add(2);
+
+		OffHeapStorage<Integer> snapshot = storage.snapshot();
+		Iterator<Integer> iterator = storage.iterator();
+
+		// forces the partial chunk to be replaced
+		for (int i = 3; i <= 100; i++) {
+			storage.add(i);
+		}
+
+		Assertions.assertEquals(2, snapshot.size());
+		Assertions.assertTrue(snapshot.contains(2));
+		Assertions.assertFalse(snapshot.contains(3));
+		Assertions.assertEquals(List.of(1, 2), new ArrayList<>(snapshot));
+		Assertions.assertEquals(Integer.valueOf(1), iterator.next());
+		Assertions.assertEquals(Integer.valueOf(2), iterator.next());
+		Assertions.assertFalse(iterator.hasNext());
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> snapshot.add(3));
+		Assertions.assertEquals(100, storage.size());
+	}
+
+	@Test
+	public void testInvalid() {
+		OffHeapStorage<Integer> storage = new OffHeapStorage<>(ElementSerializer.INTEGER);
+		Assertions.assertThrows(NullPointerException.class, () -> storage.add(null));
+		Assertions.assertThrows(IndexOutOfBoundsException.class, () -> storage.get(0));
+
+		ElementSerializer<Integer> empty = new ElementSerializer<>() {
+			@Override
+			public int width() {
+				return 0;
+			}
+
+			@Override
+			public void write(Integer element, ByteBuffer buffer, int offset) {
+			}
+
+			@Override
+			public Integer read(ByteBuffer buffer, int offset) {
+				return 0;
+			}
+		};
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> new OffHeapStorage<>(empty));
+	}
+
+	@Test
+	public void testThreadSafe() throws InterruptedException {
+		ThreadSafeIndexedSet<Long> set = new ThreadSafeIndexedSet<>(new OffHeapStorage<>(ElementSerializer.LONG));
+		List<Thread> workers = new ArrayList<>();
+
+		for (int i = 0; i < 5; i++) {
+			long offset = i * 5000L;
+
+			workers.add(new Thread(() -> {
+				// overlapping ranges, with optimistic reads racing the writes
+				for (long value = offset; value < offset + 10000; value++) {
+					set.add(value);
+					Assertions.assertTrue(set.contains(value));
+					Assertions.assertNotNull(set.get(set.size() - 1));
+				}
+			}));
+		}
+
+		ThreadSafeIndexedSetTest.assertConcurrent("testThreadSafe()", workers, 30000);
+		Assertions.assertEquals(30000, set.size());
+
+		for (long value = 0; value < 30000; value++) {
+			Assertions.assertTrue(set.contains(value));
+		}
+	}
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link PersistentStorage} class and {@link IndexedSet#save(Path, ElementSerializer)}.
+ */
+@SuppressWarnings("javadoc")
+public class PersistentStorageTest {
+
+	/** Directory holding the files written by a test. */
+	@TempDir
+	public Path directory;
+
+	/**
+	 * Creates a list of distinct random longs in a repeatable way.
+	 *
+	 * @param size number of longs to create
+	 * @param seed seed of the random generator
+	 * @return list of distinct longs in random order
+	 */
+	private static List<Long> randomLongs(int size, long seed) {
+		Random random = new Random(seed);
+		TreeSet<Long> seen = new TreeSet<>();
+		List<Long> values = new ArrayList<>();
+
+		while (values.size() < size) {
+			long value = random.nextLong();
+
+			if (seen.add(value)) {
+				values.add(value);
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Asserts that a set has exactly the expected elements in iteration order.
+	 *
+	 * @param expected expected elements in order
+	 * @param set the set to check
+	 */
+	private static void assertElements(List<Long> expected, IndexedSet<Long> set) {
+		Assertions.assertEquals(expected.size(), set.size());
+		Assertions.assertEquals(expected, new ArrayList<>(set.snapshot()));
+
+		for (int i = 0; i < expected.size(); i++) {
+			Assertions.assertEquals(expected.get(i), set.get(i));
+			Assertions.assertTrue(set.contains(expected.get(i)));
+			Assertions.assertEquals(i, set.indexOf(expected.get(i)));
+		}
+
+		Assertions.assertEquals(expected.subList(10, 20), set.getRange(10, 20));
+	}
+
+	@Test
+	public void testSaveAndOpen() throws IOException {
+		List<Long> saved = randomLongs(5000, 212);
+		List<Long> added = randomLongs(3000, 213);
+
+		for (boolean sorted : new boolean[] { false, true }) {
+			Path file = directory.resolve("set" + sorted);
+			IndexedSet<Long> set = new IndexedSet<>(sorted);
+			set.addAll(saved);
+			set.save(file, ElementSerializer.LONG);
+
+			List<Long> expected = new ArrayList<>(saved);
+			expected.addAll(added);
+
+			if (sorted) {
+				expected.sort(null);
+			}
+
+			try (PersistentStorage<Long> storage = PersistentStorage.open(file, sorted, ElementSerializer.LONG, Runnable::run)) {
+				IndexedSet<Long> opened = new IndexedSet<>(storage);
+				Assertions.assertEquals(new ArrayList<>(set.snapshot()), new ArrayList<>(storage));
+				Assertions.assertEquals(0, opened.addBatch(saved));
+				Assertions.assertEquals(added.size(), opened.addBatch(added));
+				assertElements(expected, opened);
+				Assertions.assertFalse(opened.contains(0L));
+
+				if (sorted) {
+					// range views of the file and the delta, for plain and thread-safe sets
+					Long low = expected.get(100);
+					Long high = expected.get(200);
+					Assertions.assertEquals(expected.subList(100, 200), new ArrayList<>(opened.subSet(low, high)));
+					Assertions.assertEquals(expected.subList(0, 200), new ArrayList<>(opened.headSet(high)));
+					Assertions.assertEquals(expected.size() - 100, opened.tailSet(low).size());
+					Assertions.assertEquals(low, opened.tailSet(low).first());
+					Assertions.assertEquals(expected.get(199), opened.headSet(high).last());
+					Assertions.assertTrue(opened.subSet(low, high).contains(expected.get(150)));
+					Assertions.assertFalse(opened.subSet(low, high).contains(high));
+					Assertions.assertEquals(expected.subList(100, 150),
+							new ArrayList<>(opened.tailSet(low).headSet(expected.get(150))));
+					Assertions.assertEquals(100, new ThreadSafeIndexedSet<>(storage).subSet(low, high).size());
+				}
+				else {
+					Assertions.assertThrows(UnsupportedOperationException.class, () -> opened.headSet(0L));
+				}
+
+				// ranks combine the file and the delta
+				for (int i = 1; sorted && i + 1 < expected.size(); i += 101) {
+					Assertions.assertEquals(i, opened.rank(expected.get(i)));
+					Assertions.assertEquals(expected.get(i - 1), opened.lower(expected.get(i)));
+					Assertions.assertEquals(expected.get(i + 1), opened.higher(expected.get(i)));
+					Assertions.assertEquals(i, opened.count(expected.get(0), true, expected.get(i), false));
+				}
+			}
+
+			// the added elements come back from the log
+			try (PersistentStorage<Long> storage = PersistentStorage.open(file, sorted, ElementSerializer.LONG, Runnable::run)) {
+				assertElements(expected, new IndexedSet<>(storage));
+			}
+		}
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		List<Long> values = randomLongs(1000, 212);
+
+		for (boolean sorted : new boolean[] { false, true }) {
+			Path file = directory.resolve("set" + sorted);
+			Path log = directory.resolve("set" + sorted + ".log");
+			List<Long> expected = new ArrayList<>(values);
+
+			if (sorted) {
+				expected.sort(null);
+			}
+
+			try (PersistentStorage<Long> storage = PersistentStorage.open(file, sorted, ElementSerializer.LONG, Runnable::run, 100)) {
+				IndexedSet<Long> set = new IndexedSet<>(storage);
+				set.addAll(values);
+				assertElements(expected, set);
+
+				// everything but the elements since the last compaction is in the file
+				long logged = Files.size(log);
+				Assertions.assertTrue(logged <= 100 * Long.BYTES, () -> "Log size " + logged);
+				Assertions.assertTrue(Files.size(file) >= 800 * Long.BYTES);
+			}
+
+			try (PersistentStorage<Long> storage = PersistentStorage.open(file, sorted, ElementSerializer.LONG, Runnable::run)) {
+				assertElements(expected, new IndexedSet<>(storage));
+			}
+		}
+	}
+
+	@Test
+	public void testPartialLog() throws IOException {
+		Path file = directory.resolve("set");
+
+		try (PersistentStorage<Long> storage = PersistentStorage.open(file, false, ElementSerializer.LONG, Runnable::run)) {
+			storage.add(1L);
+			storage.add(2L);
+		}
+
+		// as if the process crashed while writing the third element
+		try (FileChannel log = FileChannel.open(directory.resolve("set.log"), StandardOpenOption.APPEND)) {
+			log.write(ByteBuffer.wrap(new byte[] { 3, 0, 0 }));
+		}
+
+		try (PersistentStorage<Long> storage = PersistentStorage.open(file, false, ElementSerializer.LONG, Runnable::run)) {
+			Assertions.assertEquals(List.of(1L, 2L), new ArrayList<>(storage));
+			storage.add(3L);
+		}
+
+		try (PersistentStorage<Long> storage = PersistentStorage.open(file, false, ElementSerializer.LONG, Runnable::run)) {
+			Assertions.assertEquals(List.of(1L, 2L, 3L), new ArrayList<>(storage));
+		}
+	}
+
+	@Test
+	public void testInvalidFile() throws IOException {
+		Path file = directory.resolve("set");
+		new IndexedSet<Long>(true).save(file, ElementSerializer.LONG);
+
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> PersistentStorage.open(file, false, ElementSerializer.LONG, Runnable::run));
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> PersistentStorage.open(file, true, ElementSerializer.INTEGER, Runnable::run));
+
+		Files.write(file, new byte[64]);
+		Assertions.assertThrows(IOException.class,
+				() -> PersistentStorage.open(file, true, ElementSerializer.LONG, Runnable::run));
+	}
+
+	@Test
+	public void testThreadSafe() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			for (boolean sorted : new boolean[] { false, true }) {
+				Path file = directory.resolve("set" + sorted);
+
+				try (PersistentStorage<Long> storage = PersistentStorage.open(file, sorted, ElementSerializer.LONG, executor, 500)) {
+					ThreadSafeIndexedSet<Long> set = new ThreadSafeIndexedSet<>(storage);
+					List<Thread> workers = new ArrayList<>();
+
+					for (int i = 0; i < 5; i++) {
+						long offset = i * 1000L;
+
+						workers.add(new Thread(() -> {
+							// overlapping ranges, with compactions and optimistic reads racing the writes
+							for (long value = offset; value < offset + 2000; value++) {
+								set.add(value);
+								Assertions.assertTrue(set.contains(value));
+								Assertions.assertNotNull(set.get(set.size() - 1));
+							}
+						}));
+					}
+
+					ThreadSafeIndexedSetTest.assertConcurrent("testThreadSafe()", workers, 30000);
+					Assertions.assertEquals(6000, set.size());
+				}
+
+				try (PersistentStorage<Long> storage = PersistentStorage.open(file, sorted, ElementSerializer.LONG, executor)) {
+					Assertions.assertEquals(6000, storage.size());
+
+					for (long value = 0; value < 6000; value++) {
+						Assertions.assertTrue(storage.contains(value));
+					}
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+			executor.awaitTermination(TryLockTest.GENEROUS, TimeUnit.MILLISECONDS);
+		}
+	}
+}
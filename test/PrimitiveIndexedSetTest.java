@@ -0,0 +1,226 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link IntIndexedSet} and {@link LongIndexedSet} classes and their
+ * thread-safe versions.
+ */
+@SuppressWarnings("javadoc")
+public class PrimitiveIndexedSetTest {
+
+	/**
+	 * Creates random values with some duplicates in a repeatable way.
+	 *
+	 * @param size number of values to create
+	 * @return array of random values
+	 */
+	private static int[] randomInts(int size) {
+		Random random = new Random(212);
+		int[] values = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			values[i] = random.nextInt(size * 2) - size;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the distinct values in order of first appearance.
+	 *
+	 * @param values values with duplicates
+	 * @return distinct values
+	 */
+	private static int[] distinct(int[] values) {
+		Set<Integer> seen = new LinkedHashSet<>();
+
+		for (int value : values) {
+			seen.add(value);
+		}
+
+		return seen.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Asserts that every public method of a class is overridden by another.
+	 *
+	 * @param base the class with the methods
+	 * @param subclass the class that should override them
+	 */
+	private static void assertOverridden(Class<?> base, Class<?> subclass) {
+		Set<String> expected = Arrays.stream(base.getDeclaredMethods())
+				.filter(method -> Modifier.isPublic(method.getModifiers()))
+				.map(Method::getName)
+				.collect(Collectors.toSet());
+
+		Set<String> actual = Arrays.stream(subclass.getDeclaredMethods())
+				.map(Method::getName)
+				.collect(Collectors.toSet());
+
+		expected.removeAll(actual);
+		Assertions.assertTrue(expected.isEmpty(),
+				() -> "The following methods were not properly overridden: " + expected);
+	}
+
+	@Test
+	public void testUnsortedInsertionOrder() {
+		int[] values = randomInts(5000);
+		int[] expected = distinct(values);
+
+		for (IntIndexedSet set : new IntIndexedSet[] { new IntIndexedSet(), new ThreadSafeIntIndexedSet() }) {
+			for (int value : values) {
+				set.add(value);
+			}
+
+			Assertions.assertEquals(expected.length, set.size());
+			Assertions.assertArrayEquals(expected, set.toArray());
+
+			for (int i = 0; i < expected.length; i++) {
+				Assertions.assertEquals(expected[i], set.get(i));
+				Assertions.assertTrue(set.contains(expected[i]));
+				Assertions.assertFalse(set.add(expected[i]));
+			}
+
+			Assertions.assertFalse(set.contains(Integer.MAX_VALUE));
+		}
+	}
+
+	@Test
+	public void testSortedOrder() {
+		int[] values = randomInts(5000);
+		int[] expected = distinct(values);
+		Arrays.sort(expected);
+
+		for (IntIndexedSet set : new IntIndexedSet[] { new IntIndexedSet(true), new ThreadSafeIntIndexedSet(true) }) {
+			Assertions.assertEquals(expected.length, set.addBatch(values));
+			Assertions.assertArrayEquals(expected, set.toArray());
+			Assertions.assertEquals(Arrays.toString(expected), set.toString());
+
+			for (int i = 0; i < expected.length; i++) {
+				Assertions.assertEquals(expected[i], set.get(i));
+				Assertions.assertTrue(set.contains(expected[i]));
+			}
+
+			Assertions.assertFalse(set.contains(Integer.MIN_VALUE));
+		}
+	}
+
+	@Test
+	public void testLongValues() {
+		long[] values = { Long.MAX_VALUE, 0, -1, 1L << 40, Long.MIN_VALUE, 1L << 40, 7 };
+		long[] unsorted = { Long.MAX_VALUE, 0, -1, 1L << 40, Long.MIN_VALUE, 7 };
+		long[] sorted = { Long.MIN_VALUE, -1, 0, 7, 1L << 40, Long.MAX_VALUE };
+
+		for (boolean ordered : new boolean[] { false, true }) {
+			long[] expected = ordered ? sorted : unsorted;
+
+			for (LongIndexedSet set : new LongIndexedSet[] { new LongIndexedSet(ordered), new ThreadSafeLongIndexedSet(ordered) }) {
+				Assertions.assertEquals(expected.length, set.addBatch(values));
+				Assertions.assertArrayEquals(expected, set.toArray());
+
+				for (int i = 0; i < expected.length; i++) {
+					Assertions.assertEquals(expected[i], set.get(i));
+					Assertions.assertTrue(set.contains(expected[i]));
+				}
+
+				// differs from a stored value only in the upper half
+				Assertions.assertFalse(set.contains(7 + (1L << 32)));
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidIndex() {
+		for (IntIndexedSet set : new IntIndexedSet[] { new IntIndexedSet(), new ThreadSafeIntIndexedSet(true) }) {
+			set.add(1);
+			Assertions.assertThrows(IndexOutOfBoundsException.class, () -> set.get(-1));
+			Assertions.assertThrows(IndexOutOfBoundsException.class, () -> set.get(1));
+		}
+
+		LongIndexedSet set = new ThreadSafeLongIndexedSet();
+		Assertions.assertThrows(IndexOutOfBoundsException.class, () -> set.get(0));
+	}
+
+	@Test
+	public void testOverridden() {
+		assertOverridden(IntIndexedSet.class, ThreadSafeIntIndexedSet.class);
+		assertOverridden(LongIndexedSet.class, ThreadSafeLongIndexedSet.class);
+	}
+
+	@Test
+	public void testConcurrentAdds() throws InterruptedException {
+		for (boolean sorted : new boolean[] { false, true }) {
+			ThreadSafeIntIndexedSet set = new ThreadSafeIntIndexedSet(sorted);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < 5; i++) {
+				int offset = i * 500;
+
+				workers.add(new Thread(() -> {
+					// overlapping ranges, with reads racing the writes
+					for (int value = offset; value < offset + 1000; value++) {
+						set.add(value);
+						Assertions.assertTrue(set.contains(value));
+						set.get(set.size() - 1);
+					}
+				}));
+			}
+
+			ThreadSafeIndexedSetTest.assertConcurrent("testConcurrentAdds()", workers, 30000);
+			Assertions.assertEquals(3000, set.size());
+
+			for (int value = 0; value < 3000; value++) {
+				Assertions.assertTrue(set.contains(value));
+			}
+		}
+	}
+
+	@Test
+	public void testNoAllocation() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assumptions.assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "Allocation counters are not available.");
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		long id = Thread.currentThread().getId();
+
+		for (boolean sorted : new boolean[] { false, true }) {
+			ThreadSafeIntIndexedSet ints = new ThreadSafeIntIndexedSet(sorted);
+			ThreadSafeLongIndexedSet longs = new ThreadSafeLongIndexedSet(sorted);
+			ints.ensureCapacity(10000);
+			longs.ensureCapacity(10000);
+
+			// lets the lock set up its per-thread state
+			ints.add(-1);
+			longs.add(-1);
+
+			long before = threads.getThreadAllocatedBytes(id);
+			long sum = 0;
+
+			for (int i = 0; i < 5000; i++) {
+				ints.add(i);
+				longs.add(i);
+				sum += ints.get(i / 2) + longs.get(i / 2);
+				sum += ints.contains(i / 3) && longs.contains(i) ? 1 : 0;
+			}
+
+			long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+			// boxing alone would allocate hundreds of kilobytes
+			Assertions.assertTrue(allocated < 1024, () -> "Allocated " + allocated + " bytes.");
+			Assertions.assertTrue(sum > 0);
+		}
+	}
+}
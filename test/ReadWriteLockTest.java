@@ -278,6 +278,34 @@ public class ReadWriteLockTest {
 					() -> String.format(FORMAT, expected, buffer));
 	}
 
+	/**
+	 * Tests that optimistic read stamps are only valid if the write lock was not
+	 * acquired in the meantime.
+	 */
+	@Test
+	public void testOptimisticRead() {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+
+		long stamp = lock.tryOptimisticRead();
+		Assertions.assertNotEquals(0, stamp);
+		Assertions.assertTrue(lock.validate(stamp));
+		Assertions.assertFalse(lock.validate(0));
+
+		// readers do not invalidate stamps
+		lock.readLock().lock();
+		Assertions.assertTrue(lock.validate(stamp));
+		Assertions.assertEquals(stamp, lock.tryOptimisticRead());
+		lock.readLock().unlock();
+
+		lock.writeLock().lock();
+		Assertions.assertEquals(0, lock.tryOptimisticRead());
+		Assertions.assertFalse(lock.validate(stamp));
+		lock.writeLock().unlock();
+
+		Assertions.assertFalse(lock.validate(stamp));
+		Assertions.assertTrue(lock.validate(lock.tryOptimisticRead()));
+	}
+
 	private static class ReadWorker implements Runnable {
 
 		private final StringBuffer buffer;
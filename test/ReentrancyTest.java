@@ -0,0 +1,263 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests reentrant holds, downgrading, and upgrading of the
+ * {@link SimpleReadWriteLock}, and composite operations on the
+ * {@link ThreadSafeIndexedSet}.
+ */
+@SuppressWarnings("javadoc")
+public class ReentrancyTest {
+
+	@Test
+	public void testReentrantWrite() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		lock.writeLock().lock();
+		lock.writeLock().lock();
+		lock.writeLock().unlock();
+
+		Assertions.assertFalse(TryLockTest.tryElsewhere(lock.readLock(), 0));
+		lock.writeLock().unlock();
+
+		Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), 0));
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> lock.writeLock().unlock());
+	}
+
+	@Test
+	public void testReentrantRead() throws InterruptedException {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			for (boolean striped : new boolean[] { false, true }) {
+				SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness, striped);
+				lock.readLock().lock();
+
+				Thread writer = new Thread(() -> {
+					lock.writeLock().lock();
+					lock.writeLock().unlock();
+				});
+
+				writer.start();
+				Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+
+				// must not wait for the writer that is waiting for this thread
+				Assertions.assertTrue(lock.readLock().tryLock(), fairness + " " + striped);
+				lock.readLock().unlock();
+
+				Assertions.assertTrue(writer.isAlive());
+				lock.readLock().unlock();
+				writer.join();
+			}
+		}
+	}
+
+	@Test
+	public void testDowngrade() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock(SimpleReadWriteLock.Fairness.WRITER_PREFERRING);
+		lock.writeLock().lock();
+		lock.readLock().lock();
+		lock.writeLock().unlock();
+
+		Assertions.assertTrue(TryLockTest.tryElsewhere(lock.readLock(), 0));
+		Assertions.assertFalse(TryLockTest.tryElsewhere(lock.writeLock(), 0));
+		lock.readLock().unlock();
+
+		Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), 0));
+	}
+
+	@Test
+	public void testReadCannotUpgrade() {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		lock.readLock().lock();
+
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> lock.writeLock().lock());
+		lock.readLock().unlock();
+
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> lock.readLock().unlock());
+		Assertions.assertThrows(IllegalMonitorStateException.class, () -> lock.upgradableLock().unlock());
+	}
+
+	@Test
+	public void testUnlockFromOtherThread() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		AtomicBoolean thrown = new AtomicBoolean();
+		lock.writeLock().lock();
+
+		Thread other = new Thread(() -> {
+			try {
+				lock.writeLock().unlock();
+			}
+			catch (IllegalMonitorStateException e) {
+				thrown.set(true);
+			}
+		});
+
+		other.start();
+		other.join();
+		lock.writeLock().unlock();
+
+		Assertions.assertTrue(thrown.get());
+	}
+
+	@Test
+	public void testUpgrade() throws InterruptedException {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+			lock.upgradableLock().lock();
+			lock.upgradableLock().lock();
+
+			Assertions.assertTrue(TryLockTest.tryElsewhere(lock.readLock(), 0), fairness.toString());
+			Assertions.assertFalse(TryLockTest.tryElsewhere(lock.upgradableLock(), 0), fairness.toString());
+			Assertions.assertFalse(TryLockTest.tryElsewhere(lock.writeLock(), 0), fairness.toString());
+
+			lock.readLock().lock();
+			lock.readLock().unlock();
+
+			lock.writeLock().lock();
+			Assertions.assertFalse(TryLockTest.tryElsewhere(lock.readLock(), 0), fairness.toString());
+			lock.writeLock().unlock();
+
+			lock.upgradableLock().unlock();
+			Assertions.assertFalse(TryLockTest.tryElsewhere(lock.writeLock(), 0), fairness.toString());
+			lock.upgradableLock().unlock();
+
+			Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), 0), fairness.toString());
+			Assertions.assertTrue(TryLockTest.tryElsewhere(lock.upgradableLock(), 0), fairness.toString());
+		}
+	}
+
+	@Test
+	public void testUpgradeWaitsForReaders() throws InterruptedException {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+			StringBuffer buffer = new StringBuffer();
+			CountDownLatch reading = new CountDownLatch(1);
+
+			Thread reader = new Thread(() -> {
+				lock.readLock().lock();
+				reading.countDown();
+
+				try {
+					Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				buffer.append("Read Unlock\n");
+				lock.readLock().unlock();
+			});
+
+			// a plain writer queued behind the upgrader must not get in between
+			Thread writer = new Thread(() -> {
+				lock.writeLock().lock();
+				buffer.append("Write Lock\n");
+				lock.writeLock().unlock();
+			});
+
+			lock.upgradableLock().lock();
+			reader.start();
+			reading.await();
+			writer.start();
+
+			lock.writeLock().lock();
+			buffer.append("Upgrade\n");
+			lock.writeLock().unlock();
+			lock.upgradableLock().unlock();
+
+			reader.join();
+			writer.join();
+
+			Assertions.assertEquals("Read Unlock\nUpgrade\nWrite Lock\n", buffer.toString(), fairness.toString());
+		}
+	}
+
+	@Test
+	public void testUpgradeTimeout() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock(SimpleReadWriteLock.Fairness.PHASE_FAIR);
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		Thread reader = new Thread(() -> {
+			lock.readLock().lock();
+			reading.countDown();
+
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			lock.readLock().unlock();
+		});
+
+		reader.start();
+		reading.await();
+
+		lock.upgradableLock().lock();
+		Assertions.assertFalse(lock.writeLock().tryLock(TryLockTest.TIMEOUT, TimeUnit.MILLISECONDS));
+		release.countDown();
+		reader.join();
+
+		Assertions.assertTrue(lock.writeLock().tryLock(TryLockTest.GENEROUS, TimeUnit.MILLISECONDS));
+		lock.writeLock().unlock();
+		lock.upgradableLock().unlock();
+
+		Assertions.assertTrue(TryLockTest.tryElsewhere(lock.writeLock(), 0));
+	}
+
+	@Test
+	public void testCompositeOperation() throws InterruptedException {
+		ThreadSafeIndexedSet<Integer> set = new ThreadSafeIndexedSet<>();
+		int threads = 4;
+		int values = 1000;
+		Thread[] workers = new Thread[threads];
+
+		// each worker adds a value only if it is missing and the previous value is present
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				for (int value = 0; value < values; value++) {
+					SimpleLock lock = set.getLock().upgradableLock();
+					lock.lock();
+
+					try {
+						if (set.size() == value && (value == 0 || set.contains(value - 1))) {
+							Assertions.assertTrue(set.add(value));
+						}
+					}
+					finally {
+						lock.unlock();
+					}
+				}
+			});
+		}
+
+		for (Thread worker : workers) {
+			worker.start();
+		}
+
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		Assertions.assertEquals(values, set.size());
+
+		for (int i = 0; i < values; i++) {
+			Assertions.assertEquals(Integer.valueOf(i), set.get(i));
+		}
+
+		set.getLock().writeLock().lock();
+
+		try {
+			Assertions.assertFalse(set.add(0));
+			Assertions.assertTrue(set.contains(0));
+			Assertions.assertEquals(values, set.unsortedCopy().size());
+		}
+		finally {
+			set.getLock().writeLock().unlock();
+		}
+	}
+}
@@ -12,4 +12,74 @@ public class SimpleReadWriteLockTest {
 	public class NestedThreadSafeIndexedSetTest extends ThreadSafeIndexedSetTest {
 
 	}
+
+	@Nested
+	public class NestedIndexedSetTest extends IndexedSetTest {
+
+	}
+
+	@Nested
+	public class NestedLockFairnessTest extends LockFairnessTest {
+
+	}
+
+	@Nested
+	public class NestedLockStatisticsTest extends LockStatisticsTest {
+
+	}
+
+	@Nested
+	public class NestedTryLockTest extends TryLockTest {
+
+	}
+
+	@Nested
+	public class NestedReentrancyTest extends ReentrancyTest {
+
+	}
+
+	@Nested
+	public class NestedVirtualThreadTest extends VirtualThreadTest {
+
+	}
+
+	@Nested
+	public class NestedAsyncLockTest extends AsyncLockTest {
+
+	}
+
+	@Nested
+	public class NestedPrimitiveIndexedSetTest extends PrimitiveIndexedSetTest {
+
+	}
+
+	@Nested
+	public class NestedOffHeapStorageTest extends OffHeapStorageTest {
+
+	}
+
+	@Nested
+	public class NestedPersistentStorageTest extends PersistentStorageTest {
+
+	}
+
+	@Nested
+	public class NestedWriteAheadLogTest extends WriteAheadLogTest {
+
+	}
+
+	@Nested
+	public class NestedBoundedIndexedSetTest extends BoundedIndexedSetTest {
+
+	}
+
+	@Nested
+	public class NestedBloomFilterTest extends BloomFilterTest {
+
+	}
+
+	@Nested
+	public class NestedSortedViewTest extends SortedViewTest {
+
+	}
 }
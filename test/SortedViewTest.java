@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link SortedView} class, both directly and as returned by
+ * {@link IndexedSet#sortedCopy()}.
+ */
+@SuppressWarnings("javadoc")
+public class SortedViewTest {
+
+	/**
+	 * Returns distinct random integers.
+	 *
+	 * @param size number of integers to return
+	 * @return distinct random integers in random order
+	 */
+	private static List<Integer> randomIntegers(int size) {
+		return new Random(212).ints().distinct().limit(size).boxed().collect(Collectors.toList());
+	}
+
+	@Test
+	public void testIncremental() {
+		List<Integer> values = randomIntegers(5000);
+		IndexedSet<Integer> set = new IndexedSet<>(false);
+		TreeSet<Integer> expected = new TreeSet<>();
+		List<SortedSet<Integer>> views = new ArrayList<>();
+
+		for (int i = 0; i < values.size(); i += 500) {
+			set.addAll(values.subList(i, i + 500));
+			expected.addAll(values.subList(i, i + 500));
+
+			// the same view is returned until elements are added
+			SortedSet<Integer> view = set.sortedCopy();
+			Assertions.assertSame(view, set.sortedCopy());
+			views.add(view);
+
+			// only some of the views are sorted right away, so others merge later
+			if (i % 1000 == 0) {
+				Assertions.assertEquals(new ArrayList<>(expected), new ArrayList<>(view));
+			}
+		}
+
+		for (int i = 0; i < views.size(); i++) {
+			TreeSet<Integer> prefix = new TreeSet<>(values.subList(0, (i + 1) * 500));
+			Assertions.assertEquals(new ArrayList<>(prefix), new ArrayList<>(views.get(i)));
+			Assertions.assertEquals(prefix, views.get(i));
+		}
+
+		Assertions.assertEquals(new ArrayList<>(expected), new ArrayList<>(SortedView.of(set.snapshot(), null)));
+		Assertions.assertEquals(new ArrayList<>(expected), new ArrayList<>(new SortedView<>(set.snapshot())));
+	}
+
+	@Test
+	public void testRanges() {
+		List<Integer> values = randomIntegers(1000);
+		IndexedSet<Integer> set = new IndexedSet<>(false);
+		set.addAll(values);
+		TreeSet<Integer> expected = new TreeSet<>(values);
+		SortedSet<Integer> view = set.sortedCopy();
+
+		Assertions.assertEquals(expected.first(), view.first());
+		Assertions.assertEquals(expected.last(), view.last());
+		Assertions.assertNull(view.comparator());
+
+		for (int i = 0; i + 1 < values.size(); i += 2) {
+			int from = Math.min(values.get(i), values.get(i + 1));
+			int to = Math.max(values.get(i), values.get(i + 1));
+			SortedSet<Integer> range = view.subSet(from, to);
+
+			Assertions.assertEquals(new ArrayList<>(expected.subSet(from, to)), new ArrayList<>(range));
+			Assertions.assertEquals(new ArrayList<>(expected.headSet(to)), new ArrayList<>(view.headSet(to)));
+			Assertions.assertEquals(new ArrayList<>(expected.tailSet(from)), new ArrayList<>(view.tailSet(from)));
+			Assertions.assertEquals(expected.subSet(from, to).size(), range.size());
+			Assertions.assertTrue(range.contains(from));
+			Assertions.assertFalse(range.contains(to));
+			Assertions.assertEquals(new ArrayList<>(expected.subSet(from, to).headSet(to - 1)),
+					new ArrayList<>(range.headSet(to - 1)));
+		}
+
+		Assertions.assertThrows(IllegalArgumentException.class, () -> view.subSet(1, 0));
+		Assertions.assertThrows(NoSuchElementException.class, () -> view.subSet(0, 0).first());
+		Assertions.assertThrows(NoSuchElementException.class, () -> new IndexedSet<Integer>().sortedCopy().last());
+	}
+
+	@Test
+	public void testImmutable() {
+		IndexedSet<Integer> set = new IndexedSet<>(false);
+		set.addAll(List.of(3, 1, 2));
+		SortedSet<Integer> view = set.sortedCopy();
+		set.add(0);
+
+		Assertions.assertEquals(List.of(1, 2, 3), new ArrayList<>(view));
+		Assertions.assertEquals(List.of(0, 1, 2, 3), new ArrayList<>(set.sortedCopy()));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> view.add(4));
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> view.iterator().remove());
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> set.unsortedCopy().add(4));
+		Assertions.assertEquals(3, view.size());
+		Assertions.assertFalse(view.contains(0));
+	}
+
+	@Test
+	public void testOlderSnapshot() {
+		IndexedSet<Integer> set = new IndexedSet<>(false);
+		set.addAll(List.of(5, 3, 1));
+		IndexedStorage<Integer> older = set.snapshot();
+		set.addAll(List.of(4, 2));
+
+		// another thread may have cached a sorted view of a newer snapshot
+		SortedView<Integer> newer = SortedView.of(set.snapshot(), null);
+		Assertions.assertEquals(List.of(1, 2, 3, 4, 5), new ArrayList<>(newer));
+
+		SortedView<Integer> view = SortedView.of(older, newer);
+		Assertions.assertNotSame(newer, view);
+		Assertions.assertEquals(List.of(1, 3, 5), new ArrayList<>(view));
+
+		// a view of a newer snapshot still reuses the cached one
+		Assertions.assertSame(newer, SortedView.of(set.snapshot(), newer));
+	}
+
+	@Test
+	public void testThreadSafe() throws InterruptedException {
+		for (boolean snapshots : new boolean[] { true, false }) {
+			ThreadSafeIndexedSet<Integer> set = new ThreadSafeIndexedSet<>(false, snapshots);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < 5; i++) {
+				int offset = i * 1000;
+
+				workers.add(new Thread(() -> {
+					for (int value = offset; value < offset + 1000; value++) {
+						set.add(value);
+					}
+				}));
+
+				workers.add(new Thread(() -> {
+					for (int j = 0; j < 200; j++) {
+						// every view is sorted and keeps the size it was created with
+						SortedSet<Integer> view = set.sortedCopy();
+						int size = view.size();
+						List<Integer> elements = new ArrayList<>(view);
+						Assertions.assertEquals(size, elements.size());
+						Assertions.assertEquals(new ArrayList<>(new TreeSet<>(elements)), elements);
+					}
+				}));
+			}
+
+			ThreadSafeIndexedSetTest.assertConcurrent("testThreadSafe()", workers, 30000);
+			SortedSet<Integer> view = set.sortedCopy();
+			Assertions.assertSame(view, set.sortedCopy());
+			Assertions.assertEquals(new ArrayList<>(new TreeSet<>(set.unsortedCopy())), new ArrayList<>(view));
+			Assertions.assertEquals(5000, view.size());
+		}
+	}
+}
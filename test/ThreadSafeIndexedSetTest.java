@@ -4,9 +4,12 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -173,13 +176,230 @@ public class ThreadSafeIndexedSetTest {
 		Assertions.assertEquals(expected(num), paths.sortedCopy());
 	}
 
+	@Test
+	public void testOptimisticReads() throws InterruptedException {
+		int num = 1000;
+		int threads = 5;
+		int timeout = 30000;
+
+		for (boolean sorted : new boolean[] { true, false }) {
+			ThreadSafeIndexedSet<Path> paths = new ThreadSafeIndexedSet<Path>(sorted);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < threads; i++) {
+				workers.add(new AddPathWorker(paths, num));
+				workers.add(new ReadPathWorker(paths, num));
+			}
+
+			assertConcurrent("testOptimisticReads()", workers, timeout);
+			Assertions.assertEquals(expected(num), paths.sortedCopy());
+		}
+	}
+
+	@Test
+	public void testSnapshotMode() throws InterruptedException {
+		int num = 1000;
+		int threads = 5;
+		int timeout = 30000;
+
+		for (boolean sorted : new boolean[] { true, false }) {
+			ThreadSafeIndexedSet<Path> paths = new ThreadSafeIndexedSet<Path>(sorted, true);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < threads; i++) {
+				workers.add(new AddPathWorker(paths, num));
+				workers.add(new ReadPathWorker(paths, num));
+				workers.add(new CopyPathWorker(paths, num));
+			}
+
+			assertConcurrent("testSnapshotMode()", workers, timeout);
+			Assertions.assertTrue(paths.usesSnapshots());
+			Assertions.assertEquals(expected(num), paths.sortedCopy());
+			Assertions.assertEquals(expected(num), paths.unsortedCopy());
+
+			Set<Path> copy = paths.unsortedCopy();
+			paths.add(Paths.get("extra.txt"));
+			Assertions.assertEquals(num, copy.size());
+			Assertions.assertEquals(num + 1, paths.size());
+			Assertions.assertThrows(UnsupportedOperationException.class, () -> copy.add(Paths.get("fail.txt")));
+		}
+	}
+
+	@Test
+	public void testParallelStream() throws InterruptedException {
+		int num = 1000;
+		int threads = 5;
+		int timeout = 30000;
+
+		for (boolean sorted : new boolean[] { true, false }) {
+			ThreadSafeIndexedSet<Path> paths = new ThreadSafeIndexedSet<Path>(sorted);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < threads; i++) {
+				workers.add(new AddPathWorker(paths, num));
+				workers.add(new Thread(() -> {
+					for (int j = 0; j < 50; j++) {
+						// every stream sees a consistent snapshot, even while adding
+						int size = paths.size();
+						List<Path> streamed = paths.parallelStream().collect(Collectors.toList());
+						Assertions.assertTrue(streamed.size() >= size);
+						Assertions.assertEquals(streamed.size(), new HashSet<>(streamed).size());
+					}
+				}));
+			}
+
+			assertConcurrent("testParallelStream()", workers, timeout);
+			Assertions.assertEquals(new ArrayList<>(expected(num)), paths.parallelStream().sorted().collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testBulkQueries() throws InterruptedException {
+		int num = 1000;
+		int threads = 5;
+		int timeout = 30000;
+
+		for (boolean snapshots : new boolean[] { true, false }) {
+			ThreadSafeIndexedSet<Path> paths = new ThreadSafeIndexedSet<Path>(true, snapshots);
+			List<Path> local = new ArrayList<>(expected(num));
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < threads; i++) {
+				workers.add(new AddPathWorker(paths, num));
+				workers.add(new Thread(() -> {
+					for (int j = 0; j < 100; j++) {
+						// every batch sees a single consistent state of the set
+						List<Path> range = paths.getRange(0, num);
+						BitSet found = paths.containsAll(range);
+						Assertions.assertEquals(range.size(), found.cardinality());
+						Assertions.assertEquals(new ArrayList<>(new TreeSet<>(range)), range);
+
+						for (int k = 0; k < range.size(); k += 97) {
+							Assertions.assertTrue(paths.indexOf(range.get(k)) >= k);
+						}
+
+						SortedSet<Path> head = paths.headSet(local.get(num / 2));
+						Assertions.assertTrue(head.size() <= num / 2);
+
+						// a rank and the element at that rank come from the same state
+						Path middle = local.get(num / 2);
+						Path ceiling = paths.ceiling(middle);
+						Assertions.assertTrue(ceiling == null || ceiling.compareTo(middle) >= 0);
+						Assertions.assertTrue(paths.rank(middle) <= num / 2);
+						Assertions.assertTrue(paths.count(local.get(0), true, middle, false) <= num / 2);
+					}
+				}));
+			}
+
+			assertConcurrent("testBulkQueries()", workers, timeout);
+			Assertions.assertEquals(local, paths.getRange(0, num));
+			Assertions.assertEquals(num, paths.containsAll(local).cardinality());
+			Assertions.assertEquals(num / 2, paths.headSet(local.get(num / 2)).size());
+			Assertions.assertEquals(num / 2, paths.indexOf(local.get(num / 2)));
+			Assertions.assertEquals(num / 2, paths.rank(local.get(num / 2)));
+			Assertions.assertEquals(local.get(num / 2 - 1), paths.lower(local.get(num / 2)));
+			Assertions.assertEquals(local.get(num / 2), paths.floor(local.get(num / 2)));
+			Assertions.assertEquals(local.get(num / 2 + 1), paths.higher(local.get(num / 2)));
+			Assertions.assertEquals(num / 2 + 1, paths.count(local.get(0), true, local.get(num / 2), true));
+			Assertions.assertEquals(-1, paths.indexOf(Paths.get("missing")));
+		}
+	}
+
+	@Test
+	public void testAddBatch() throws InterruptedException {
+		int num = 1000;
+		int threads = 5;
+		int timeout = 30000;
+
+		for (int chunk : new int[] { 1, 64, num }) {
+			ThreadSafeIndexedSet<Path> paths = new ThreadSafeIndexedSet<Path>();
+			List<Thread> workers = new ArrayList<>();
+			List<Path> local = new ArrayList<>(expected(num));
+			int[] added = new int[threads];
+
+			for (int i = 0; i < threads; i++) {
+				int index = i;
+				workers.add(new Thread(() -> added[index] = paths.addBatch(local, chunk)));
+				workers.add(new ReadPathWorker(paths, num));
+			}
+
+			assertConcurrent("testAddBatch()", workers, timeout);
+			Assertions.assertEquals(expected(num), paths.sortedCopy());
+			Assertions.assertEquals(num, Arrays.stream(added).sum());
+		}
+	}
+
+	@Test
+	public void testLockFree() throws InterruptedException {
+		int num = 1000;
+		int threads = 5;
+		int timeout = 30000;
+
+		for (boolean sorted : new boolean[] { true, false }) {
+			ConcurrentIndexedSet<Path> paths = new LockFreeIndexedSet<Path>(sorted);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < threads; i++) {
+				workers.add(new AddPathWorker(paths, num));
+				workers.add(new AddAllWorker(paths, num));
+				workers.add(new ReadPathWorker(paths, num));
+				workers.add(new CopyPathWorker(paths, num));
+			}
+
+			assertConcurrent("testLockFree()", workers, timeout);
+			Assertions.assertEquals(expected(num), paths.sortedCopy());
+			Assertions.assertEquals(num, paths.size());
+
+			Set<Path> seen = new TreeSet<>();
+
+			for (int i = 0; i < num; i++) {
+				Assertions.assertTrue(seen.add(paths.get(i)));
+			}
+
+			Assertions.assertNull(paths.get(num));
+		}
+	}
+
+	@Test
+	public void testSharded() throws InterruptedException {
+		int num = 1000;
+		int threads = 5;
+		int timeout = 30000;
+
+		for (int shards : new int[] { 1, 3, 64 }) {
+			ShardedIndexedSet<Path> paths = new ShardedIndexedSet<Path>(shards);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < threads; i++) {
+				workers.add(new AddPathWorker(paths, num));
+				workers.add(new AddAllWorker(paths, num));
+				workers.add(new ReadPathWorker(paths, num));
+				workers.add(new CopyPathWorker(paths, num));
+			}
+
+			assertConcurrent("testSharded()", workers, timeout);
+			Assertions.assertEquals(Integer.highestOneBit(shards * 2 - 1), paths.shards());
+			Assertions.assertEquals(expected(num), paths.sortedCopy());
+			Assertions.assertEquals(num, paths.size());
+
+			Set<Path> seen = new TreeSet<>();
+
+			for (int i = 0; i < num; i++) {
+				Assertions.assertTrue(seen.add(paths.get(i)));
+			}
+
+			Assertions.assertNull(paths.get(num));
+			Assertions.assertNull(paths.get(-1));
+		}
+	}
+
 	/** Forces several write operations */
 	private static class AddPathWorker extends Thread {
 
-		private ThreadSafeIndexedSet<Path> paths;
+		private ConcurrentIndexedSet<Path> paths;
 		private int num;
 
-		public AddPathWorker(ThreadSafeIndexedSet<Path> paths, int num) {
+		public AddPathWorker(ConcurrentIndexedSet<Path> paths, int num) {
 			this.paths = paths;
 			this.num = num;
 		}
@@ -195,10 +415,10 @@ public class ThreadSafeIndexedSetTest {
 	/** Forces a single write operation */
 	private static class AddAllWorker extends Thread {
 
-		private ThreadSafeIndexedSet<Path> paths;
+		private ConcurrentIndexedSet<Path> paths;
 		private int num;
 
-		public AddAllWorker(ThreadSafeIndexedSet<Path> paths, int num) {
+		public AddAllWorker(ConcurrentIndexedSet<Path> paths, int num) {
 			this.paths = paths;
 			this.num = num;
 		}
@@ -218,10 +438,10 @@ public class ThreadSafeIndexedSetTest {
 	/** Forces several read operations **/
 	private static class CopyPathWorker extends Thread {
 
-		private ThreadSafeIndexedSet<Path> paths;
+		private ConcurrentIndexedSet<Path> paths;
 		private int num;
 
-		public CopyPathWorker(ThreadSafeIndexedSet<Path> paths, int num) {
+		public CopyPathWorker(ConcurrentIndexedSet<Path> paths, int num) {
 			this.paths = paths;
 			this.num = num;
 		}
@@ -234,6 +454,32 @@ public class ThreadSafeIndexedSetTest {
 		}
 	}
 
+	/** Forces several optimistic read operations **/
+	private static class ReadPathWorker extends Thread {
+
+		private ConcurrentIndexedSet<Path> paths;
+		private int num;
+
+		public ReadPathWorker(ConcurrentIndexedSet<Path> paths, int num) {
+			this.paths = paths;
+			this.num = num;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < num; i++) {
+				int size = paths.size();
+				Assertions.assertTrue(size >= 0 && size <= num);
+
+				if (size > 0) {
+					Path path = paths.get(i % size);
+					Assertions.assertNotNull(path);
+					Assertions.assertTrue(paths.contains(path));
+				}
+			}
+		}
+	}
+
 	/**
 	 * Handles multithreading in such a way that concurrent modification exceptions
 	 * may be detected, causing the test to fail. Code comes from:
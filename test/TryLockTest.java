@@ -0,0 +1,317 @@
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests non-blocking, timed, and interruptible acquisition of the
+ * {@link SimpleReadWriteLock} and the matching {@link ThreadSafeIndexedSet}
+ * operations.
+ */
+@SuppressWarnings("javadoc")
+public class TryLockTest {
+
+	/** Timeout used for acquisitions that are expected to time out. */
+	public static final long TIMEOUT = 100;
+
+	/** Timeout used for acquisitions that are expected to succeed. */
+	public static final long GENEROUS = 5000;
+
+	/**
+	 * Tries to acquire the lock from another thread, since the locks are
+	 * reentrant for the current thread.
+	 *
+	 * @param lock the lock to try
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return whether the other thread acquired the lock
+	 * @throws InterruptedException if interrupted while waiting for the other
+	 *   thread
+	 */
+	public static boolean tryElsewhere(SimpleLock lock, long timeout) throws InterruptedException {
+		AtomicBoolean acquired = new AtomicBoolean();
+
+		Thread other = new Thread(() -> {
+			try {
+				if (lock.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+					acquired.set(true);
+					lock.unlock();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		other.start();
+		other.join();
+		return acquired.get();
+	}
+
+	@Test
+	public void testTryLock() throws InterruptedException {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+
+			Assertions.assertTrue(lock.readLock().tryLock());
+			Assertions.assertTrue(lock.readLock().tryLock());
+			Assertions.assertFalse(tryElsewhere(lock.writeLock(), 0));
+			Assertions.assertTrue(tryElsewhere(lock.readLock(), 0));
+			lock.readLock().unlock();
+			lock.readLock().unlock();
+
+			Assertions.assertTrue(lock.writeLock().tryLock());
+			Assertions.assertFalse(tryElsewhere(lock.readLock(), 0));
+			Assertions.assertFalse(tryElsewhere(lock.writeLock(), 0));
+			lock.writeLock().unlock();
+
+			Assertions.assertTrue(lock.readLock().tryLock(), fairness.toString());
+			lock.readLock().unlock();
+		}
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		lock.writeLock().lock();
+
+		long start = System.nanoTime();
+		Assertions.assertFalse(tryElsewhere(lock.readLock(), TIMEOUT));
+		Assertions.assertFalse(tryElsewhere(lock.writeLock(), TIMEOUT));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		Assertions.assertTrue(elapsed >= 2 * TIMEOUT, Long.toString(elapsed));
+		lock.writeLock().unlock();
+
+		Assertions.assertTrue(lock.writeLock().tryLock(TIMEOUT, TimeUnit.MILLISECONDS));
+		lock.writeLock().unlock();
+	}
+
+	@Test
+	public void testTimedAcquire() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		AtomicBoolean acquired = new AtomicBoolean();
+		lock.writeLock().lock();
+
+		Thread reader = new Thread(() -> {
+			try {
+				acquired.set(lock.readLock().tryLock(GENEROUS, TimeUnit.MILLISECONDS));
+				lock.readLock().unlock();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		reader.start();
+		Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+		lock.writeLock().unlock();
+		reader.join();
+
+		Assertions.assertTrue(acquired.get());
+	}
+
+	@Test
+	public void testInterruptible() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		AtomicBoolean interrupted = new AtomicBoolean();
+		lock.readLock().lock();
+
+		Thread writer = new Thread(() -> {
+			try {
+				lock.writeLock().lockInterruptibly();
+				lock.writeLock().unlock();
+			}
+			catch (InterruptedException e) {
+				interrupted.set(true);
+			}
+		});
+
+		writer.start();
+		Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+		writer.interrupt();
+		writer.join();
+
+		Assertions.assertTrue(interrupted.get());
+		lock.readLock().unlock();
+
+		// the abandoned writer must not block anyone
+		Assertions.assertTrue(lock.writeLock().tryLock());
+		lock.writeLock().unlock();
+
+		Thread.currentThread().interrupt();
+		Assertions.assertThrows(InterruptedException.class, () -> lock.readLock().lockInterruptibly());
+		Assertions.assertFalse(Thread.interrupted());
+	}
+
+	@Test
+	public void testUninterruptible() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock();
+		AtomicBoolean interrupted = new AtomicBoolean();
+		lock.writeLock().lock();
+
+		Thread reader = new Thread(() -> {
+			lock.readLock().lock();
+			interrupted.set(Thread.interrupted());
+			lock.readLock().unlock();
+		});
+
+		reader.start();
+		Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+		reader.interrupt();
+		Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+		Assertions.assertTrue(reader.isAlive());
+		lock.writeLock().unlock();
+		reader.join();
+
+		Assertions.assertTrue(interrupted.get());
+	}
+
+	@Test
+	public void testAbandonedWriterReleasesReaders() throws InterruptedException {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			if (fairness == SimpleReadWriteLock.Fairness.READER_PREFERRING) {
+				continue;
+			}
+
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+			CountDownLatch done = new CountDownLatch(1);
+			lock.readLock().lock();
+
+			// waits behind the reader, then gives up
+			Thread writer = new Thread(() -> {
+				try {
+					if (lock.writeLock().tryLock(2 * ReadWriteLockTest.OFFSET_SLEEP, TimeUnit.MILLISECONDS)) {
+						lock.writeLock().unlock();
+					}
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+
+			// waits behind the waiting writer
+			Thread reader = new Thread(() -> {
+				lock.readLock().lock();
+				lock.readLock().unlock();
+				done.countDown();
+			});
+
+			writer.start();
+			Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+			reader.start();
+			writer.join();
+
+			Assertions.assertTrue(done.await(GENEROUS, TimeUnit.MILLISECONDS), fairness.toString());
+			lock.readLock().unlock();
+
+			Assertions.assertTrue(lock.writeLock().tryLock(GENEROUS, TimeUnit.MILLISECONDS), fairness.toString());
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Test
+	public void testAbandonedTicket() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock(SimpleReadWriteLock.Fairness.PHASE_FAIR);
+		AtomicBoolean acquired = new AtomicBoolean();
+		lock.writeLock().lock();
+
+		Thread first = new Thread(() -> {
+			try {
+				lock.writeLock().lockInterruptibly();
+				lock.writeLock().unlock();
+			}
+			catch (InterruptedException e) {
+				// expected
+			}
+		});
+
+		Thread second = new Thread(() -> {
+			lock.writeLock().lock();
+			acquired.set(true);
+			lock.writeLock().unlock();
+		});
+
+		first.start();
+		Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+		second.start();
+		Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+
+		// the second writer must skip the ticket of the first
+		first.interrupt();
+		first.join();
+		lock.writeLock().unlock();
+		second.join(GENEROUS);
+
+		Assertions.assertTrue(acquired.get());
+	}
+
+	@Test
+	public void testStripedTimeout() throws InterruptedException {
+		SimpleReadWriteLock lock = new SimpleReadWriteLock(SimpleReadWriteLock.Fairness.READER_PREFERRING, true);
+		lock.readLock().lock();
+
+		Thread writer = new Thread(() -> {
+			try {
+				Assertions.assertFalse(lock.writeLock().tryLock(TIMEOUT, TimeUnit.MILLISECONDS));
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		writer.start();
+		writer.join();
+
+		Assertions.assertTrue(lock.readLock().tryLock());
+		lock.readLock().unlock();
+		lock.readLock().unlock();
+
+		Assertions.assertTrue(lock.writeLock().tryLock());
+		lock.writeLock().unlock();
+	}
+
+	@Test
+	public void testSetTimeout() throws InterruptedException, TimeoutException {
+		ThreadSafeIndexedSet<Integer> set = new ThreadSafeIndexedSet<>();
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		Assertions.assertTrue(set.tryAdd(1, TIMEOUT, TimeUnit.MILLISECONDS));
+
+		// holds the write lock by adding from a collection that blocks
+		Thread writer = new Thread(() -> {
+			set.addBatch(() -> {
+				locked.countDown();
+
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				return List.of(2).iterator();
+			});
+		});
+
+		writer.start();
+		locked.await();
+
+		Assertions.assertThrows(TimeoutException.class, () -> set.tryAdd(3, TIMEOUT, TimeUnit.MILLISECONDS));
+		Assertions.assertThrows(TimeoutException.class, () -> set.tryContains(1, TIMEOUT, TimeUnit.MILLISECONDS));
+		Assertions.assertThrows(TimeoutException.class, () -> set.tryGet(0, TIMEOUT, TimeUnit.MILLISECONDS));
+		Assertions.assertThrows(TimeoutException.class, () -> set.trySize(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		writer.join();
+
+		Assertions.assertEquals(2, set.trySize(GENEROUS, TimeUnit.MILLISECONDS));
+		Assertions.assertTrue(set.tryContains(2, GENEROUS, TimeUnit.MILLISECONDS));
+		Assertions.assertEquals(Integer.valueOf(2), set.tryGet(1, GENEROUS, TimeUnit.MILLISECONDS));
+		Assertions.assertFalse(set.tryAddAll(List.of(1, 2), GENEROUS, TimeUnit.MILLISECONDS));
+	}
+}
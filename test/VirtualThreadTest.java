@@ -0,0 +1,154 @@
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that threads waiting for the {@link SimpleReadWriteLock} park instead
+ * of blocking on a monitor, so virtual threads unmount from their carriers
+ * while they wait. The virtual thread tests are skipped on Java versions
+ * without virtual threads.
+ */
+@SuppressWarnings("javadoc")
+public class VirtualThreadTest {
+
+	/** Number of virtual threads used by the stress test. */
+	public static final int THREADS = 100_000;
+
+	/** Number of distinct elements added by the stress test. */
+	public static final int ELEMENTS = 1000;
+
+	/** How often a virtual thread holds the write lock for a while. */
+	public static final int WRITER_EVERY = 10_000;
+
+	/** How long those writers hold the write lock in milliseconds. */
+	public static final long HOLD = 20;
+
+	/** Overall timeout for each test. */
+	public static final long TIMEOUT = 60000;
+
+	/**
+	 * Returns an executor that starts a new virtual thread for each task. Skips
+	 * the calling test if virtual threads are not available.
+	 *
+	 * @return executor using virtual threads
+	 * @throws ReflectiveOperationException if the executor could not be created
+	 */
+	public static ExecutorService newVirtualThreadExecutor() throws ReflectiveOperationException {
+		Method factory;
+
+		try {
+			factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}
+		catch (NoSuchMethodException e) {
+			factory = null;
+		}
+
+		Assumptions.assumeTrue(factory != null, "Virtual threads are not available.");
+		return (ExecutorService) factory.invoke(null);
+	}
+
+	/**
+	 * Asserts that a thread waiting for the lock is parked rather than blocked on
+	 * a monitor.
+	 *
+	 * @param lock the lock held elsewhere
+	 * @param waiting the lock the other thread waits for
+	 * @throws InterruptedException if interrupted while waiting for the thread
+	 */
+	private static void assertParked(SimpleLock lock, SimpleLock waiting) throws InterruptedException {
+		lock.lock();
+
+		Thread waiter = new Thread(() -> {
+			waiting.lock();
+			waiting.unlock();
+		});
+
+		try {
+			waiter.start();
+			Thread.sleep(ReadWriteLockTest.OFFSET_SLEEP);
+			Assertions.assertEquals(Thread.State.WAITING, waiter.getState());
+		}
+		finally {
+			lock.unlock();
+		}
+
+		waiter.join();
+	}
+
+	@Test
+	public void testWaitersPark() throws InterruptedException {
+		for (SimpleReadWriteLock.Fairness fairness : SimpleReadWriteLock.Fairness.values()) {
+			SimpleReadWriteLock lock = new SimpleReadWriteLock(fairness);
+			assertParked(lock.writeLock(), lock.readLock());
+			assertParked(lock.readLock(), lock.writeLock());
+			assertParked(lock.writeLock(), lock.upgradableLock());
+		}
+	}
+
+	@Test
+	public void testVirtualThreads() throws Exception {
+		ExecutorService executor = newVirtualThreadExecutor();
+		ThreadSafeIndexedSet<Integer> set = new ThreadSafeIndexedSet<>();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+
+		Assertions.assertTimeoutPreemptively(Duration.ofMillis(TIMEOUT), () -> {
+			List<Future<?>> futures = new ArrayList<>(THREADS);
+
+			for (int i = 0; i < THREADS; i++) {
+				int value = i % ELEMENTS;
+
+				if (i % WRITER_EVERY == 0) {
+					futures.add(executor.submit(() -> {
+						set.getLock().writeLock().lock();
+
+						try {
+							// if waiters pinned their carriers, only a few of them could have started by now
+							Thread.sleep(HOLD);
+							peak.accumulateAndGet(running.get(), Math::max);
+						}
+						finally {
+							set.getLock().writeLock().unlock();
+						}
+
+						return null;
+					}));
+				}
+				else {
+					futures.add(executor.submit(() -> {
+						running.incrementAndGet();
+
+						try {
+							set.add(value);
+							return set.contains(value);
+						}
+						finally {
+							running.decrementAndGet();
+						}
+					}));
+				}
+			}
+
+			executor.shutdown();
+			Assertions.assertTrue(executor.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS));
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		});
+
+		int carriers = Runtime.getRuntime().availableProcessors();
+		Assertions.assertEquals(ELEMENTS, set.size());
+		Assertions.assertTrue(peak.get() > carriers, () -> "Only " + peak.get() + " threads waited at once.");
+	}
+}
@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link WriteAheadLog} class, both directly and attached to a
+ * {@link ThreadSafeIndexedSet}.
+ */
+@SuppressWarnings("javadoc")
+public class WriteAheadLogTest {
+
+	/** Size of a logged {@link Long} in bytes, including its checksum. */
+	private static final int RECORD = Long.BYTES + Integer.BYTES;
+
+	/** Directory holding the files written by a test. */
+	@TempDir
+	public Path directory;
+
+	/**
+	 * Waits until a file reaches the expected size.
+	 *
+	 * @param file the file to check
+	 * @param size the expected size in bytes
+	 * @return true if the file reached the size in time
+	 * @throws Exception if interrupted or the file could not be read
+	 */
+	private static boolean awaitSize(Path file, long size) throws Exception {
+		long deadline = System.currentTimeMillis() + TryLockTest.GENEROUS;
+
+		while (Files.size(file) < size && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+
+		return Files.size(file) == size;
+	}
+
+	@Test
+	public void testRecover() throws IOException {
+		WriteAheadLog.FlushPolicy[] policies = {
+				WriteAheadLog.FlushPolicy.sync(),
+				WriteAheadLog.FlushPolicy.everyRecords(10),
+				WriteAheadLog.FlushPolicy.everyMillis(5) };
+
+		List<Long> expected = LongStream.range(0, 1000).boxed().collect(Collectors.toList());
+
+		for (WriteAheadLog.FlushPolicy policy : policies) {
+			Path file = directory.resolve(policy.toString());
+
+			try (WriteAheadLog<Long> log = WriteAheadLog.open(file, ElementSerializer.LONG, policy)) {
+				ThreadSafeIndexedSet<Long> set = new ThreadSafeIndexedSet<>(new InsertionOrderedSet<>(), false, log);
+
+				for (long value = 0; value < 100; value++) {
+					Assertions.assertTrue(set.add(value), policy::toString);
+					Assertions.assertFalse(set.add(value), policy::toString);
+				}
+
+				set.addAll(expected.subList(0, 500));
+				set.addBatch(expected.subList(400, 800));
+				set.addBatch(expected.subList(700, 1000), 64);
+			}
+
+			// duplicates are never logged
+			Assertions.assertEquals(1000 * RECORD, Files.size(file), policy::toString);
+
+			IndexedSet<Long> recovered = WriteAheadLog.recover(file, ElementSerializer.LONG, false);
+			Assertions.assertEquals(expected, new ArrayList<>(recovered.snapshot()), policy::toString);
+		}
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		Path file = directory.resolve("log");
+
+		for (int round = 0; round < 3; round++) {
+			InsertionOrderedSet<Long> storage = new InsertionOrderedSet<>();
+			Assertions.assertEquals(round * 10, WriteAheadLog.replay(file, ElementSerializer.LONG, storage));
+
+			try (WriteAheadLog<Long> log = WriteAheadLog.open(file, ElementSerializer.LONG, WriteAheadLog.FlushPolicy.sync())) {
+				ThreadSafeIndexedSet<Long> set = new ThreadSafeIndexedSet<>(storage, true, log);
+
+				for (long value = 0; value < (round + 1) * 10; value++) {
+					set.add(value);
+				}
+
+				Assertions.assertEquals((round + 1) * 10, set.size());
+			}
+		}
+
+		IndexedSet<Long> recovered = WriteAheadLog.recover(file, ElementSerializer.LONG, true);
+		Assertions.assertEquals(30, recovered.size());
+		Assertions.assertEquals(29L, recovered.get(29));
+	}
+
+	@Test
+	public void testCorruptTail() throws Exception {
+		Path file = directory.resolve("log");
+
+		try (WriteAheadLog<Long> log = WriteAheadLog.open(file, ElementSerializer.LONG, WriteAheadLog.FlushPolicy.sync())) {
+			log.append(1L);
+			log.append(2L);
+		}
+
+		// a complete record with a bad checksum, then a partial record
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.wrap(new byte[RECORD + 3]));
+		}
+
+		Assertions.assertEquals(List.of(1L, 2L), new ArrayList<>(WriteAheadLog.recover(file, ElementSerializer.LONG, false).snapshot()));
+
+		try (WriteAheadLog<Long> log = WriteAheadLog.open(file, ElementSerializer.LONG, WriteAheadLog.FlushPolicy.everyRecords(100))) {
+			Assertions.assertEquals(2 * RECORD, Files.size(file));
+			log.append(3L);
+		}
+
+		Assertions.assertEquals(List.of(1L, 2L, 3L), new ArrayList<>(WriteAheadLog.recover(file, ElementSerializer.LONG, false).snapshot()));
+	}
+
+	@Test
+	public void testPolicies() throws Exception {
+		Path file = directory.resolve("records");
+
+		try (WriteAheadLog<Long> log = WriteAheadLog.open(file, ElementSerializer.LONG, WriteAheadLog.FlushPolicy.everyRecords(5))) {
+			for (long value = 0; value < 4; value++) {
+				log.append(value);
+			}
+
+			Thread.sleep(TryLockTest.TIMEOUT);
+			Assertions.assertEquals(0, Files.size(file));
+
+			log.append(4L);
+			Assertions.assertTrue(awaitSize(file, 5 * RECORD));
+
+			// an explicit sync does not wait for the policy
+			log.append(5L);
+			log.sync();
+			Assertions.assertEquals(6 * RECORD, Files.size(file));
+		}
+
+		file = directory.resolve("millis");
+
+		try (WriteAheadLog<Long> log = WriteAheadLog.open(file, ElementSerializer.LONG, WriteAheadLog.FlushPolicy.everyMillis(10))) {
+			log.append(0L);
+			Assertions.assertTrue(awaitSize(file, RECORD));
+		}
+
+		Assertions.assertThrows(IllegalStateException.class, () -> {
+			WriteAheadLog<Long> log = WriteAheadLog.open(directory.resolve("closed"), ElementSerializer.LONG,
+					WriteAheadLog.FlushPolicy.sync());
+			log.close();
+			log.append(0L);
+		});
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		Path file = directory.resolve("log");
+
+		try (WriteAheadLog<Long> log = WriteAheadLog.open(file, ElementSerializer.LONG, WriteAheadLog.FlushPolicy.sync())) {
+			ThreadSafeIndexedSet<Long> set = new ThreadSafeIndexedSet<>(new InsertionOrderedSet<>(), false, log);
+			List<Thread> workers = new ArrayList<>();
+
+			for (int i = 0; i < 5; i++) {
+				long offset = i * 500L;
+
+				workers.add(new Thread(() -> {
+					for (long value = offset; value < offset + 500; value++) {
+						Assertions.assertTrue(set.add(value));
+
+						try {
+							// written before add returned, so only other writers may be behind
+							long size = set.size();
+							Assertions.assertTrue(Files.size(file) >= (size - 4) * RECORD);
+						}
+						catch (IOException e) {
+							Assertions.fail(e);
+						}
+					}
+				}));
+			}
+
+			ThreadSafeIndexedSetTest.assertConcurrent("testGroupCommit()", workers, 30000);
+			Assertions.assertEquals(2500 * RECORD, Files.size(file));
+		}
+
+		Assertions.assertEquals(2500, WriteAheadLog.recover(file, ElementSerializer.LONG, false).size());
+	}
+}